@@ -0,0 +1,70 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import android.util.Pair
+import com.gilgoldzweig.mvp.analytics.Event
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of [Timber.DebugTree]'s output path, run with `-prof gc` to see the bytes allocated per call
+ *
+ * Medium messages go to `Log` as is, long ones are split by line and into 4000 chars chunks,
+ * one string per chunk since that is what `Log.println` takes. Events are tagged from the stack,
+ * which is most of what they allocate
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DebugTreeBenchmark {
+
+	private val medium = (1..6).joinToString("\n") { "medium message line with some text $it" }
+	private val long = (1..300).joinToString("\n") { "a longer line of text for the chunking path number $it" }
+	private val parameters = arrayOf<Pair<EventParameter, Any>>(
+		Pair(BenchmarkParameter.USER, "gil"),
+		Pair(BenchmarkParameter.ATTEMPTS, 3)
+	)
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun mediumMessage() {
+		Timber.tag(TAG).d(medium)
+	}
+
+	@Benchmark
+	fun longMessage() {
+		Timber.tag(TAG).d(long)
+	}
+
+	@Benchmark
+	fun event() {
+		Timber.event(BenchmarkEvent.LOGIN, *parameters)
+	}
+
+	private enum class BenchmarkEvent(override val displayName: String) : Event {
+		LOGIN("login");
+
+		override fun toString() = displayName
+	}
+
+	private enum class BenchmarkParameter(override val displayName: String) : EventParameter {
+		USER("user"),
+		ATTEMPTS("attempts");
+
+		override fun toString() = displayName
+	}
+
+	private companion object {
+		const val TAG = "DebugTreeBenchmark"
+	}
+}
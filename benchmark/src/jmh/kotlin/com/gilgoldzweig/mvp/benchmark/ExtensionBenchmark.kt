@@ -0,0 +1,72 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.analytics.Event
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import com.gilgoldzweig.mvp.logging.*
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of the [TimberExtension][d] helpers, both falling back to a stack walk for the tag and
+ * through [CallSiteTimber] as rewritten by the callsite-tags plugin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ExtensionBenchmark {
+
+	private val payload = listOf("first", "second", "third")
+	private val failure = IllegalStateException("request failed")
+	private val parameter: Pair<EventParameter, Any> = BenchmarkParameter.SCREEN to "settings"
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun debug() {
+		payload.d(prefix = "payload=")
+	}
+
+	@Benchmark
+	fun debugWithCallSiteTag() {
+		CallSiteTimber.d(payload, "payload=", "", " ", TAG)
+	}
+
+	@Benchmark
+	fun lazyDebug() {
+		logD { "payload=$payload" }
+	}
+
+	@Benchmark
+	fun crash() {
+		failure.crash("request failed")
+	}
+
+	@Benchmark
+	fun event() {
+		BenchmarkEvent.OPEN.event(parameter)
+	}
+
+	private enum class BenchmarkEvent(override val displayName: String) : Event {
+		OPEN("open");
+
+		override fun toString() = displayName
+	}
+
+	private enum class BenchmarkParameter(override val displayName: String) : EventParameter {
+		SCREEN("screen");
+
+		override fun toString() = displayName
+	}
+
+	private companion object {
+		const val TAG = "ExtensionBenchmark"
+	}
+}
@@ -0,0 +1,42 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of a log call with 0, 1 and 5 planted trees, 0 being the price of a disabled call
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ForestBenchmark {
+
+	@JvmField
+	@Param("0", "1", "5")
+	var trees: Int = 0
+
+	@Setup
+	fun plant() {
+		repeat(trees) { Timber.plant(Timber.DebugTree()) }
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun message() {
+		Timber.tag(TAG).d("message")
+	}
+
+	@Benchmark
+	fun messageWithArgs() {
+		Timber.tag(TAG).d("value %d of %s", 42, TAG)
+	}
+
+	private companion object {
+		const val TAG = "ForestBenchmark"
+	}
+}
@@ -0,0 +1,60 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of formatting a message, without args it is passed through as is
+ *
+ * [stringFormat] and [formatMessage] compare [String.format] with the parsed templates
+ * [Timber.Tree.formatMessage] renders messages with
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class FormatBenchmark {
+
+	private val user = "gil"
+	private val attempts = 3
+	private val latency = 12.5
+	private val tree = FormattingTree()
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun withoutArgs() {
+		Timber.tag(TAG).i("user logged in after retrying")
+	}
+
+	@Benchmark
+	fun withArgs() {
+		Timber.tag(TAG).i(TEMPLATE, user, attempts, latency)
+	}
+
+	@Benchmark
+	fun stringFormat(): String = String.format(TEMPLATE, user, attempts, latency)
+
+	@Benchmark
+	fun formatMessage(): String = tree.format(TEMPLATE, arrayOf(user, attempts, latency))
+
+	/**
+	 * Exposes [Timber.Tree.formatMessage] without logging
+	 */
+	private class FormattingTree : Timber.DebugTree() {
+		fun format(message: String, args: Array<Any>): String = formatMessage(message, args)
+	}
+
+	private companion object {
+		const val TAG = "FormatBenchmark"
+		const val TEMPLATE = "user %s logged in after %d attempts in %.2fms"
+	}
+}
@@ -0,0 +1,53 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import android.util.Log
+import com.gilgoldzweig.mvp.logging.CallSiteTimber
+import com.gilgoldzweig.mvp.logging.Timber
+import com.gilgoldzweig.mvp.logging.logD
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Compares `describe().d(prefix = "state=")`, which builds its message before the call,
+ * with `logD { "state=${describe()}" }`, which only builds it when a tree will log it
+ *
+ * The eager call is made through [CallSiteTimber], the call the callsite-tags plugin rewrites it to,
+ * so both sides pay for the same tag
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+open class LazyLoggingBenchmark {
+
+	@JvmField
+	@Param("false", "true")
+	var debugEnabled: Boolean = false
+
+	private val values = IntArray(32) { it * 31 }
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree().setMinPriority(if (debugEnabled) Log.DEBUG else Log.INFO))
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun eager() {
+		CallSiteTimber.d(describe(), "state=", "", " ", TAG)
+	}
+
+	@Benchmark
+	fun lazy() {
+		logD { "state=${describe()}" }
+	}
+
+	private fun describe(): String = values.joinToString(prefix = "[", postfix = "]")
+
+	private companion object {
+		const val TAG = "LazyLoggingBenchmark"
+	}
+}
@@ -0,0 +1,46 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * Logging from three threads while a fourth keeps planting and uprooting a tree,
+ * which rebuilds the forest the loggers read
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class PlantUprootBenchmark {
+
+	private val churned = Timber.DebugTree()
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(3)
+	fun log() {
+		Timber.tag(TAG).d("message")
+	}
+
+	@Benchmark
+	@Group("churn")
+	@GroupThreads(1)
+	fun plantAndUproot() {
+		Timber.plant(churned)
+		Timber.uproot(churned)
+	}
+
+	private companion object {
+		const val TAG = "PlantUprootBenchmark"
+	}
+}
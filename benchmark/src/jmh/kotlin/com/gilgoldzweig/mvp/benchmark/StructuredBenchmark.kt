@@ -0,0 +1,69 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import android.util.Log
+import com.gilgoldzweig.mvp.logging.LogFields
+import com.gilgoldzweig.mvp.logging.LogRecord
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of handing typed values to a tree that encodes them without rendering, as a binary tree does,
+ * run with `-prof gc` to see the bytes allocated per call
+ *
+ * [formatArgs] boxes its values into the args array, [structured] keeps them unboxed in the
+ * calling thread's reused [LogFields]
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class StructuredBenchmark {
+
+	private var userId = 100_000L
+	private var elapsed = 12.5
+	private val tree = EncodingTree()
+
+	@Setup
+	fun plant() {
+		Timber.plant(tree)
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun formatArgs(): Long {
+		Timber.tag(TAG).i("fetch done userId=%d ms=%f", userId++, elapsed)
+		return tree.checksum
+	}
+
+	@Benchmark
+	fun structured(): Long {
+		Timber.at(Log.INFO).tag(TAG).kv("userId", userId++).kv("ms", elapsed).log("fetch done")
+		return tree.checksum
+	}
+
+	/**
+	 * Reads the values the way a binary tree writes them, without formatting
+	 */
+	private class EncodingTree : Timber.DebugTree() {
+		var checksum = 0L
+
+		override fun log(record: LogRecord, tag: String?) {
+			val fields = record.fields
+			if (fields != null) {
+				checksum += fields.getLong(0) + fields.getDouble(1).toLong()
+			} else {
+				checksum += (record.args[0] as Long) + (record.args[1] as Double).toLong()
+			}
+		}
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) = Unit
+	}
+
+	private companion object {
+		const val TAG = "StructuredBenchmark"
+	}
+}
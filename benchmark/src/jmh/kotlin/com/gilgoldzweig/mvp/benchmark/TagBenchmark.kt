@@ -0,0 +1,47 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.logging.CallSiteTimber
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of each way a log call gets its tag: set through [Timber.tag], inferred from the stack
+ * by [Timber.DebugTree.getTag] or generated at build time by the callsite-tags plugin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class TagBenchmark {
+
+	private val noArgs = arrayOfNulls<Any>(0)
+
+	@Setup
+	fun plant() {
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	@Benchmark
+	fun explicitTag() {
+		Timber.tag(TAG).d("message")
+	}
+
+	@Benchmark
+	fun inferredTag() {
+		Timber.d("message")
+	}
+
+	@Benchmark
+	fun callSiteTag() {
+		CallSiteTimber.d("message", noArgs, TAG)
+	}
+
+	private companion object {
+		const val TAG = "TagBenchmark"
+	}
+}
@@ -0,0 +1,45 @@
+package com.gilgoldzweig.mvp.benchmark
+
+import com.gilgoldzweig.mvp.logging.Timber
+import org.openjdk.jmh.annotations.*
+import java.util.concurrent.TimeUnit
+
+/**
+ * The cost of logging a throwable thrown again and again from the same place, with every stack trace
+ * rendered in full (0) and with repeated ones deduplicated
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class ThrowableBenchmark {
+
+	@JvmField
+	@Param("0", "128")
+	var stackTraceCacheSize: Int = 0
+
+	@Setup
+	fun plant() {
+		Timber.setStackTraceCacheSize(stackTraceCacheSize)
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@TearDown
+	fun uproot() {
+		Timber.uprootAll()
+		Timber.setStackTraceCacheSize(0)
+	}
+
+	@Benchmark
+	fun error() {
+		Timber.tag(TAG).e(IllegalStateException("request failed"), "retrying")
+	}
+
+	@Benchmark
+	fun crash() {
+		Timber.tag(TAG).crash(IllegalStateException("request failed"))
+	}
+
+	private companion object {
+		const val TAG = "ThrowableBenchmark"
+	}
+}
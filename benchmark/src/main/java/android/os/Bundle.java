@@ -0,0 +1,101 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the framework class, backed by a map.
+ */
+@SuppressWarnings("unchecked")
+public class Bundle {
+    private final Map<String, Object> values = new HashMap<>();
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    public String getString(String key) {
+        return (String) values.get(key);
+    }
+
+    public String[] getStringArray(String key) {
+        return (String[]) values.get(key);
+    }
+
+    public ArrayList<String> getStringArrayList(String key) {
+        return (ArrayList<String>) values.get(key);
+    }
+
+    public int getInt(String key) {
+        Object value = values.get(key);
+        return value != null ? (Integer) value : 0;
+    }
+
+    public long getLong(String key) {
+        Object value = values.get(key);
+        return value != null ? (Long) value : 0L;
+    }
+
+    public float getFloat(String key) {
+        Object value = values.get(key);
+        return value != null ? (Float) value : 0f;
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = values.get(key);
+        return value != null && (Boolean) value;
+    }
+
+    public <T extends Parcelable> T getParcelable(String key) {
+        return (T) values.get(key);
+    }
+
+    public Parcelable[] getParcelableArray(String key) {
+        return (Parcelable[]) values.get(key);
+    }
+
+    public <T extends Parcelable> ArrayList<T> getParcelableArrayList(String key) {
+        return (ArrayList<T>) values.get(key);
+    }
+
+    public void putString(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        values.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        values.put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        values.put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        values.put(key, value);
+    }
+
+    public void putParcelable(String key, Parcelable value) {
+        values.put(key, value);
+    }
+
+    public void putParcelableArray(String key, Parcelable[] value) {
+        values.put(key, value);
+    }
+
+    public void putParcelableArrayList(String key, ArrayList<? extends Parcelable> value) {
+        values.put(key, value);
+    }
+}
@@ -0,0 +1,7 @@
+package android.os;
+
+/**
+ * JVM stand-in for the framework interface.
+ */
+public interface Parcelable {
+}
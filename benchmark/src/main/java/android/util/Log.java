@@ -0,0 +1,31 @@
+package android.util;
+
+/**
+ * JVM stand-in for the framework class, keeps the written length so the JIT can't drop the call.
+ */
+public final class Log {
+    public static final int VERBOSE = 2;
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+    public static final int ASSERT = 7;
+
+    public static volatile long written;
+
+    private Log() {
+    }
+
+    public static int println(int priority, String tag, String msg) {
+        written += msg.length();
+        return msg.length();
+    }
+
+    public static int wtf(String tag, String msg) {
+        return println(ASSERT, tag, msg);
+    }
+
+    public static boolean isLoggable(String tag, int level) {
+        return true;
+    }
+}
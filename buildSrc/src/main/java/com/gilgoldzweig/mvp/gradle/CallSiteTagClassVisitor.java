@@ -0,0 +1,114 @@
+package com.gilgoldzweig.mvp.gradle;
+
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites calls to Timber's static logging functions and Kotlin extensions into the matching
+ * {@code CallSiteTimber} overload, pushing the visited class' tag as an extra last argument.
+ */
+final class CallSiteTagClassVisitor extends ClassVisitor {
+    private static final String LOGGING_PACKAGE = "com/gilgoldzweig/mvp/logging/";
+    private static final String TIMBER = LOGGING_PACKAGE + "Timber";
+    private static final String EXTENSIONS = LOGGING_PACKAGE + "TimberExtensionKt";
+    private static final String CALL_SITE_TIMBER = LOGGING_PACKAGE + "CallSiteTimber";
+    private static final Pattern ANONYMOUS_CLASS = Pattern.compile("(\\$\\d+)+$");
+
+    private static final String MESSAGE = "(Ljava/lang/String;[Ljava/lang/Object;)V";
+    private static final String THROWABLE_MESSAGE = "(Ljava/lang/Throwable;Ljava/lang/String;[Ljava/lang/Object;)V";
+    private static final String THROWABLE = "(Ljava/lang/Throwable;)V";
+    private static final String OBJECT = "(Ljava/lang/Object;)V";
+    private static final String RECEIVER = "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;)V";
+    private static final String RECEIVER_DEFAULT =
+            "(Ljava/lang/Object;Ljava/lang/String;Ljava/lang/String;Ljava/lang/String;ILjava/lang/Object;)V";
+
+    /**
+     * Every owner, name and descriptor {@code CallSiteTimber} has a tagged overload for.
+     */
+    private static final Set<String> TAGGED_CALLS = new HashSet<>();
+
+    static {
+        for (String name : Arrays.asList("v", "d", "i", "w", "e", "wtf")) {
+            TAGGED_CALLS.add(TIMBER + "." + name + MESSAGE);
+            TAGGED_CALLS.add(TIMBER + "." + name + THROWABLE_MESSAGE);
+            TAGGED_CALLS.add(TIMBER + "." + name + THROWABLE);
+        }
+        for (String name : Arrays.asList("v", "d", "i", "w", "e")) {
+            TAGGED_CALLS.add(TIMBER + "." + name + OBJECT);
+        }
+        TAGGED_CALLS.add(TIMBER + ".log(ILjava/lang/String;[Ljava/lang/Object;)V");
+        TAGGED_CALLS.add(TIMBER + ".log(ILjava/lang/Throwable;Ljava/lang/String;[Ljava/lang/Object;)V");
+        TAGGED_CALLS.add(TIMBER + ".log(ILjava/lang/Throwable;)V");
+
+        for (String name : Arrays.asList("d", "e", "i", "w", "wtf")) {
+            TAGGED_CALLS.add(EXTENSIONS + "." + name + RECEIVER);
+            TAGGED_CALLS.add(EXTENSIONS + "." + name + "$default" + RECEIVER_DEFAULT);
+        }
+        TAGGED_CALLS.add(EXTENSIONS + ".crash(Ljava/lang/Throwable;Ljava/lang/String;)V");
+        TAGGED_CALLS.add(EXTENSIONS + ".crash$default(Ljava/lang/Throwable;Ljava/lang/String;ILjava/lang/Object;)V");
+        TAGGED_CALLS.add(EXTENSIONS + ".event(Lcom/gilgoldzweig/mvp/analytics/Event;[Lkotlin/Pair;)V");
+    }
+
+    private String tag;
+    private boolean skip;
+    private boolean rewritten;
+
+    CallSiteTagClassVisitor(ClassVisitor next) {
+        super(Opcodes.ASM6, next);
+    }
+
+    /**
+     * Checks if any call was rewritten, when none was the original class can be kept as is.
+     */
+    boolean isRewritten() {
+        return rewritten;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+                      String superName, String[] interfaces) {
+        // Timber's own calls go through the runtime fallback.
+        skip = name.startsWith(LOGGING_PACKAGE);
+        tag = createTag(name);
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                     String signature, String[] exceptions) {
+        MethodVisitor next = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (skip || next == null) {
+            return next;
+        }
+        return new MethodVisitor(Opcodes.ASM6, next) {
+            @Override
+            public void visitMethodInsn(int opcode, String owner, String name,
+                                        String descriptor, boolean isInterface) {
+                if (opcode == Opcodes.INVOKESTATIC && TAGGED_CALLS.contains(owner + "." + name + descriptor)) {
+                    super.visitLdcInsn(tag);
+                    super.visitMethodInsn(Opcodes.INVOKESTATIC, CALL_SITE_TIMBER, name,
+                            descriptor.replace(")V", "Ljava/lang/String;)V"), false);
+                    rewritten = true;
+                    return;
+                }
+                super.visitMethodInsn(opcode, owner, name, descriptor, isInterface);
+            }
+        };
+    }
+
+    /**
+     * Same as Timber's runtime inference: the class name without any anonymous class suffixes
+     * (e.g., {@code Foo$1} becomes {@code Foo}) and without its package.
+     * The platform's length limit is applied at runtime.
+     */
+    static String createTag(String internalName) {
+        String tag = ANONYMOUS_CLASS.matcher(internalName).replaceAll("");
+        return tag.substring(tag.lastIndexOf('/') + 1);
+    }
+}
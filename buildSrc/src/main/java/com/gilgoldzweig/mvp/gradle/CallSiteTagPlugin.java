@@ -0,0 +1,30 @@
+package com.gilgoldzweig.mvp.gradle;
+
+import com.android.build.gradle.AppExtension;
+import com.android.build.gradle.LibraryExtension;
+
+import org.gradle.api.Plugin;
+import org.gradle.api.Project;
+
+/**
+ * Generates Timber tags at build time.
+ *
+ * Registers {@link CallSiteTagTransform} on Android application and library modules, which
+ * rewrites {@code Timber.d(...)} and the {@code Any?.d()} extensions into overloads that receive
+ * the calling class' tag, so tags no longer have to be inferred by walking the stack.
+ *
+ * Usage: {@code apply plugin: 'com.gilgoldzweig.callsite-tags'} after the Android plugin.
+ * The plugin is part of {@code buildSrc} and not published, so only this repository's modules can apply it.
+ */
+public class CallSiteTagPlugin implements Plugin<Project> {
+
+    @Override
+    public void apply(final Project project) {
+        project.getPlugins().withId("com.android.application", plugin ->
+                project.getExtensions().getByType(AppExtension.class)
+                        .registerTransform(new CallSiteTagTransform(false)));
+        project.getPlugins().withId("com.android.library", plugin ->
+                project.getExtensions().getByType(LibraryExtension.class)
+                        .registerTransform(new CallSiteTagTransform(true)));
+    }
+}
@@ -0,0 +1,136 @@
+package com.gilgoldzweig.mvp.gradle;
+
+import com.android.build.api.transform.DirectoryInput;
+import com.android.build.api.transform.Format;
+import com.android.build.api.transform.JarInput;
+import com.android.build.api.transform.QualifiedContent;
+import com.android.build.api.transform.Transform;
+import com.android.build.api.transform.TransformException;
+import com.android.build.api.transform.TransformInput;
+import com.android.build.api.transform.TransformInvocation;
+import com.android.build.api.transform.TransformOutputProvider;
+import com.android.build.gradle.internal.pipeline.TransformManager;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Runs {@link CallSiteTagClassVisitor} over every class of the variant, copying everything else.
+ */
+public class CallSiteTagTransform extends Transform {
+    private final boolean library;
+
+    CallSiteTagTransform(boolean library) {
+        this.library = library;
+    }
+
+    @Override
+    public String getName() {
+        return "callSiteTags";
+    }
+
+    @Override
+    public Set<QualifiedContent.ContentType> getInputTypes() {
+        return TransformManager.CONTENT_CLASS;
+    }
+
+    @Override
+    public Set<? super QualifiedContent.Scope> getScopes() {
+        // Libraries may only transform their own classes, applications transform their dependencies too.
+        return library ? TransformManager.PROJECT_ONLY : TransformManager.SCOPE_FULL_PROJECT;
+    }
+
+    @Override
+    public boolean isIncremental() {
+        return false;
+    }
+
+    @Override
+    public void transform(TransformInvocation invocation)
+            throws TransformException, InterruptedException, IOException {
+        TransformOutputProvider outputs = invocation.getOutputProvider();
+        outputs.deleteAll();
+        for (TransformInput input : invocation.getInputs()) {
+            for (DirectoryInput directory : input.getDirectoryInputs()) {
+                File destination = outputs.getContentLocation(directory.getName(),
+                        directory.getContentTypes(), directory.getScopes(), Format.DIRECTORY);
+                transformDirectory(directory.getFile().toPath(), destination.toPath());
+            }
+            for (JarInput jar : input.getJarInputs()) {
+                File destination = outputs.getContentLocation(jar.getName(),
+                        jar.getContentTypes(), jar.getScopes(), Format.JAR);
+                transformJar(jar.getFile(), destination);
+            }
+        }
+    }
+
+    private static void transformDirectory(Path source, Path destination) throws IOException {
+        Set<Path> files;
+        try (Stream<Path> walk = Files.walk(source)) {
+            files = walk.filter(Files::isRegularFile).collect(Collectors.toSet());
+        }
+        for (Path file : files) {
+            Path target = destination.resolve(source.relativize(file).toString());
+            Files.createDirectories(target.getParent());
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(target, isClass(file.toString()) ? rewrite(bytes) : bytes);
+        }
+    }
+
+    private static void transformJar(File source, File destination) throws IOException {
+        File parent = destination.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        try (ZipInputStream in = new ZipInputStream(new FileInputStream(source));
+             ZipOutputStream out = new ZipOutputStream(new FileOutputStream(destination))) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                byte[] bytes = readFully(in);
+                out.putNextEntry(new ZipEntry(entry.getName()));
+                out.write(isClass(entry.getName()) ? rewrite(bytes) : bytes);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static boolean isClass(String name) {
+        return name.endsWith(".class");
+    }
+
+    static byte[] rewrite(byte[] bytes) {
+        ClassReader reader = new ClassReader(bytes);
+        ClassWriter writer = new ClassWriter(reader, ClassWriter.COMPUTE_MAXS);
+        CallSiteTagClassVisitor visitor = new CallSiteTagClassVisitor(writer);
+        reader.accept(visitor, 0);
+        return visitor.isRewritten() ? writer.toByteArray() : bytes;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            buffer.write(chunk, 0, read);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,111 @@
+package com.gilgoldzweig.mvp.gradle;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs generated classes through {@link CallSiteTagClassVisitor} and lists the calls and constants it leaves.
+ */
+public class CallSiteTagClassVisitorTest {
+    private static final String TIMBER = "com/gilgoldzweig/mvp/logging/Timber";
+    private static final String MESSAGE = "(Ljava/lang/String;[Ljava/lang/Object;)V";
+
+    private final List<String> instructions = new ArrayList<>();
+
+    /**
+     * Checks that a Timber call is sent to CallSiteTimber with the class' tag as its last argument.
+     */
+    @Test
+    public void testAppendsTag() {
+        CallSiteTagClassVisitor visitor = rewrite("com/example/Foo$1");
+
+        assertTrue(visitor.isRewritten());
+        assertEquals(Arrays.asList(
+                "ldc message",
+                "ldc Foo",
+                "com/gilgoldzweig/mvp/logging/CallSiteTimber.d(Ljava/lang/String;[Ljava/lang/Object;Ljava/lang/String;)V",
+                "ldc Tag",
+                TIMBER + ".tag(Ljava/lang/String;)L" + TIMBER + "$Tree;",
+                "java/lang/System.nanoTime()J"), instructions);
+    }
+
+    /**
+     * Checks that Timber's own classes are left as they are.
+     */
+    @Test
+    public void testSkipsLoggingPackage() {
+        CallSiteTagClassVisitor visitor = rewrite("com/gilgoldzweig/mvp/logging/LogEvent");
+
+        assertFalse(visitor.isRewritten());
+        assertEquals(TIMBER + ".d" + MESSAGE, instructions.get(1));
+    }
+
+    /**
+     * Checks that the tag matches the one inferred at runtime.
+     */
+    @Test
+    public void testCreateTag() {
+        assertEquals("Foo", CallSiteTagClassVisitor.createTag("com/example/Foo$1$2"));
+        assertEquals("Foo$Inner", CallSiteTagClassVisitor.createTag("com/example/Foo$Inner"));
+        assertEquals("Foo", CallSiteTagClassVisitor.createTag("Foo"));
+    }
+
+    /**
+     * Rewrites a class named {@code name} calling {@code Timber.d}, {@code Timber.tag} and {@code System.nanoTime}
+     * and records the result into {@link #instructions}.
+     */
+    private CallSiteTagClassVisitor rewrite(String name) {
+        ClassWriter original = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        original.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        MethodVisitor method = original.visitMethod(Opcodes.ACC_STATIC, "log", "()V", null, null);
+        method.visitCode();
+        method.visitLdcInsn("message");
+        method.visitInsn(Opcodes.ICONST_0);
+        method.visitTypeInsn(Opcodes.ANEWARRAY, "java/lang/Object");
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, TIMBER, "d", MESSAGE, false);
+        method.visitLdcInsn("Tag");
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, TIMBER, "tag", "(Ljava/lang/String;)L" + TIMBER + "$Tree;", false);
+        method.visitInsn(Opcodes.POP);
+        method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        method.visitInsn(Opcodes.POP2);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        original.visitEnd();
+
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        CallSiteTagClassVisitor visitor = new CallSiteTagClassVisitor(writer);
+        new ClassReader(original.toByteArray()).accept(visitor, 0);
+        new ClassReader(writer.toByteArray()).accept(new ClassVisitor(Opcodes.ASM6) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String descriptor,
+                                             String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM6) {
+                    @Override
+                    public void visitLdcInsn(Object value) {
+                        instructions.add("ldc " + value);
+                    }
+
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name,
+                                                String descriptor, boolean isInterface) {
+                        instructions.add(owner + "." + name + descriptor);
+                    }
+                };
+            }
+        }, 0);
+        return visitor;
+    }
+}
@@ -0,0 +1,352 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Moves log calls off the calling thread.
+ *
+ * Callers enqueue {@link LogRecord records} into a bounded lock-free ring buffer (the sequence based
+ * bounded queue described by Dmitry Vyukov) and a single background drainer delivers them in
+ * batches to the planted trees, or to a single tree when it is one of {@link TreeIsolator}'s lanes.
+ */
+final class AsyncLogDispatcher implements Runnable {
+    private static final int BATCH_SIZE = 64;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final OverflowPolicy policy;
+    // The only tree records are delivered to, null for every planted tree.
+    private final Timber.Tree[] lane;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    // Held while records are delivered so the drainer and a flushing thread never interleave.
+    private final ReentrantLock drainLock = new ReentrantLock();
+    private final Thread drainer;
+
+    private volatile boolean running = true;
+    private volatile boolean sleeping;
+    // When the record being delivered was picked up, 0 while idle, only tracked for a lane.
+    private volatile long deliveringSince;
+    // The longest delivery since last read by takeMaxLatencyNanos(), only tracked for a lane.
+    private volatile long maxLatencyNanos;
+
+    private Thread.UncaughtExceptionHandler previousHandler;
+    private Thread.UncaughtExceptionHandler crashFlushHandler;
+
+    AsyncLogDispatcher(int capacity, OverflowPolicy policy) {
+        this(capacity, policy, null);
+    }
+
+    /**
+     * @param tree the only tree to deliver to, {@code null} for every planted tree
+     */
+    AsyncLogDispatcher(int capacity, OverflowPolicy policy, Timber.Tree tree) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity < 2: " + capacity);
+        }
+        if (policy == null) {
+            throw new NullPointerException("policy == null");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(i);
+        }
+        mask = size - 1;
+        this.policy = policy;
+        this.lane = tree != null ? new Timber.Tree[]{tree} : null;
+        drainer = new Thread(this, tree != null ? "Timber-" + tree.getClass().getSimpleName() : "Timber-drainer");
+        drainer.setDaemon(true);
+    }
+
+    void start() {
+        drainer.start();
+        if (lane != null) {
+            return; // TreeIsolator flushes its lanes on a crash.
+        }
+        previousHandler = Thread.getDefaultUncaughtExceptionHandler();
+        crashFlushHandler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                flush();
+                if (previousHandler != null) {
+                    previousHandler.uncaughtException(thread, throwable);
+                }
+            }
+        };
+        Thread.setDefaultUncaughtExceptionHandler(crashFlushHandler);
+    }
+
+    /**
+     * Stops accepting work, delivers everything that is still queued and stops the drainer.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(drainer);
+        if (crashFlushHandler != null && Thread.getDefaultUncaughtExceptionHandler() == crashFlushHandler) {
+            Thread.setDefaultUncaughtExceptionHandler(previousHandler);
+        }
+        if (Thread.currentThread() != drainer) {
+            try {
+                drainer.join(FLUSH_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Stops the drainer once it is done with the record it is delivering, without waiting for it
+     * nor delivering what is still queued.
+     */
+    void abandon() {
+        running = false;
+        LockSupport.unpark(drainer);
+    }
+
+    boolean isDrainerThread() {
+        return Thread.currentThread() == drainer;
+    }
+
+    long droppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * How long the lane's tree has been busy with its current record, 0 if idle.
+     */
+    long busyNanos(long now) {
+        long since = deliveringSince;
+        return since != 0 ? now - since : 0;
+    }
+
+    /**
+     * The longest a single record took the lane's tree since the last call.
+     */
+    long takeMaxLatencyNanos() {
+        long max = maxLatencyNanos;
+        maxLatencyNanos = 0;
+        return max;
+    }
+
+    /**
+     * Drops every queued record.
+     *
+     * @return how many were dropped
+     */
+    int discardAll() {
+        int discarded = 0;
+        while (discardOldest()) {
+            discarded++;
+        }
+        return discarded;
+    }
+
+    /**
+     * Queues a record, applying the {@link OverflowPolicy} when the buffer is full.
+     *
+     * @return false if the record was dropped
+     */
+    boolean enqueue(LogRecord record) {
+        for (; ; ) {
+            long position = tail.get();
+            Slot slot = slots[(int) position & mask];
+            long difference = slot.sequence - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.record = record;
+                    slot.sequence = position + 1;
+                    if (sleeping) {
+                        LockSupport.unpark(drainer);
+                    }
+                    return true;
+                }
+            } else if (difference < 0) {
+                switch (policy) {
+                    case DROP_NEWEST:
+                        onDropped();
+                        return false;
+                    case DROP_OLDEST:
+                        if (discardOldest()) {
+                            onDropped();
+                        }
+                        break;
+                    case BLOCK:
+                        if (!running) {
+                            onDropped();
+                            return false;
+                        }
+                        LockSupport.unpark(drainer);
+                        LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Delivers everything queued so far on the calling thread.
+     * Used when a crash is reported so the records leading up to it are not lost.
+     */
+    void flush() {
+        if (isDrainerThread()) {
+            return;
+        }
+        try {
+            if (!drainLock.tryLock(FLUSH_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            //noinspection StatementWithEmptyBody
+            while (drainBatch() > 0) {
+            }
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            int delivered;
+            drainLock.lock();
+            try {
+                delivered = drainBatch();
+            } finally {
+                drainLock.unlock();
+            }
+            if (delivered == 0) {
+                sleeping = true;
+                if (isEmpty() && running) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    private void onDropped() {
+        dropped.incrementAndGet();
+        LogMetrics metrics = Timber.metrics;
+        if (metrics != null) {
+            metrics.onDroppedByOverflow();
+        }
+    }
+
+    private boolean isEmpty() {
+        long position = head.get();
+        return slots[(int) position & mask].sequence != position + 1;
+    }
+
+    /**
+     * Delivers up to {@link #BATCH_SIZE} records, must be called while holding {@link #drainLock}.
+     */
+    private int drainBatch() {
+        Timber.Tree[] forest = lane != null ? lane : Timber.forestAsArray;
+        int delivered = 0;
+        while (delivered < BATCH_SIZE) {
+            long position = claim();
+            if (position < 0) {
+                break;
+            }
+            Slot slot = slots[(int) position & mask];
+            LogRecord record = slot.record;
+            // Free the slot first, a producer waiting on a full buffer must not wait on a slow tree.
+            release(slot, position);
+            long start = lane != null ? System.nanoTime() : 0;
+            try {
+                if (lane != null) {
+                    deliveringSince = start;
+                }
+                deliver(forest, record);
+            } finally {
+                if (lane != null) {
+                    deliveringSince = 0;
+                    maxLatencyNanos = Math.max(maxLatencyNanos, System.nanoTime() - start);
+                }
+            }
+            delivered++;
+        }
+        return delivered;
+    }
+
+    private static void deliver(Timber.Tree[] forest, LogRecord record) {
+        LogMetrics metrics = Timber.metrics;
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, count = forest.length; i < count; i++) {
+            Timber.Tree tree = forest[i];
+            try {
+                if (metrics == null) {
+                    tree.prepareLog(record, record.tagFor(tree));
+                } else {
+                    long start = System.nanoTime();
+                    tree.prepareLog(record, record.tagFor(tree));
+                    metrics.onTreeLog(tree, System.nanoTime() - start);
+                }
+            } catch (RuntimeException e) {
+                // A misbehaving tree must not take the drainer, and every other tree, down with it.
+                Log.println(Log.ERROR, "Timber", "Tree " + tree + " failed to log: " + e);
+            }
+        }
+    }
+
+    private boolean discardOldest() {
+        long position = claim();
+        if (position < 0) {
+            return false;
+        }
+        release(slots[(int) position & mask], position);
+        return true;
+    }
+
+    /**
+     * @return the claimed position or -1 if the buffer is empty
+     */
+    private long claim() {
+        for (; ; ) {
+            long position = head.get();
+            Slot slot = slots[(int) position & mask];
+            long difference = slot.sequence - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return position;
+                }
+            } else if (difference < 0) {
+                return -1;
+            }
+        }
+    }
+
+    private void release(Slot slot, long position) {
+        slot.record = null;
+        slot.sequence = position + slots.length;
+    }
+
+    /**
+     * A reusable slot, owned by a producer or a consumer based on its sequence.
+     */
+    private static final class Slot {
+        volatile long sequence;
+        LogRecord record;
+
+        Slot(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+}
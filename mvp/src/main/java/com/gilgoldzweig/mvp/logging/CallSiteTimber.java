@@ -0,0 +1,335 @@
+package com.gilgoldzweig.mvp.logging;
+
+import com.gilgoldzweig.mvp.analytics.Event;
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+import android.util.Log;
+
+import java.util.Arrays;
+
+import kotlin.Pair;
+import kotlin.Suppress;
+
+/**
+ * Log calls with a tag generated at build time.
+ *
+ * The call-site tag plugin rewrites calls to {@link Timber}'s static logging functions and to the
+ * extensions in {@code TimberExtension.kt} into these overloads, appending the calling class' tag
+ * as the last argument, so no stack has to be walked at runtime.
+ * Every function keeps the name and parameters of the call it replaces, they are not meant to be
+ * called by hand.
+ */
+@Suppress(names = {"unused"})
+public final class CallSiteTimber {
+    // Bits Kotlin sets in the defaults mask for each omitted parameter of the extensions.
+    private static final int DEFAULT_PREFIX = 1;
+    private static final int DEFAULT_POSTFIX = 1 << 1;
+    private static final int DEFAULT_SEPARATOR = 1 << 2;
+    private static final int DEFAULT_MESSAGE = 1;
+
+    private CallSiteTimber() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * Tagged {@link Timber#v(String, Object...)}.
+     */
+    public static void v(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.VERBOSE, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#v(Throwable, String, Object...)}.
+     */
+    public static void v(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.VERBOSE, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#v(Throwable)}.
+     */
+    public static void v(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.VERBOSE, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#v(Object)}.
+     */
+    public static void v(Object object, String tag) {
+        Timber.logAtCallSite(Log.VERBOSE, null, String.valueOf(object), LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#d(String, Object...)}.
+     */
+    public static void d(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.DEBUG, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#d(Throwable, String, Object...)}.
+     */
+    public static void d(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.DEBUG, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#d(Throwable)}.
+     */
+    public static void d(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.DEBUG, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#d(Object)}.
+     */
+    public static void d(Object object, String tag) {
+        Timber.logAtCallSite(Log.DEBUG, null, String.valueOf(object), LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#i(String, Object...)}.
+     */
+    public static void i(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.INFO, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#i(Throwable, String, Object...)}.
+     */
+    public static void i(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.INFO, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#i(Throwable)}.
+     */
+    public static void i(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.INFO, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#i(Object)}.
+     */
+    public static void i(Object object, String tag) {
+        Timber.logAtCallSite(Log.INFO, null, String.valueOf(object), LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#w(String, Object...)}.
+     */
+    public static void w(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.WARN, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#w(Throwable, String, Object...)}.
+     */
+    public static void w(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.WARN, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#w(Throwable)}.
+     */
+    public static void w(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.WARN, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#w(Object)}.
+     */
+    public static void w(Object object, String tag) {
+        String message = object instanceof Object[]
+                ? Arrays.toString(new Object[]{object})
+                : String.valueOf(object);
+        Timber.logAtCallSite(Log.WARN, null, message, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#e(String, Object...)}.
+     */
+    public static void e(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.ERROR, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#e(Throwable, String, Object...)}.
+     */
+    public static void e(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.ERROR, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#e(Throwable)}.
+     */
+    public static void e(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.ERROR, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#e(Object)}.
+     */
+    public static void e(Object object, String tag) {
+        Timber.logAtCallSite(Log.ERROR, null, String.valueOf(object), LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#wtf(String, Object...)}.
+     */
+    public static void wtf(String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.ASSERT, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#wtf(Throwable, String, Object...)}.
+     */
+    public static void wtf(Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(Log.ASSERT, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#wtf(Throwable)}.
+     */
+    public static void wtf(Throwable t, String tag) {
+        Timber.logAtCallSite(Log.ASSERT, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#log(int, String, Object...)}.
+     */
+    public static void log(int priority, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(priority, null, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#log(int, Throwable, String, Object...)}.
+     */
+    public static void log(int priority, Throwable t, String message, Object[] args, String tag) {
+        Timber.logAtCallSite(priority, t, message, args, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@link Timber#log(int, Throwable)}.
+     */
+    public static void log(int priority, Throwable t, String tag) {
+        Timber.logAtCallSite(priority, t, null, LogRecord.NO_ARGS, Timber.limitTagLength(tag));
+    }
+
+    /**
+     * Tagged {@code Any?.d(prefix, postfix, separator)} extension.
+     */
+    public static void d(Object receiver, String prefix, String postfix, String separator, String tag) {
+        TimberExtensionKt.logWithTag(receiver, Log.DEBUG, Timber.limitTagLength(tag), prefix, postfix, separator);
+    }
+
+    /**
+     * Tagged {@code Any?.d()} extension called with default arguments.
+     */
+    public static void d$default(Object receiver, String prefix, String postfix, String separator,
+                                 int defaults, Object marker, String tag) {
+        d(receiver,
+                (defaults & DEFAULT_PREFIX) != 0 ? "" : prefix,
+                (defaults & DEFAULT_POSTFIX) != 0 ? "" : postfix,
+                (defaults & DEFAULT_SEPARATOR) != 0 ? " " : separator,
+                tag);
+    }
+
+    /**
+     * Tagged {@code Any?.e(prefix, postfix, separator)} extension.
+     */
+    public static void e(Object receiver, String prefix, String postfix, String separator, String tag) {
+        TimberExtensionKt.logWithTag(receiver, Log.ERROR, Timber.limitTagLength(tag), prefix, postfix, separator);
+    }
+
+    /**
+     * Tagged {@code Any?.e()} extension called with default arguments.
+     */
+    public static void e$default(Object receiver, String prefix, String postfix, String separator,
+                                 int defaults, Object marker, String tag) {
+        e(receiver,
+                (defaults & DEFAULT_PREFIX) != 0 ? "" : prefix,
+                (defaults & DEFAULT_POSTFIX) != 0 ? "" : postfix,
+                (defaults & DEFAULT_SEPARATOR) != 0 ? " " : separator,
+                tag);
+    }
+
+    /**
+     * Tagged {@code Any?.i(prefix, postfix, separator)} extension.
+     */
+    public static void i(Object receiver, String prefix, String postfix, String separator, String tag) {
+        TimberExtensionKt.logWithTag(receiver, Log.INFO, Timber.limitTagLength(tag), prefix, postfix, separator);
+    }
+
+    /**
+     * Tagged {@code Any?.i()} extension called with default arguments.
+     */
+    public static void i$default(Object receiver, String prefix, String postfix, String separator,
+                                 int defaults, Object marker, String tag) {
+        i(receiver,
+                (defaults & DEFAULT_PREFIX) != 0 ? "" : prefix,
+                (defaults & DEFAULT_POSTFIX) != 0 ? "" : postfix,
+                (defaults & DEFAULT_SEPARATOR) != 0 ? " " : separator,
+                tag);
+    }
+
+    /**
+     * Tagged {@code Any?.w(prefix, postfix, separator)} extension.
+     */
+    public static void w(Object receiver, String prefix, String postfix, String separator, String tag) {
+        TimberExtensionKt.logWithTag(receiver, Log.WARN, Timber.limitTagLength(tag), prefix, postfix, separator);
+    }
+
+    /**
+     * Tagged {@code Any?.w()} extension called with default arguments.
+     */
+    public static void w$default(Object receiver, String prefix, String postfix, String separator,
+                                 int defaults, Object marker, String tag) {
+        w(receiver,
+                (defaults & DEFAULT_PREFIX) != 0 ? "" : prefix,
+                (defaults & DEFAULT_POSTFIX) != 0 ? "" : postfix,
+                (defaults & DEFAULT_SEPARATOR) != 0 ? " " : separator,
+                tag);
+    }
+
+    /**
+     * Tagged {@code Any?.wtf(prefix, postfix, separator)} extension.
+     */
+    public static void wtf(Object receiver, String prefix, String postfix, String separator, String tag) {
+        TimberExtensionKt.logWithTag(receiver, Log.ASSERT, Timber.limitTagLength(tag), prefix, postfix, separator);
+    }
+
+    /**
+     * Tagged {@code Any?.wtf()} extension called with default arguments.
+     */
+    public static void wtf$default(Object receiver, String prefix, String postfix, String separator,
+                                 int defaults, Object marker, String tag) {
+        wtf(receiver,
+                (defaults & DEFAULT_PREFIX) != 0 ? "" : prefix,
+                (defaults & DEFAULT_POSTFIX) != 0 ? "" : postfix,
+                (defaults & DEFAULT_SEPARATOR) != 0 ? " " : separator,
+                tag);
+    }
+
+    /**
+     * Tagged {@code Throwable.crash(message)} extension.
+     */
+    public static void crash(Throwable receiver, String message, String tag) {
+        TimberExtensionKt.crashWithTag(receiver, Timber.limitTagLength(tag), message);
+    }
+
+    /**
+     * Tagged {@code Throwable.crash()} extension called with default arguments.
+     */
+    public static void crash$default(Throwable receiver, String message, int defaults, Object marker,
+                                     String tag) {
+        crash(receiver, (defaults & DEFAULT_MESSAGE) != 0 ? null : message, tag);
+    }
+
+    /**
+     * Tagged {@code Event.event(vararg params)} extension.
+     */
+    public static void event(Event receiver, Pair<EventParameter, Object>[] params, String tag) {
+        TimberExtensionKt.eventWithTag(receiver, Timber.limitTagLength(tag), params);
+    }
+}
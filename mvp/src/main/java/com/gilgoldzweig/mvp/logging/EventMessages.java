@@ -0,0 +1,40 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Pair;
+
+import com.gilgoldzweig.mvp.analytics.Bundlify;
+import com.gilgoldzweig.mvp.analytics.Event;
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+/**
+ * Renders events as the {@code event: name args: [...]} line trees log them as, built in the
+ * thread's pooled {@link StringBuilders builder}.
+ */
+final class EventMessages {
+
+    private EventMessages() {
+    }
+
+    static String format(Event event, Pair<EventParameter, Object>[] args) {
+        StringBuilder builder = StringBuilders.acquire().append("event: ").append(event);
+        if (args.length > 0) {
+            builder.append(" args: [");
+            for (int i = 0; i < args.length; i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                builder.append("Pair(").append(args[i].first).append(", ").append(args[i].second).append(')');
+            }
+            builder.append(']');
+        }
+        return StringBuilders.release(builder);
+    }
+
+    static String format(Event event, Bundlify bundlify) {
+        StringBuilder builder = StringBuilders.acquire().append("event: ").append(event);
+        if (!bundlify.isEmpty()) {
+            builder.append(" args: ").append(bundlify);
+        }
+        return StringBuilders.release(builder);
+    }
+}
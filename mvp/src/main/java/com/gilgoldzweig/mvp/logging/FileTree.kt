@@ -0,0 +1,277 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import com.gilgoldzweig.mvp.models.threads.CoroutineDispatchers
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancelChildren
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
+import java.io.File
+import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.nio.channels.FileChannel
+import java.nio.charset.CodingErrorAction
+import java.text.SimpleDateFormat
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.zip.GZIPOutputStream
+
+/**
+ * A [SinkTree] writing logcat style lines to `name.log` in [directory] through a [FileChannel]
+ *
+ * Lines are encoded into a reused direct [ByteBuffer] that is written when it fills up,
+ * on a message at [flushPriority] or above and on [flush], so most log calls don't touch the disk
+ *
+ * The file is rotated once it reaches [maxFileSize] bytes or has been open for [maxFileAge] milliseconds,
+ * rotated files are gzipped on [CoroutineDispatchers.disk] and the oldest are deleted to keep
+ * the directory under [diskBudget] bytes
+ */
+open class FileTree @JvmOverloads constructor(
+	private val directory: File,
+	dispatchers: CoroutineDispatchers,
+	private val name: String = "timber",
+	private val maxFileSize: Long = 4L * 1024 * 1024,
+	private val maxFileAge: Long = TimeUnit.DAYS.toMillis(1),
+	private val diskBudget: Long = 32L * 1024 * 1024,
+	private val flushPriority: Int = Log.WARN,
+	bufferSize: Int = 64 * 1024
+) : SinkTree() {
+
+	private val scope = CoroutineScope(dispatchers.disk + SupervisorJob())
+
+	private val lock = Any()
+	private val compressionLock = Any()
+
+	private val buffer: ByteBuffer = ByteBuffer.allocateDirect(bufferSize)
+	private val encoder = Charsets.UTF_8.newEncoder()
+		.onMalformedInput(CodingErrorAction.REPLACE)
+		.onUnmappableCharacter(CodingErrorAction.REPLACE)
+	private val calendar = Calendar.getInstance()
+	private val rotationFormat = SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US)
+
+	private val currentFile = File(directory, "$name$EXTENSION")
+	// Only this tree's rotations, not the files of a tree whose name starts with this one's.
+	private val rotatedName = Regex(
+		Regex.escape(name) + "-\\d{8}-\\d{6}-\\d{3}" + Regex.escape(EXTENSION) + "(" + Regex.escape(GZIP_EXTENSION) + ")?"
+	)
+	private var channel: FileChannel? = null
+	private var fileSize = 0L
+	private var openedAt = 0L
+	private var failed = false
+
+	init {
+		require(bufferSize >= MIN_BUFFER_SIZE) { "bufferSize < $MIN_BUFFER_SIZE: $bufferSize" }
+		require(maxFileSize > bufferSize) { "maxFileSize <= bufferSize: $maxFileSize" }
+		require(diskBudget >= maxFileSize) { "diskBudget < maxFileSize: $diskBudget" }
+	}
+
+	/**
+	 * Writes the buffered lines to the file
+	 */
+	fun flush() {
+		synchronized(lock) {
+			val channel = channel ?: return
+			try {
+				drain(channel)
+			} catch (e: IOException) {
+				fail(e)
+			}
+		}
+	}
+
+	/**
+	 * Writes the buffered lines, closes the file and stops compressing rotated files,
+	 * a later log call opens it again
+	 */
+	fun close() {
+		synchronized(lock) {
+			flush()
+			channel?.close()
+			channel = null
+		}
+		scope.coroutineContext.cancelChildren()
+		// Waits for a compression that already started, it stops before the next file.
+		synchronized(compressionLock) {}
+	}
+
+	override fun log(record: LogRecord, tag: String?) {
+		val message = (if (customFormat) record.getMessage(this) else record.message) ?: return
+		write(record.timestamp, record.priority, tag, message)
+	}
+
+	override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+		write(System.currentTimeMillis(), priority, tag, message)
+	}
+
+	override fun onCrash() {
+		flush()
+	}
+
+	private fun write(timestamp: Long, priority: Int, tag: String?, message: String) {
+		synchronized(lock) {
+			if (failed) return
+			try {
+				var channel = channel ?: open(timestamp)
+				if (fileSize + buffer.position() >= maxFileSize || timestamp - openedAt >= maxFileAge) {
+					channel = rotate(channel, timestamp)
+				}
+				if (buffer.remaining() < LINE_PREFIX_SIZE) {
+					drain(channel)
+				}
+				putTimestamp(timestamp)
+				buffer.put(' '.toByte())
+				buffer.put(MappedLogFormat.PRIORITY_LETTERS.getOrElse(priority) { '?' }.toByte())
+				buffer.put('/'.toByte())
+				putText(channel, tag ?: "")
+				putText(channel, ": ")
+				putText(channel, message)
+				putText(channel, "\n")
+				if (priority >= flushPriority) {
+					drain(channel)
+				}
+			} catch (e: IOException) {
+				fail(e)
+			}
+		}
+	}
+
+	private fun putTimestamp(timestamp: Long) {
+		calendar.timeInMillis = timestamp
+		putDigits(calendar.get(Calendar.YEAR), 4)
+		buffer.put('-'.toByte())
+		putDigits(calendar.get(Calendar.MONTH) + 1, 2)
+		buffer.put('-'.toByte())
+		putDigits(calendar.get(Calendar.DAY_OF_MONTH), 2)
+		buffer.put(' '.toByte())
+		putDigits(calendar.get(Calendar.HOUR_OF_DAY), 2)
+		buffer.put(':'.toByte())
+		putDigits(calendar.get(Calendar.MINUTE), 2)
+		buffer.put(':'.toByte())
+		putDigits(calendar.get(Calendar.SECOND), 2)
+		buffer.put('.'.toByte())
+		putDigits(calendar.get(Calendar.MILLISECOND), 3)
+	}
+
+	private fun putDigits(value: Int, count: Int) {
+		var divisor = 1
+		repeat(count - 1) { divisor *= 10 }
+		while (divisor > 0) {
+			buffer.put(('0' + value / divisor % 10).toByte())
+			divisor /= 10
+		}
+	}
+
+	private fun putText(channel: FileChannel, text: String) {
+		val chars = CharBuffer.wrap(text)
+		while (encoder.encode(chars, buffer, true).isOverflow) {
+			drain(channel)
+		}
+		encoder.reset()
+	}
+
+	private fun drain(channel: FileChannel) {
+		buffer.flip()
+		val bytes = buffer.remaining()
+		while (buffer.hasRemaining()) {
+			fileSize += channel.write(buffer)
+		}
+		buffer.clear()
+		Timber.metrics?.onBytesEmitted(bytes.toLong())
+	}
+
+	private fun open(now: Long): FileChannel {
+		if (!directory.isDirectory && !directory.mkdirs()) {
+			throw IOException("Can't create $directory")
+		}
+		val channel = FileOutputStream(currentFile, true).channel
+		this.channel = channel
+		fileSize = channel.size()
+		openedAt = if (fileSize > 0) minOf(now, currentFile.lastModified()) else now
+		// Picks up files left uncompressed by a previous process.
+		scope.launch { compressRotatedFiles { isActive } }
+		return channel
+	}
+
+	private fun rotate(channel: FileChannel, now: Long): FileChannel {
+		drain(channel)
+		channel.close()
+		this.channel = null
+
+		// Names sort by the rotation time, a clash moves it forward a millisecond to keep that order.
+		var rotatedAt = now
+		var rotated: File
+		do {
+			rotated = File(directory, "$name-${rotationFormat.format(Date(rotatedAt++))}$EXTENSION")
+		} while (rotated.exists() || File(rotated.path + GZIP_EXTENSION).exists())
+		if (!currentFile.renameTo(rotated)) {
+			throw IOException("Can't rotate $currentFile to $rotated")
+		}
+		return open(now)
+	}
+
+	private fun fail(e: IOException) {
+		failed = true
+		Log.println(Log.ERROR, "Timber", "FileTree stopped writing to $directory: $e")
+	}
+
+	private fun compressRotatedFiles(isActive: () -> Boolean) {
+		synchronized(compressionLock) {
+			try {
+				for (file in rotatedFiles()) {
+					if (!isActive()) return
+					if (file.name.endsWith(EXTENSION)) compress(file)
+				}
+				enforceDiskBudget()
+			} catch (e: IOException) {
+				Log.println(Log.ERROR, "Timber", "FileTree failed to compress logs in $directory: $e")
+			}
+		}
+	}
+
+	private fun compress(file: File) {
+		val temp = File(file.path + GZIP_EXTENSION + ".tmp")
+		FileInputStream(file).use { input ->
+			GZIPOutputStream(FileOutputStream(temp)).use { output -> input.copyTo(output) }
+		}
+		if (!temp.renameTo(File(file.path + GZIP_EXTENSION))) {
+			temp.delete()
+			throw IOException("Can't rename $temp")
+		}
+		file.delete()
+	}
+
+	private fun enforceDiskBudget() {
+		val files = rotatedFiles()
+		// The current file may grow up to maxFileSize before the next rotation.
+		var total = maxFileSize + files.sumByLong { it.length() }
+		for (file in files) {
+			if (total <= diskBudget) break
+			total -= file.length()
+			file.delete()
+		}
+	}
+
+	/**
+	 * The rotated files, oldest first, compressed or not
+	 */
+	private fun rotatedFiles(): List<File> =
+		directory.listFiles { _, fileName -> rotatedName.matches(fileName) }.orEmpty().sortedBy { it.name }
+
+	private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+		var sum = 0L
+		for (element in this) sum += selector(element)
+		return sum
+	}
+
+	private companion object {
+		const val EXTENSION = ".log"
+		const val GZIP_EXTENSION = ".gz"
+		const val MIN_BUFFER_SIZE = 1024
+		// "yyyy-MM-dd HH:mm:ss.SSS P/"
+		const val LINE_PREFIX_SIZE = 26
+	}
+}
@@ -0,0 +1,220 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.*;
+
+/**
+ * A {@link Timber.Tree Tree} keeping the most recent log records in memory, to attach them to a
+ * crash report.
+ * <p>
+ * Records are written as bytes into a fixed-size direct {@link ByteBuffer} used as a ring, the
+ * oldest records are overwritten first. Nothing is kept per record but its bytes, so memory use
+ * stays the same no matter how much is logged, and once written a record costs the heap nothing.
+ * <p>
+ * A crash reporting tree asks for the recent logs from its {@code crash()}:
+ * <pre>
+ * FlightRecorderTree recorder = new FlightRecorderTree(64 * 1024, TimeUnit.SECONDS.toMillis(30));
+ * Timber.plant(recorder);
+ * ...
+ * public void crash(Throwable t) {
+ *     report(t, recorder.dump());
+ * }
+ * </pre>
+ * {@link #snapshot()} copies the raw records under the lock, {@link #writeTo(byte[], Writer)} turns
+ * them into text later, off the logging path.
+ */
+public class FlightRecorderTree extends SinkTree {
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final int MIN_CAPACITY = 4 * 1024;
+    // length + timestamp + priority
+    private static final int RECORD_HEADER_SIZE = 4 + 8 + 1;
+    // Marks the unused end of the buffer when a record didn't fit there and was written at the start.
+    private static final int PADDING = -1;
+    private static final String NULL_TAG = "null";
+    private static final int MAX_TAG_CHARS = 128;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final long maxAgeMillis;
+    // Messages are cut so that a single record takes at most half of the buffer.
+    private final int maxMessageChars;
+
+    // Guarded by 'this'.
+    private int head;
+    private int tail;
+    private int used;
+
+    /**
+     * Keeps up to 64KB of records.
+     */
+    public FlightRecorderTree() {
+        this(DEFAULT_CAPACITY, 0);
+    }
+
+    /**
+     * @param capacityBytes The size of the ring in bytes, at least 4KB.
+     * @param maxAgeMillis  How old a record can be and still be part of a snapshot, 0 for no limit.
+     */
+    public FlightRecorderTree(int capacityBytes, long maxAgeMillis) {
+        if (capacityBytes < MIN_CAPACITY) {
+            throw new IllegalArgumentException("capacityBytes < " + MIN_CAPACITY + ": " + capacityBytes);
+        }
+        if (maxAgeMillis < 0) {
+            throw new IllegalArgumentException("maxAgeMillis < 0: " + maxAgeMillis);
+        }
+        this.buffer = ByteBuffer.allocateDirect(capacityBytes);
+        this.capacity = capacityBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        // Up to 3 bytes a char, after the header and the longest tag.
+        this.maxMessageChars = (capacityBytes / 2 - RECORD_HEADER_SIZE - 4 - 3 * MAX_TAG_CHARS - 4) / 3;
+    }
+
+    /**
+     * Copies the recorded records, oldest first, skipping those older than {@code maxAgeMillis}.
+     * Pass the result to {@link #writeTo(byte[], Writer)} for text.
+     */
+    @NonNull
+    public synchronized byte[] snapshot() {
+        long oldest = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        byte[] snapshot = new byte[used];
+        int length = 0;
+        int position = head;
+        for (int remaining = used; remaining > 0; ) {
+            if (capacity - position < 4 || buffer.getInt(position) == PADDING) {
+                remaining -= capacity - position;
+                position = 0;
+                continue;
+            }
+            int size = buffer.getInt(position);
+            if (buffer.getLong(position + 4) >= oldest) {
+                ByteBuffer record = buffer.duplicate();
+                record.position(position);
+                record.get(snapshot, length, size);
+                length += size;
+            }
+            remaining -= size;
+            position += size;
+        }
+        return length == snapshot.length ? snapshot : Arrays.copyOf(snapshot, length);
+    }
+
+    /**
+     * The recorded records as text, one logcat style line per record.
+     */
+    @NonNull
+    public String dump() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeTo(snapshot(), writer);
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringWriter doesn't throw.
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the records of a {@link #snapshot()} as text, one logcat style line per record.
+     */
+    public static void writeTo(@NonNull byte[] snapshot, @NonNull Writer writer) throws IOException {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        ByteBuffer records = ByteBuffer.wrap(snapshot);
+        while (records.hasRemaining()) {
+            records.getInt(); // Size.
+            long timestamp = records.getLong();
+            int priority = records.get();
+            String tag = getString(records);
+            String message = getString(records);
+
+            writer.write(dateFormat.format(new Date(timestamp)));
+            writer.write(' ');
+            writer.write(priority >= 0 && priority < PRIORITY_LETTERS.length ? PRIORITY_LETTERS[priority] : '?');
+            writer.write('/');
+            writer.write(tag);
+            writer.write(": ");
+            writer.write(message);
+            if (!message.endsWith("\n")) {
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+
+    @Override
+    protected void log(LogRecord record, String tag) {
+        String message = customFormat ? record.getMessage(this) : record.getMessage();
+        if (message != null) {
+            write(record.getTimestamp(), record.getPriority(), tag, message);
+        }
+    }
+
+    @Override
+    protected void log(int priority, String tag, String message, Throwable t) {
+        write(System.currentTimeMillis(), priority, tag, message);
+    }
+
+    private synchronized void write(long timestamp, int priority, String tag, String message) {
+        if (tag == null) {
+            tag = NULL_TAG;
+        }
+        int size = RECORD_HEADER_SIZE + stringSize(tag, MAX_TAG_CHARS)
+                + stringSize(message, maxMessageChars);
+        if (tail + size > capacity) {
+            // Records never wrap, the end of the buffer is left unused.
+            evictUntilFree(capacity - tail);
+            // Unless evicting emptied the buffer, which starts it over.
+            if (tail + size > capacity) {
+                if (capacity - tail >= 4) {
+                    buffer.putInt(tail, PADDING);
+                }
+                used += capacity - tail;
+                tail = 0;
+            }
+        }
+        evictUntilFree(size);
+
+        buffer.position(tail);
+        buffer.putInt(size);
+        buffer.putLong(timestamp);
+        buffer.put((byte) priority);
+        putString(buffer, tag, MAX_TAG_CHARS);
+        putString(buffer, message, maxMessageChars);
+        used += size;
+        tail += size;
+        if (tail == capacity) {
+            tail = 0;
+        }
+
+        LogMetrics metrics = Timber.metrics;
+        if (metrics != null) {
+            metrics.onBytesEmitted(size);
+        }
+    }
+
+    private void evictUntilFree(int bytes) {
+        while (capacity - used < bytes) {
+            int size = capacity - head < 4 || buffer.getInt(head) == PADDING
+                    ? capacity - head
+                    : buffer.getInt(head);
+            used -= size;
+            head += size;
+            if (head == capacity) {
+                head = 0;
+            }
+        }
+        if (used == 0) {
+            // Start over at the beginning to leave as much room as possible for long records.
+            head = 0;
+            tail = 0;
+        }
+    }
+}
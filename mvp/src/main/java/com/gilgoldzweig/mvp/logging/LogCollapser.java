@@ -0,0 +1,131 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses runs of identical consecutive records before they reach the trees.
+ * <p>
+ * A record repeating the previous one, same priority, tag, {@link LogContext} and message, is dropped
+ * and counted. When a different record ends the run, or {@code timeoutMillis} after the first repeat,
+ * the count is logged with the same priority and tag as {@code previous message repeated N more times}.
+ * A run outliving the timeout keeps being collapsed and is reported again every timeout.
+ * Records with an exception are never collapsed. There is one previous record for all threads.
+ */
+final class LogCollapser {
+    private final long timeoutMillis;
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    // All fields guarded by 'this'.
+    private LogRecord last;
+    private String lastTag;
+    private int repeats;
+    private ScheduledFuture<?> pendingTimeout;
+
+    LogCollapser(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param tag the record's explicit or inferred tag
+     * @return false if the record repeats the previous one and should be dropped
+     */
+    boolean offer(LogRecord record, String tag) {
+        int endedRepeats;
+        LogRecord ended;
+        String endedTag;
+        synchronized (this) {
+            if (last != null && repeatsLast(record, tag)) {
+                if (repeats++ == 0) {
+                    pendingTimeout = LogScheduler.get().schedule(timeout, timeoutMillis, TimeUnit.MILLISECONDS);
+                }
+                return false;
+            }
+            endedRepeats = repeats;
+            ended = last;
+            endedTag = lastTag;
+            if (pendingTimeout != null) {
+                pendingTimeout.cancel(false);
+                pendingTimeout = null;
+            }
+            if (record.getThrowable() == null) {
+                // Kept until the next record, past the call that reuses its fields.
+                record.detachFields();
+                last = record;
+            } else {
+                last = null;
+            }
+            lastTag = tag;
+            repeats = 0;
+        }
+        // Reported before the record that ended the run is delivered.
+        report(ended, endedTag, endedRepeats);
+        return true;
+    }
+
+    /**
+     * Reports the current run, if any, and forgets the previous record.
+     */
+    void stop() {
+        int endedRepeats;
+        LogRecord ended;
+        String endedTag;
+        synchronized (this) {
+            endedRepeats = repeats;
+            ended = last;
+            endedTag = lastTag;
+            if (pendingTimeout != null) {
+                pendingTimeout.cancel(false);
+                pendingTimeout = null;
+            }
+            last = null;
+            lastTag = null;
+            repeats = 0;
+        }
+        report(ended, endedTag, endedRepeats);
+    }
+
+    /**
+     * Reports the current run while it goes on, called {@code timeoutMillis} after its first repeat.
+     */
+    private void flush() {
+        int flushedRepeats;
+        LogRecord flushed;
+        String flushedTag;
+        synchronized (this) {
+            flushedRepeats = repeats;
+            flushed = last;
+            flushedTag = lastTag;
+            pendingTimeout = null;
+            repeats = 0;
+        }
+        report(flushed, flushedTag, flushedRepeats);
+    }
+
+    private boolean repeatsLast(LogRecord record, String tag) {
+        return record.getPriority() == last.getPriority()
+                && record.getThrowable() == null
+                && record.context == last.context
+                && equal(tag, lastTag)
+                && equal(record.getMessageTemplate(), last.getMessageTemplate())
+                && equal(record.getFields(), last.getFields())
+                // Only format when the templates match, the arguments may not be comparable.
+                && (record.getArgs().length == 0 && last.getArgs().length == 0
+                || equal(record.getMessage(), last.getMessage()));
+    }
+
+    private static void report(LogRecord record, String tag, int repeats) {
+        if (record != null && repeats > 0) {
+            Timber.logUnlimited(record.getPriority(), tag, "previous message repeated %d more times", repeats);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
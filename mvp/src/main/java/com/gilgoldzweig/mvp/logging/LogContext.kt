@@ -0,0 +1,144 @@
+package com.gilgoldzweig.mvp.logging
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.ThreadContextElement
+import kotlinx.coroutines.withContext
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+import kotlin.coroutines.coroutineContext
+
+/**
+ * A log tag and key/value pairs, such as a request id or a presenter name, carried by a coroutine
+ *
+ * Timber reads the context of the coroutine running on the calling thread, it follows the coroutine
+ * across suspension points and threads and is gone once the coroutine leaves the thread,
+ * unlike [Timber.tag] which sticks to the thread until the next log call
+ *
+ * The tag is used when no tag was set through [Timber.tag], the pairs are appended to the message as
+ * `[key=value, key=value]` and available to trees through [LogRecord.getContext]
+ *
+ * @see withLogContext
+ */
+class LogContext private constructor(
+	val tag: String?,
+	private val keys: Array<String>,
+	private val values: Array<Any?>
+) : AbstractCoroutineContextElement(LogContext), ThreadContextElement<LogContext?> {
+
+	/**
+	 * Key of the [LogContext] in a [CoroutineContext]
+	 */
+	companion object Key : CoroutineContext.Key<LogContext>
+
+	// Racy but idempotent, the same string may at worst be rendered twice.
+	private var formattedPairs: String? = null
+
+	constructor(tag: String? = null, vararg values: Pair<String, Any?>) :
+		this(tag, Array(values.size) { values[it].first }, Array(values.size) { values[it].second })
+
+	/**
+	 * The number of key/value pairs
+	 */
+	val size: Int
+		get() = keys.size
+
+	/**
+	 * The value of [key], null if it isn't set
+	 */
+	operator fun get(key: String): Any? {
+		val index = keys.indexOf(key)
+		return if (index >= 0) values[index] else null
+	}
+
+	/**
+	 * Calls [action] with every key/value pair, in the order they were added
+	 */
+	inline fun forEach(action: (key: String, value: Any?) -> Unit) {
+		for (index in 0 until size) {
+			action(keyAt(index), valueAt(index))
+		}
+	}
+
+	@PublishedApi
+	internal fun keyAt(index: Int): String = keys[index]
+
+	@PublishedApi
+	internal fun valueAt(index: Int): Any? = values[index]
+
+	/**
+	 * A context with these pairs and [values], replacing the values of keys set in both,
+	 * and [tag] if it isn't null
+	 */
+	fun extend(tag: String? = null, vararg values: Pair<String, Any?>): LogContext {
+		val mergedKeys = ArrayList<String>(keys.size + values.size)
+		val mergedValues = ArrayList<Any?>(keys.size + values.size)
+		mergedKeys.addAll(keys)
+		mergedValues.addAll(this.values)
+		for ((key, value) in values) {
+			val index = mergedKeys.indexOf(key)
+			if (index >= 0) {
+				mergedValues[index] = value
+			} else {
+				mergedKeys.add(key)
+				mergedValues.add(value)
+			}
+		}
+		return LogContext(tag ?: this.tag, mergedKeys.toTypedArray(), mergedValues.toTypedArray())
+	}
+
+	override fun updateThreadContext(context: CoroutineContext): LogContext? {
+		val previous = Timber.currentLogContext()
+		Timber.setLogContext(this)
+		return previous
+	}
+
+	override fun restoreThreadContext(context: CoroutineContext, oldState: LogContext?) {
+		Timber.setLogContext(oldState)
+	}
+
+	/**
+	 * The pairs as `[key=value, key=value]`, empty when there are none, rendered once per context
+	 */
+	fun formatPairs(): String {
+		var formatted = formattedPairs
+		if (formatted == null) {
+			formatted = if (keys.isEmpty()) "" else buildString {
+				append('[')
+				for (index in keys.indices) {
+					if (index > 0) append(", ")
+					append(keys[index]).append('=').append(values[index])
+				}
+				append(']')
+			}
+			formattedPairs = formatted
+		}
+		return formatted
+	}
+
+	override fun toString(): String = "LogContext(tag=$tag, ${formatPairs()})"
+}
+
+/**
+ * Runs [block] with the current [LogContext] extended by [tag] and [values]
+ *
+ * ```
+ * withLogContext(values = *arrayOf("requestId" to request.id)) {
+ *     Timber.d("fetching") // fetching [requestId=42]
+ * }
+ * ```
+ */
+suspend fun <T> withLogContext(
+	tag: String? = null,
+	vararg values: Pair<String, Any?>,
+	block: suspend CoroutineScope.() -> T
+): T {
+	val current = coroutineContext[LogContext]
+	val context = current?.extend(tag, *values) ?: LogContext(tag, *values)
+	try {
+		return withContext(context, block)
+	} finally {
+		// Without a dispatcher change, a block that suspended resumes the caller still inside
+		// its own thread context, put the caller's back.
+		Timber.setLogContext(current)
+	}
+}
@@ -0,0 +1,146 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * A structured log call started by {@link Timber#at(int)}, collecting key/value fields until
+ * {@link #log(String)} sends it to the trees.
+ * <pre>
+ * Timber.at(Log.INFO).kv("userId", id).kv("ms", elapsed).log("fetch done");
+ * </pre>
+ * Each thread reuses the same event and {@link LogFields}, so a call doesn't allocate for its
+ * primitive fields. Don't keep an event past {@link #log(String)}. When no planted tree is
+ * interested in the priority every call is a no-op.
+ */
+public final class LogEvent {
+    private static final ThreadLocal<LogEvent> EVENTS = new ThreadLocal<LogEvent>() {
+        @Override
+        protected LogEvent initialValue() {
+            return new LogEvent(true);
+        }
+    };
+    // Returned when nothing would be logged, shared by every thread since it keeps no fields.
+    static final LogEvent DISABLED = new LogEvent(false);
+
+    private final LogFields fields;
+    private final boolean enabled;
+    private int priority;
+    private String tag;
+    private Throwable throwable;
+    private boolean inUse;
+
+    private LogEvent(boolean enabled) {
+        this.enabled = enabled;
+        this.fields = enabled ? new LogFields(true) : null;
+    }
+
+    /**
+     * The calling thread's event, or a new one if it is in use, a field computed by code that
+     * makes a structured log call itself.
+     * <p>
+     * The new event becomes the thread's one, so an event that is never {@link #log logged},
+     * its call having thrown, only costs one allocation. The event it replaces keeps working for
+     * the call still holding it.
+     */
+    static LogEvent obtain(int priority) {
+        LogEvent event = EVENTS.get();
+        if (event.inUse) {
+            event = new LogEvent(true);
+            EVENTS.set(event);
+        }
+        event.inUse = true;
+        event.priority = priority;
+        return event;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, int value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_LONG, value, null);
+        }
+        return this;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, long value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_LONG, value, null);
+        }
+        return this;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, float value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+        return this;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, double value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+        return this;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, boolean value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_BOOLEAN, value ? 1 : 0, null);
+        }
+        return this;
+    }
+
+    @NonNull
+    public LogEvent kv(@NonNull String key, @Nullable Object value) {
+        if (enabled) {
+            fields.add(key, LogFields.TYPE_OBJECT, 0, value);
+        }
+        return this;
+    }
+
+    /**
+     * Sets the tag of this call, same as {@link Timber#tag(String)}.
+     */
+    @NonNull
+    public LogEvent tag(@Nullable String tag) {
+        if (enabled) {
+            this.tag = tag;
+        }
+        return this;
+    }
+
+    /**
+     * Attaches an exception, logged after the message and the fields.
+     */
+    @NonNull
+    public LogEvent error(@Nullable Throwable t) {
+        if (enabled) {
+            throwable = t;
+        }
+        return this;
+    }
+
+    /**
+     * Sends the message and the fields to the trees, after which the event is reused.
+     */
+    public void log(@NonNull String message) {
+        if (!enabled) {
+            Timber.takeExplicitTag();
+            return;
+        }
+        Throwable t = throwable;
+        String explicitTag = tag;
+        throwable = null;
+        tag = null;
+        try {
+            Timber.dispatchFields(priority, explicitTag, t, message, fields);
+        } finally {
+            fields.clear();
+            inUse = false;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * The key/value fields of a structured log call made through {@link Timber#at(int)}, in the order
+ * they were added.
+ * <p>
+ * Primitive values are kept unboxed, {@code long} for integral values and {@code double} for
+ * floating point ones, so trees writing a binary format can encode them as is. Nothing is rendered
+ * until {@link LogRecord#getMessage()} or {@link #appendTo(StringBuilder)} is called.
+ * <p>
+ * The fields handed to {@link Timber.Tree#log(LogRecord, String)} are reused by the next structured
+ * call on the same thread, a tree keeping them past {@code log()} should keep a {@link #copy()}.
+ */
+public final class LogFields {
+    public static final int TYPE_LONG = 0;
+    public static final int TYPE_DOUBLE = 1;
+    public static final int TYPE_BOOLEAN = 2;
+    public static final int TYPE_OBJECT = 3;
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] keys;
+    private byte[] types;
+    // The value of primitive fields, doubles as their raw long bits.
+    private long[] primitives;
+    private Object[] objects;
+    private int size;
+    // Whether these fields belong to a thread's reused LogEvent.
+    final boolean reused;
+
+    LogFields(boolean reused) {
+        this(INITIAL_CAPACITY, reused);
+    }
+
+    private LogFields(int capacity, boolean reused) {
+        keys = new String[capacity];
+        types = new byte[capacity];
+        primitives = new long[capacity];
+        objects = new Object[capacity];
+        this.reused = reused;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @NonNull
+    public String getKey(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * One of {@link #TYPE_LONG}, {@link #TYPE_DOUBLE}, {@link #TYPE_BOOLEAN} or {@link #TYPE_OBJECT}.
+     */
+    public int getType(int index) {
+        checkIndex(index);
+        return types[index];
+    }
+
+    public long getLong(int index) {
+        checkType(index, TYPE_LONG);
+        return primitives[index];
+    }
+
+    public double getDouble(int index) {
+        checkType(index, TYPE_DOUBLE);
+        return Double.longBitsToDouble(primitives[index]);
+    }
+
+    public boolean getBoolean(int index) {
+        checkType(index, TYPE_BOOLEAN);
+        return primitives[index] != 0;
+    }
+
+    @Nullable
+    public Object getObject(int index) {
+        checkType(index, TYPE_OBJECT);
+        return objects[index];
+    }
+
+    /**
+     * The value of any field, boxing primitive ones.
+     */
+    @Nullable
+    public Object getValue(int index) {
+        checkIndex(index);
+        switch (types[index]) {
+            case TYPE_LONG:
+                return primitives[index];
+            case TYPE_DOUBLE:
+                return Double.longBitsToDouble(primitives[index]);
+            case TYPE_BOOLEAN:
+                return primitives[index] != 0;
+            default:
+                return objects[index];
+        }
+    }
+
+    /**
+     * Appends the fields as {@code key=value} pairs separated by spaces.
+     */
+    public void appendTo(@NonNull StringBuilder builder) {
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                builder.append(' ');
+            }
+            builder.append(keys[i]).append('=');
+            switch (types[i]) {
+                case TYPE_LONG:
+                    builder.append(primitives[i]);
+                    break;
+                case TYPE_DOUBLE:
+                    builder.append(Double.longBitsToDouble(primitives[i]));
+                    break;
+                case TYPE_BOOLEAN:
+                    builder.append(primitives[i] != 0);
+                    break;
+                default:
+                    builder.append(objects[i]);
+            }
+        }
+    }
+
+    /**
+     * A copy that is never reused.
+     */
+    @NonNull
+    public LogFields copy() {
+        LogFields copy = new LogFields(Math.max(size, 1), false);
+        System.arraycopy(keys, 0, copy.keys, 0, size);
+        System.arraycopy(types, 0, copy.types, 0, size);
+        System.arraycopy(primitives, 0, copy.primitives, 0, size);
+        System.arraycopy(objects, 0, copy.objects, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LogFields)) return false;
+        LogFields fields = (LogFields) o;
+        if (size != fields.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!keys[i].equals(fields.keys[i]) || types[i] != fields.types[i]
+                    || primitives[i] != fields.primitives[i]
+                    || (objects[i] == null ? fields.objects[i] != null : !objects[i].equals(fields.objects[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = size;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + keys[i].hashCode();
+            hash = 31 * hash + (int) (primitives[i] ^ (primitives[i] >>> 32));
+            hash = 31 * hash + (objects[i] != null ? objects[i].hashCode() : 0);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = StringBuilders.acquire();
+        appendTo(builder);
+        return StringBuilders.release(builder);
+    }
+
+    void add(String key, int type, long primitive, Object object) {
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            primitives = Arrays.copyOf(primitives, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        keys[size] = key;
+        types[size] = (byte) type;
+        primitives[size] = primitive;
+        objects[size] = object;
+        size++;
+    }
+
+    void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(objects, 0, size, null);
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    private void checkType(int index, int type) {
+        checkIndex(index);
+        if (types[index] != type) {
+            throw new IllegalArgumentException("field " + keys[index] + " has type " + types[index]);
+        }
+    }
+}
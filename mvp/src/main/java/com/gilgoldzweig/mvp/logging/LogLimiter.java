@@ -0,0 +1,219 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limits and samples log calls per tag and priority before they are turned into records.
+ * <p>
+ * Rules are set for a tag, or for any tag, and a priority. Every tag gets its own token bucket per
+ * priority even when it is limited by an any tag rule, so one noisy class doesn't silence the rest,
+ * calls without a tag share one bucket. Suppressed calls are counted and reported every
+ * {@link #REPORT_INTERVAL_MILLIS} as {@code suppressed N messages from Tag}.
+ */
+final class LogLimiter {
+    private static final long REPORT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // Key of the rules for any tag and of the buckets of untagged calls.
+    private static final String ANY_TAG = "";
+    private static final int PRIORITY_COUNT = Log.ASSERT + 1;
+
+    private final ConcurrentHashMap<String, Rule[]> rules = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Bucket[]> buckets = new ConcurrentHashMap<>();
+    // A bit per priority with a rule for a specific tag.
+    private volatile int tagRulePriorities;
+    private final long reportIntervalMillis;
+    private ScheduledFuture<?> reporter;
+
+    LogLimiter() {
+        this(REPORT_INTERVAL_MILLIS);
+    }
+
+    LogLimiter(long reportIntervalMillis) {
+        this.reportIntervalMillis = reportIntervalMillis;
+    }
+
+    void start() {
+        reporter = LogScheduler.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, reportIntervalMillis, reportIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops reporting, after reporting what was suppressed so far.
+     */
+    void stop() {
+        reporter.cancel(false);
+        report();
+    }
+
+    synchronized void setRateLimit(String tag, int priority, double messagesPerSecond, int burst) {
+        Rule rule = rule(tag, priority);
+        updateRule(tag, priority, new Rule(messagesPerSecond / TimeUnit.SECONDS.toNanos(1), burst,
+                rule != null ? rule.sampleRate : 1));
+    }
+
+    synchronized void setSampleRate(String tag, int priority, double rate) {
+        Rule rule = rule(tag, priority);
+        updateRule(tag, priority, new Rule(rule != null ? rule.permitsPerNano : 0,
+                rule != null ? rule.burst : 0, rate));
+    }
+
+    /**
+     * Whether a rule is set for a specific tag at {@code priority}, only then is it worth
+     * finding the tag of a call without one.
+     */
+    boolean hasTagRules(int priority) {
+        return priority >= 0 && priority < PRIORITY_COUNT && (tagRulePriorities & (1 << priority)) != 0;
+    }
+
+    /**
+     * @return false if the call should be dropped
+     */
+    boolean tryAcquire(String tag, int priority) {
+        return tryAcquire(tag, priority, System.nanoTime());
+    }
+
+    boolean tryAcquire(String tag, int priority, long now) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            return true;
+        }
+        String key = tag != null ? tag : ANY_TAG;
+        Rule[] tagRules = rules.get(key);
+        Rule rule = tagRules != null ? tagRules[priority] : null;
+        if (rule == null) {
+            Rule[] anyTagRules = rules.get(ANY_TAG);
+            rule = anyTagRules != null ? anyTagRules[priority] : null;
+            if (rule == null) {
+                return true;
+            }
+        }
+        return bucket(key, priority).tryAcquire(rule, now);
+    }
+
+    private Rule rule(String tag, int priority) {
+        Rule[] tagRules = rules.get(tag != null ? tag : ANY_TAG);
+        return tagRules != null ? tagRules[priority] : null;
+    }
+
+    private void updateRule(String tag, int priority, Rule rule) {
+        String key = tag != null ? tag : ANY_TAG;
+        Rule[] tagRules = rules.get(key);
+        Rule[] updated = tagRules != null ? tagRules.clone() : new Rule[PRIORITY_COUNT];
+        updated[priority] = rule;
+        rules.put(key, updated);
+        if (tag != null) {
+            tagRulePriorities |= 1 << priority;
+        }
+    }
+
+    private Bucket bucket(String key, int priority) {
+        Bucket[] tagBuckets = buckets.get(key);
+        if (tagBuckets == null) {
+            tagBuckets = new Bucket[PRIORITY_COUNT];
+            Bucket[] existing = buckets.putIfAbsent(key, tagBuckets);
+            if (existing != null) {
+                tagBuckets = existing;
+            }
+        }
+        Bucket bucket = tagBuckets[priority];
+        if (bucket == null) {
+            synchronized (tagBuckets) {
+                bucket = tagBuckets[priority];
+                if (bucket == null) {
+                    bucket = new Bucket(key.hashCode() * 31L + priority);
+                    tagBuckets[priority] = bucket;
+                }
+            }
+        }
+        return bucket;
+    }
+
+    private void report() {
+        for (Map.Entry<String, Bucket[]> entry : buckets.entrySet()) {
+            String tag = entry.getKey().isEmpty() ? null : entry.getKey();
+            Bucket[] tagBuckets = entry.getValue();
+            for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+                Bucket bucket = tagBuckets[priority];
+                long suppressed = bucket != null ? bucket.takeSuppressed() : 0;
+                if (suppressed > 0 && tag != null) {
+                    Timber.logUnlimited(priority, tag, "suppressed %d messages from %s", suppressed, tag);
+                } else if (suppressed > 0) {
+                    Timber.logUnlimited(priority, null, "suppressed %d untagged messages", suppressed);
+                }
+            }
+        }
+    }
+
+    private static final class Rule {
+        // 0 when not rate limited.
+        final double permitsPerNano;
+        final double burst;
+        final double sampleRate;
+
+        Rule(double permitsPerNano, double burst, double sampleRate) {
+            this.permitsPerNano = permitsPerNano;
+            this.burst = burst;
+            this.sampleRate = sampleRate;
+        }
+    }
+
+    /**
+     * The token bucket and sampling state of one tag and priority.
+     */
+    private static final class Bucket {
+        private double tokens = -1;
+        private long refilledAt;
+        private long suppressed;
+        private long seed;
+
+        Bucket(long seed) {
+            this.seed = seed != 0 ? seed : 1;
+        }
+
+        synchronized boolean tryAcquire(Rule rule, long now) {
+            if (rule.sampleRate < 1 && nextDouble() >= rule.sampleRate) {
+                suppressed++;
+                return false;
+            }
+            if (rule.permitsPerNano > 0) {
+                if (tokens < 0) {
+                    tokens = rule.burst;
+                } else {
+                    tokens = Math.min(rule.burst, tokens + (now - refilledAt) * rule.permitsPerNano);
+                }
+                refilledAt = now;
+                if (tokens < 1) {
+                    suppressed++;
+                    return false;
+                }
+                tokens--;
+            }
+            return true;
+        }
+
+        synchronized long takeSuppressed() {
+            long count = suppressed;
+            suppressed = 0;
+            return count;
+        }
+
+        /**
+         * Xorshift, good enough for sampling and cheaper than a shared {@link java.util.Random}.
+         */
+        private double nextDouble() {
+            long x = seed;
+            x ^= x << 13;
+            x ^= x >>> 7;
+            x ^= x << 17;
+            seed = x;
+            return (x >>> 11) * 0x1.0p-53;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Log;
+import android.util.Pair;
+
+import com.gilgoldzweig.mvp.analytics.Event;
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts what logging costs while {@link Timber#enableMetrics() enabled}.
+ * Every counter is {@link StripedCounter striped} so measuring adds no contention to log calls.
+ */
+final class LogMetrics {
+    private static final int PRIORITY_COUNT = Log.ASSERT + 1;
+    private static final String NO_TAG = "(none)";
+    private static final Event DUMP_EVENT = new NamedEvent("logging_metrics");
+
+    private final long startedAt = System.currentTimeMillis();
+    private final StripedCounter[] records = new StripedCounter[PRIORITY_COUNT];
+    private final ConcurrentHashMap<String, StripedCounter> recordsByTag = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Timber.Tree, TreeCounters> trees = new ConcurrentHashMap<>();
+    private final StripedCounter formatNanos = new StripedCounter(true);
+    private final StripedCounter formatCount = new StripedCounter(true);
+    private final StripedCounter bytesEmitted = new StripedCounter(true);
+    private final StripedCounter droppedByLimit = new StripedCounter(false);
+    private final StripedCounter droppedByOverflow = new StripedCounter(false);
+    private ScheduledFuture<?> dumper;
+
+    LogMetrics() {
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            records[i] = new StripedCounter(true);
+        }
+    }
+
+    void startDumping(long intervalMillis) {
+        dumper = LogScheduler.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                dump();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        if (dumper != null) {
+            dumper.cancel(false);
+        }
+    }
+
+    void onRecord(int priority, String tag) {
+        if (priority >= 0 && priority < PRIORITY_COUNT) {
+            records[priority].increment();
+        }
+        String key = tag != null ? tag : NO_TAG;
+        StripedCounter counter = recordsByTag.get(key);
+        if (counter == null) {
+            counter = new StripedCounter(false);
+            StripedCounter existing = recordsByTag.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.increment();
+    }
+
+    void onTreeLog(Timber.Tree tree, long nanos) {
+        TreeCounters counters = trees.get(tree);
+        if (counters == null) {
+            counters = new TreeCounters(String.valueOf(tree));
+            TreeCounters existing = trees.putIfAbsent(tree, counters);
+            if (existing != null) {
+                counters = existing;
+            }
+        }
+        counters.calls.increment();
+        counters.nanos.add(nanos);
+    }
+
+    void onFormat(long nanos) {
+        formatCount.increment();
+        formatNanos.add(nanos);
+    }
+
+    void onBytesEmitted(long bytes) {
+        bytesEmitted.add(bytes);
+    }
+
+    void onDroppedByLimit() {
+        droppedByLimit.increment();
+    }
+
+    void onDroppedByOverflow() {
+        droppedByOverflow.increment();
+    }
+
+    LogMetricsSnapshot snapshot() {
+        long[] recordCounts = new long[PRIORITY_COUNT];
+        for (int i = 0; i < PRIORITY_COUNT; i++) {
+            recordCounts[i] = records[i].sum();
+        }
+        Map<String, Long> tagCounts = new HashMap<>();
+        for (Map.Entry<String, StripedCounter> entry : recordsByTag.entrySet()) {
+            tagCounts.put(entry.getKey(), entry.getValue().sum());
+        }
+        Map<String, Long> treeCalls = new HashMap<>();
+        Map<String, Long> treeNanos = new HashMap<>();
+        for (TreeCounters counters : trees.values()) {
+            treeCalls.put(counters.name, counters.calls.sum());
+            treeNanos.put(counters.name, counters.nanos.sum());
+        }
+        return new LogMetricsSnapshot(startedAt, System.currentTimeMillis(), recordCounts, tagCounts,
+                treeCalls, treeNanos, formatCount.sum(), formatNanos.sum(), bytesEmitted.sum(),
+                droppedByLimit.sum(), droppedByOverflow.sum());
+    }
+
+    private void dump() {
+        LogMetricsSnapshot snapshot = snapshot();
+        List<Pair<EventParameter, Object>> params = new ArrayList<>();
+        params.add(param("records", snapshot.getTotalRecords()));
+        params.add(param("format_count", snapshot.getFormatCount()));
+        params.add(param("format_nanos", snapshot.getFormatNanos()));
+        params.add(param("bytes_emitted", snapshot.getBytesEmitted()));
+        params.add(param("dropped_rate_limit", snapshot.getDroppedByRateLimit()));
+        params.add(param("dropped_overflow", snapshot.getDroppedByOverflow()));
+        for (Map.Entry<String, Long> entry : snapshot.getTreeLogNanos().entrySet()) {
+            params.add(param("tree_nanos:" + entry.getKey(), entry.getValue()));
+        }
+        @SuppressWarnings("unchecked")
+        Pair<EventParameter, Object>[] array = (Pair<EventParameter, Object>[]) new Pair<?, ?>[params.size()];
+        Timber.event(DUMP_EVENT, params.toArray(array));
+    }
+
+    /**
+     * The size of {@code text} encoded as UTF-8, what {@link Timber.Tree trees} writing text emit.
+     */
+    static long utf8Length(CharSequence text) {
+        long bytes = 0;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(text.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += Character.isSurrogate(c) ? 1 : 3;
+            }
+        }
+        return bytes;
+    }
+
+    private static Pair<EventParameter, Object> param(String name, long value) {
+        return new Pair<EventParameter, Object>(new NamedEvent(name), value);
+    }
+
+    private static final class TreeCounters {
+        final String name;
+        final StripedCounter calls = new StripedCounter(false);
+        final StripedCounter nanos = new StripedCounter(false);
+
+        TreeCounters(String name) {
+            this.name = name;
+        }
+    }
+}
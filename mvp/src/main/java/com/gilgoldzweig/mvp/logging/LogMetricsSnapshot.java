@@ -0,0 +1,150 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * What logging cost between {@link Timber#enableMetrics()} and {@link Timber#getMetrics()}.
+ *
+ * Counters are read one at a time while log calls keep updating them, so they may be a few calls
+ * apart from each other.
+ */
+public final class LogMetricsSnapshot {
+    private final long startedAt;
+    private final long takenAt;
+    private final long[] records;
+    private final Map<String, Long> recordsByTag;
+    private final Map<String, Long> treeLogCalls;
+    private final Map<String, Long> treeLogNanos;
+    private final long formatCount;
+    private final long formatNanos;
+    private final long bytesEmitted;
+    private final long droppedByRateLimit;
+    private final long droppedByOverflow;
+
+    LogMetricsSnapshot(long startedAt, long takenAt, long[] records, Map<String, Long> recordsByTag,
+                       Map<String, Long> treeLogCalls, Map<String, Long> treeLogNanos,
+                       long formatCount, long formatNanos, long bytesEmitted,
+                       long droppedByRateLimit, long droppedByOverflow) {
+        this.startedAt = startedAt;
+        this.takenAt = takenAt;
+        this.records = records;
+        this.recordsByTag = Collections.unmodifiableMap(recordsByTag);
+        this.treeLogCalls = Collections.unmodifiableMap(treeLogCalls);
+        this.treeLogNanos = Collections.unmodifiableMap(treeLogNanos);
+        this.formatCount = formatCount;
+        this.formatNanos = formatNanos;
+        this.bytesEmitted = bytesEmitted;
+        this.droppedByRateLimit = droppedByRateLimit;
+        this.droppedByOverflow = droppedByOverflow;
+    }
+
+    /**
+     * Wall clock time metrics were enabled at, in milliseconds.
+     */
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    /**
+     * Wall clock time this snapshot was taken at, in milliseconds.
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    /**
+     * Log calls at {@code priority} handed or queued to the trees, see {@link android.util.Log} for constants.
+     */
+    public long getRecords(int priority) {
+        return priority >= 0 && priority < records.length ? records[priority] : 0;
+    }
+
+    /**
+     * Log calls handed or queued to the trees at any priority.
+     */
+    public long getTotalRecords() {
+        long total = 0;
+        for (long count : records) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Log calls handed or queued to the trees by tag, calls without a tag are counted as {@code (none)}.
+     */
+    @NonNull
+    public Map<String, Long> getRecordsByTag() {
+        return recordsByTag;
+    }
+
+    /**
+     * Records delivered to each tree, keyed by the tree's {@code toString()}.
+     */
+    @NonNull
+    public Map<String, Long> getTreeLogCalls() {
+        return treeLogCalls;
+    }
+
+    /**
+     * Time spent inside each tree, including the formatting it triggered, keyed by the tree's
+     * {@code toString()}.
+     */
+    @NonNull
+    public Map<String, Long> getTreeLogNanos() {
+        return treeLogNanos;
+    }
+
+    /**
+     * Messages formatted with their arguments.
+     */
+    public long getFormatCount() {
+        return formatCount;
+    }
+
+    /**
+     * Time spent formatting messages with their arguments.
+     */
+    public long getFormatNanos() {
+        return formatNanos;
+    }
+
+    /**
+     * Bytes written by the trees, characters for trees writing text that don't know their encoding.
+     */
+    public long getBytesEmitted() {
+        return bytesEmitted;
+    }
+
+    /**
+     * Log calls dropped by {@link Timber#setRateLimit rate limits} and {@link Timber#setSampleRate sampling}.
+     */
+    public long getDroppedByRateLimit() {
+        return droppedByRateLimit;
+    }
+
+    /**
+     * Log calls dropped because the {@link Timber#enableAsync asynchronous} buffer was full.
+     */
+    public long getDroppedByOverflow() {
+        return droppedByOverflow;
+    }
+
+    @Override
+    public String toString() {
+        return "LogMetricsSnapshot{"
+                + "records=" + getTotalRecords()
+                + ", recordsByTag=" + recordsByTag
+                + ", treeLogCalls=" + treeLogCalls
+                + ", treeLogNanos=" + treeLogNanos
+                + ", formatCount=" + formatCount
+                + ", formatNanos=" + formatNanos
+                + ", bytesEmitted=" + bytesEmitted
+                + ", droppedByRateLimit=" + droppedByRateLimit
+                + ", droppedByOverflow=" + droppedByOverflow
+                + '}';
+    }
+}
@@ -0,0 +1,212 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.Nullable;
+
+/**
+ * A single log call, built once by {@link Timber} and shared by every planted tree.
+ *
+ * The formatted message and the rendered stack trace are computed lazily on first use and
+ * memoized, so logging to more trees does not format the same message again.
+ * Computing them is idempotent, a record handed to several threads may at worst render twice.
+ */
+public final class LogRecord {
+    static final Object[] NO_ARGS = new Object[0];
+
+    private final int priority;
+    private final long timestamp;
+    private final Throwable throwable;
+    private final String messageTemplate;
+    private final Object[] args;
+
+    // Resolved on the calling thread before the record is handed to the trees.
+    String explicitTag;
+    String inferredTag;
+    // Null unless a planted DebugTree creates its own tag from the calling frame.
+    StackTraceElement callerElement;
+    LogContext context;
+    // Null unless the call was made through Timber.at().
+    LogFields fields;
+
+    private String formattedMessage;
+    private String stackTrace;
+    private String message;
+
+    LogRecord(int priority, Throwable throwable, String messageTemplate, Object[] args) {
+        this.priority = priority;
+        this.timestamp = System.currentTimeMillis();
+        this.throwable = throwable;
+        this.messageTemplate = messageTemplate != null && messageTemplate.length() == 0
+                ? null
+                : messageTemplate;
+        this.args = args != null ? args : NO_ARGS;
+    }
+
+    /**
+     * Log level. See {@link android.util.Log} for constants.
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * The wall clock time of the log call in milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Accompanying exception, may be {@code null}.
+     */
+    @Nullable
+    public Throwable getThrowable() {
+        return throwable;
+    }
+
+    /**
+     * The message as passed to Timber before formatting, {@code null} if none was given.
+     */
+    @Nullable
+    public String getMessageTemplate() {
+        return messageTemplate;
+    }
+
+    /**
+     * The raw format arguments, never {@code null}.
+     */
+    public Object[] getArgs() {
+        return args;
+    }
+
+    /**
+     * The message template formatted with its arguments, {@code null} if no message was given.
+     */
+    @Nullable
+    public String getFormattedMessage() {
+        String formatted = formattedMessage;
+        if (formatted == null && messageTemplate != null) {
+            formatted = args.length > 0 ? format(null) : messageTemplate;
+            formattedMessage = formatted;
+        }
+        return formatted;
+    }
+
+    /**
+     * The stack trace of the accompanying exception, {@code null} if there is none.
+     * <p>
+     * Once {@link Timber#setStackTraceCacheSize(int) enabled}, a trace rendered before only shows
+     * its first line and refers to the earlier one as {@code same as #id (xN)}.
+     */
+    @Nullable
+    public String getStackTrace() {
+        String trace = stackTrace;
+        if (trace == null && throwable != null) {
+            StackTraceCache cache = Timber.stackTraceCache;
+            trace = cache != null ? cache.render(throwable) : StackTraceCache.renderFull(throwable);
+            stackTrace = trace;
+        }
+        return trace;
+    }
+
+    /**
+     * The formatted message followed by the stack trace, as written by the trees.
+     *
+     * @return {@code null} if there is neither a message nor an exception,
+     * in which case the record is not logged
+     */
+    @Nullable
+    public String getMessage() {
+        String full = message;
+        if (full == null) {
+            full = composeMessage(getFormattedMessage());
+            message = full;
+        }
+        return full;
+    }
+
+    /**
+     * Same as {@link #getMessage()} but formatted by a tree overriding
+     * {@link Timber.Tree#formatMessage(String, Object[])}, not memoized.
+     */
+    String getMessage(Timber.Tree tree) {
+        if (messageTemplate == null || args.length == 0) {
+            return getMessage();
+        }
+        return composeMessage(format(tree));
+    }
+
+    /**
+     * Formats the template with its arguments, through {@code tree} if not {@code null}.
+     */
+    private String format(Timber.Tree tree) {
+        LogMetrics metrics = Timber.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+        String formatted = tree != null
+                ? tree.formatMessage(messageTemplate, args)
+                : MessageTemplate.format(messageTemplate, args);
+        if (metrics != null) {
+            metrics.onFormat(System.nanoTime() - start);
+        }
+        return formatted;
+    }
+
+    /**
+     * The {@link LogContext} of the coroutine that made the log call, its pairs are already
+     * appended to {@link #getMessage()}.
+     */
+    @Nullable
+    public LogContext getContext() {
+        return context;
+    }
+
+    /**
+     * The key/value fields of a {@linkplain Timber#at(int) structured} log call, already appended
+     * to {@link #getMessage()}. They are reused once {@code log()} returns, call
+     * {@link LogFields#copy()} to keep them.
+     */
+    @Nullable
+    public LogFields getFields() {
+        return fields;
+    }
+
+    /**
+     * Copies the fields if they are reused by the calling thread, for a record kept after the call.
+     */
+    void detachFields() {
+        LogFields current = fields;
+        if (current != null && current.reused) {
+            fields = current.copy();
+        }
+    }
+
+    /**
+     * The tag a tree should log this record with.
+     */
+    String tagFor(Timber.Tree tree) {
+        if (explicitTag != null || !tree.infersTag()) {
+            return explicitTag;
+        }
+        if (tree.customStackElementTag && callerElement != null) {
+            return ((Timber.DebugTree) tree).createStackElementTag(callerElement);
+        }
+        return inferredTag;
+    }
+
+    private String composeMessage(String formatted) {
+        if (formatted == null) {
+            return getStackTrace();
+        }
+        if (fields != null && fields.size() > 0) {
+            StringBuilder builder = StringBuilders.acquire().append(formatted).append(' ');
+            fields.appendTo(builder);
+            formatted = StringBuilders.release(builder);
+        }
+        if (context != null && context.getSize() > 0) {
+            formatted = formatted + " " + context.formatPairs();
+        }
+        if (throwable == null) {
+            return formatted;
+        }
+        return formatted + "\n" + getStackTrace();
+    }
+}
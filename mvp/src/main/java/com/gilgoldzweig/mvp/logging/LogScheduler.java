@@ -0,0 +1,37 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The single daemon thread running Timber's periodic work, started on first use.
+ */
+final class LogScheduler {
+    private static volatile ScheduledExecutorService executor;
+
+    private LogScheduler() {
+        throw new AssertionError("No instances.");
+    }
+
+    static ScheduledExecutorService get() {
+        ScheduledExecutorService scheduler = executor;
+        if (scheduler == null) {
+            synchronized (LogScheduler.class) {
+                scheduler = executor;
+                if (scheduler == null) {
+                    scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            Thread thread = new Thread(runnable, "Timber-scheduler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor = scheduler;
+                }
+            }
+        }
+        return scheduler;
+    }
+}
@@ -0,0 +1,196 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.gilgoldzweig.mvp.logging.LogStoreSegment.RECORD_HEADER_SIZE;
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.getString;
+
+/**
+ * The records matching a {@link LogStoreTree#query}, oldest first, read lazily as it is iterated.
+ * <p>
+ * Only the blocks whose index says they may hold a match are read, one at a time, and a message
+ * is only decoded for a matching record. The cursor sees the store as it was when the query was
+ * made, records logged later are not returned and segments compacted or deleted since are skipped.
+ * Close it when done with it before reaching the end, it closes itself at the end.
+ */
+public final class LogStoreCursor implements Iterator<StoredLog>, Closeable {
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    private final LogStoreSegment[] segments;
+    private final String[] tagNames;
+    private final BitSet tags;
+    private final long from;
+    private final long to;
+    private final int minPriority;
+
+    private int segment = -1;
+    private int block;
+    private FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private boolean ready;
+
+    // The current record, valid after advance() returned true.
+    long timestamp;
+    int priority;
+    int tagId;
+    private int recordStart;
+    private int recordEnd;
+
+    /**
+     * @param tagNames the tag of each tag id, id 0 is the {@code null} tag
+     * @param tags     the ids of the wanted tags, {@code null} for any tag
+     */
+    LogStoreCursor(LogStoreSegment[] segments, String[] tagNames, BitSet tags, long from, long to, int minPriority) {
+        this.segments = segments;
+        this.tagNames = tagNames;
+        this.tags = tags;
+        this.from = from;
+        this.to = to;
+        this.minPriority = minPriority;
+        buffer.limit(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!ready) {
+            ready = advance();
+        }
+        return ready;
+    }
+
+    @Override
+    public StoredLog next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ready = false;
+        buffer.position(recordStart + RECORD_HEADER_SIZE);
+        String message = getString(buffer);
+        buffer.position(recordEnd);
+        String tag = tagId > 0 && tagId < tagNames.length ? tagNames[tagId] : null;
+        return new StoredLog(timestamp, priority, tag, message);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove");
+    }
+
+    @Override
+    public void close() {
+        segment = segments.length;
+        closeChannel();
+    }
+
+    /**
+     * Moves to the next matching record without decoding it.
+     *
+     * @return false at the end, after closing the cursor
+     */
+    boolean advance() {
+        while (true) {
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int start = buffer.position();
+                int size = buffer.getInt(start);
+                if (size < RECORD_HEADER_SIZE + 4 || size > buffer.remaining()) {
+                    buffer.limit(start); // Corrupt, skip the rest of the block.
+                    break;
+                }
+                buffer.position(start + size);
+                long timestamp = buffer.getLong(start + 4);
+                int priority = buffer.get(start + 12);
+                int tagId = buffer.getInt(start + 13);
+                if (priority >= minPriority && timestamp >= from && timestamp <= to
+                        && (tags == null || tags.get(tagId))) {
+                    this.timestamp = timestamp;
+                    this.priority = priority;
+                    this.tagId = tagId;
+                    recordStart = start;
+                    recordEnd = start + size;
+                    return true;
+                }
+            }
+            if (!readNextBlock()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * The size in bytes of the current record.
+     */
+    int recordSize() {
+        return recordEnd - recordStart;
+    }
+
+    /**
+     * Copies the current record as is to {@code out}.
+     */
+    void copyRecord(ByteBuffer out) {
+        ByteBuffer record = buffer.duplicate();
+        record.limit(recordEnd).position(recordStart);
+        out.put(record);
+    }
+
+    private boolean readNextBlock() {
+        while (segment < segments.length) {
+            LogStoreSegment current = segment >= 0 ? segments[segment] : null;
+            if (current != null && channel != null) {
+                while (block < current.blockCount) {
+                    int index = block++;
+                    if (current.blockMayMatch(index, from, to, minPriority)) {
+                        long start = current.blockOffsets[index];
+                        int size = (int) (current.blockEnd(index) - start);
+                        if (buffer.capacity() < size) {
+                            buffer = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+                        }
+                        buffer.clear();
+                        buffer.limit(size);
+                        try {
+                            if (LogStoreSegment.read(channel, buffer, start) < size) {
+                                break; // Cut short, the store was closed and reopened since.
+                            }
+                        } catch (IOException e) {
+                            Log.println(Log.ERROR, "Timber", "LogStoreCursor failed to read " + current.file + ": " + e);
+                            break;
+                        }
+                        buffer.flip();
+                        return true;
+                    }
+                }
+            }
+            closeChannel();
+            buffer.limit(0);
+            segment++;
+            block = 0;
+            if (segment < segments.length && segments[segment].mayMatch(tags, from, to, minPriority)) {
+                try {
+                    channel = new FileInputStream(segments[segment].file).getChannel();
+                } catch (FileNotFoundException e) {
+                    channel = null; // Compacted or deleted since the query was made.
+                }
+            }
+        }
+        return false;
+    }
+
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+}
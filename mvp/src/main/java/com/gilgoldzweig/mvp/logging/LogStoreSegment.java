@@ -0,0 +1,371 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A segment file of a {@link LogStoreTree} and its index.
+ * <pre>
+ * segment := MAGIC VERSION record*
+ * record  := size:int timestamp:long priority:byte tagId:int message:string
+ * </pre>
+ * Records are grouped into blocks of about {@link #BLOCK_SIZE} bytes, the index keeps each block's
+ * offset, time range and highest priority, and the ids of every tag in the segment, so a query
+ * only reads the blocks that may hold a match. A sealed segment's index is written next to it
+ * and read back instead of scanning the segment, a segment without one is scanned.
+ * Sealed segments never change, a compacted segment replaces the range of segments it was made of.
+ */
+final class LogStoreSegment {
+    static final String EXTENSION = ".tls";
+    static final String INDEX_EXTENSION = ".tlx";
+    static final int MAGIC = 0x544C5354; // TLST
+    static final byte VERSION = 1;
+    static final int HEADER_SIZE = 4 + 1;
+    // size + timestamp + priority + tag id
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 4;
+    // A block ends with the first record written this many bytes after the block started.
+    static final int BLOCK_SIZE = 4 * 1024;
+    static final int PRIORITY_COUNT = 8;
+
+    private static final int INDEX_MAGIC = 0x544C5358; // TLSX
+    private static final int SCAN_BUFFER_SIZE = 64 * 1024;
+
+    final File file;
+    // The range of segment indexes this segment holds the records of, only wider than one if compacted.
+    final long first;
+    final long last;
+    final boolean compacted;
+
+    long length = HEADER_SIZE;
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+    int maxPriority = -1;
+    // Bytes of records at each priority, tells how much compacting would keep.
+    final long[] bytesByPriority;
+    final BitSet tags;
+
+    int blockCount;
+    int[] blockOffsets;
+    long[] blockMinTimestamps;
+    long[] blockMaxTimestamps;
+    byte[] blockMaxPriorities;
+
+    LogStoreSegment(File file, long first, long last, boolean compacted) {
+        this(file, first, last, compacted, new long[PRIORITY_COUNT], new BitSet(), 16);
+    }
+
+    private LogStoreSegment(File file, long first, long last, boolean compacted, long[] bytesByPriority,
+                            BitSet tags, int blockCapacity) {
+        this.file = file;
+        this.first = first;
+        this.last = last;
+        this.compacted = compacted;
+        this.bytesByPriority = bytesByPriority;
+        this.tags = tags;
+        blockOffsets = new int[blockCapacity];
+        blockMinTimestamps = new long[blockCapacity];
+        blockMaxTimestamps = new long[blockCapacity];
+        blockMaxPriorities = new byte[blockCapacity];
+    }
+
+    static String fileName(String name, long first, long last, boolean compacted) {
+        return compacted ? name + "-" + first + "-" + last + EXTENSION : name + "-" + first + EXTENSION;
+    }
+
+    /**
+     * @return {@code {first, last}} of segment {@code file} written by a store called {@code name},
+     * {@code null} if it isn't one
+     */
+    static long[] parseFileName(String name, String file) {
+        if (!file.startsWith(name + "-") || !file.endsWith(EXTENSION)) {
+            return null;
+        }
+        String range = file.substring(name.length() + 1, file.length() - EXTENSION.length());
+        int dash = range.indexOf('-');
+        try {
+            if (dash < 0) {
+                long index = Long.parseLong(range);
+                return new long[]{index, index};
+            }
+            return new long[]{Long.parseLong(range.substring(0, dash)), Long.parseLong(range.substring(dash + 1))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    static void putHeader(ByteBuffer buffer) {
+        buffer.putInt(MAGIC).put(VERSION);
+    }
+
+    /**
+     * Reads the index of a sealed segment, or scans the segment if the index is missing or stale,
+     * cutting off a record left incomplete by the process dying.
+     *
+     * @return {@code null} if {@code file} is not a log store segment
+     */
+    static LogStoreSegment load(File file, long first, long last, boolean compacted) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = input.getChannel();
+            long fileLength = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (fileLength < HEADER_SIZE || read(channel, header, 0) < HEADER_SIZE
+                    || header.getInt(0) != MAGIC || header.get(4) != VERSION) {
+                return null;
+            }
+            LogStoreSegment segment = readIndex(file, first, last, compacted, fileLength);
+            if (segment == null) {
+                segment = new LogStoreSegment(file, first, last, compacted);
+                segment.scan(channel, fileLength);
+                if (segment.length < fileLength) {
+                    channel.truncate(segment.length);
+                }
+                segment.writeIndex();
+            }
+            return segment;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Adds a record written at {@link #length} to the index.
+     */
+    void onRecord(long timestamp, int priority, int tagId, int size) {
+        int offset = (int) length;
+        if (blockCount == 0 || offset - blockOffsets[blockCount - 1] >= BLOCK_SIZE) {
+            startBlock(offset);
+        }
+        int block = blockCount - 1;
+        blockMinTimestamps[block] = Math.min(blockMinTimestamps[block], timestamp);
+        blockMaxTimestamps[block] = Math.max(blockMaxTimestamps[block], timestamp);
+        blockMaxPriorities[block] = (byte) Math.max(blockMaxPriorities[block], priority);
+        minTimestamp = Math.min(minTimestamp, timestamp);
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        maxPriority = Math.max(maxPriority, priority);
+        bytesByPriority[Math.max(0, Math.min(priority, PRIORITY_COUNT - 1))] += size;
+        tags.set(tagId);
+        length += size;
+    }
+
+    /**
+     * The bytes of the records at {@code priority} or above.
+     */
+    long bytesAtOrAbove(int priority) {
+        long bytes = 0;
+        for (int i = Math.max(0, priority); i < PRIORITY_COUNT; i++) {
+            bytes += bytesByPriority[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * @param tags the ids of the wanted tags, {@code null} for any tag
+     */
+    boolean mayMatch(BitSet tags, long from, long to, int minPriority) {
+        return length > HEADER_SIZE && maxPriority >= minPriority
+                && maxTimestamp >= from && minTimestamp <= to
+                && (tags == null || tags.intersects(this.tags));
+    }
+
+    boolean blockMayMatch(int block, long from, long to, int minPriority) {
+        return blockMaxPriorities[block] >= minPriority
+                && blockMaxTimestamps[block] >= from && blockMinTimestamps[block] <= to;
+    }
+
+    long blockEnd(int block) {
+        return block + 1 < blockCount ? blockOffsets[block + 1] : length;
+    }
+
+    /**
+     * A copy of the index as it is now, for reading the segment while it is still being written.
+     */
+    LogStoreSegment snapshot() {
+        LogStoreSegment copy = new LogStoreSegment(file, first, last, compacted, bytesByPriority.clone(),
+                (BitSet) tags.clone(), 0);
+        copy.length = length;
+        copy.minTimestamp = minTimestamp;
+        copy.maxTimestamp = maxTimestamp;
+        copy.maxPriority = maxPriority;
+        copy.blockCount = blockCount;
+        copy.blockOffsets = Arrays.copyOf(blockOffsets, blockCount);
+        copy.blockMinTimestamps = Arrays.copyOf(blockMinTimestamps, blockCount);
+        copy.blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, blockCount);
+        copy.blockMaxPriorities = Arrays.copyOf(blockMaxPriorities, blockCount);
+        return copy;
+    }
+
+    File indexFile() {
+        String name = file.getName();
+        return new File(file.getParentFile(), name.substring(0, name.length() - EXTENSION.length()) + INDEX_EXTENSION);
+    }
+
+    void delete() {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        indexFile().delete();
+    }
+
+    /**
+     * Writes the index of a sealed segment, a failure only means it is scanned when next loaded.
+     */
+    void writeIndex() {
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile())));
+            try {
+                output.writeInt(INDEX_MAGIC);
+                output.writeLong(length);
+                output.writeLong(minTimestamp);
+                output.writeLong(maxTimestamp);
+                output.writeInt(maxPriority);
+                for (long bytes : bytesByPriority) {
+                    output.writeLong(bytes);
+                }
+                long[] words = tags.toLongArray();
+                output.writeInt(words.length);
+                for (long word : words) {
+                    output.writeLong(word);
+                }
+                output.writeInt(blockCount);
+                for (int i = 0; i < blockCount; i++) {
+                    output.writeInt(blockOffsets[i]);
+                    output.writeLong(blockMinTimestamps[i]);
+                    output.writeLong(blockMaxTimestamps[i]);
+                    output.writeByte(blockMaxPriorities[i]);
+                }
+                // Written last, an index cut short reads as missing.
+                output.writeInt(INDEX_MAGIC);
+            } finally {
+                output.close();
+            }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            indexFile().delete();
+        }
+    }
+
+    private static LogStoreSegment readIndex(File file, long first, long last, boolean compacted, long fileLength) {
+        LogStoreSegment probe = new LogStoreSegment(file, first, last, compacted, new long[0], new BitSet(), 0);
+        File indexFile = probe.indexFile();
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (input.readInt() != INDEX_MAGIC || input.readLong() != fileLength) {
+                    return null;
+                }
+                long minTimestamp = input.readLong();
+                long maxTimestamp = input.readLong();
+                int maxPriority = input.readInt();
+                long[] bytesByPriority = new long[PRIORITY_COUNT];
+                for (int i = 0; i < PRIORITY_COUNT; i++) {
+                    bytesByPriority[i] = input.readLong();
+                }
+                long[] words = new long[input.readInt()];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = input.readLong();
+                }
+                int blockCount = input.readInt();
+                LogStoreSegment segment = new LogStoreSegment(file, first, last, compacted, bytesByPriority,
+                        BitSet.valueOf(words), blockCount);
+                for (int i = 0; i < blockCount; i++) {
+                    segment.blockOffsets[i] = input.readInt();
+                    segment.blockMinTimestamps[i] = input.readLong();
+                    segment.blockMaxTimestamps[i] = input.readLong();
+                    segment.blockMaxPriorities[i] = input.readByte();
+                }
+                if (input.readInt() != INDEX_MAGIC) {
+                    return null;
+                }
+                segment.blockCount = blockCount;
+                segment.length = fileLength;
+                segment.minTimestamp = minTimestamp;
+                segment.maxTimestamp = maxTimestamp;
+                segment.maxPriority = maxPriority;
+                return segment;
+            } finally {
+                input.close();
+            }
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Indexes every complete record, stopping at the first one that is cut short or corrupt.
+     */
+    private void scan(FileChannel channel, long fileLength) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        long position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= fileLength) {
+            buffer.clear();
+            int read = read(channel, buffer, position);
+            int offset = 0;
+            while (offset + RECORD_HEADER_SIZE <= read) {
+                int size = buffer.getInt(offset);
+                int priority = buffer.get(offset + 12);
+                if (size < RECORD_HEADER_SIZE + 4 || position + offset + size > fileLength
+                        || priority < 0 || priority >= PRIORITY_COUNT) {
+                    return;
+                }
+                if (offset + size > read) {
+                    if (offset == 0) {
+                        return; // Larger than the scan buffer, can't be a record.
+                    }
+                    break;
+                }
+                onRecord(buffer.getLong(offset + 4), priority, buffer.getInt(offset + 13), size);
+                offset += size;
+            }
+            if (offset == 0) {
+                return;
+            }
+            position += offset;
+        }
+    }
+
+    private void startBlock(int offset) {
+        if (blockCount == blockOffsets.length) {
+            int capacity = Math.max(16, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+            blockMinTimestamps = Arrays.copyOf(blockMinTimestamps, capacity);
+            blockMaxTimestamps = Arrays.copyOf(blockMaxTimestamps, capacity);
+            blockMaxPriorities = Arrays.copyOf(blockMaxPriorities, capacity);
+        }
+        blockOffsets[blockCount] = offset;
+        blockMinTimestamps[blockCount] = Long.MAX_VALUE;
+        blockMaxTimestamps[blockCount] = Long.MIN_VALUE;
+        blockMaxPriorities[blockCount] = -1;
+        blockCount++;
+    }
+
+    /**
+     * Fills {@code buffer} from {@code position} up to the end of the file.
+     *
+     * @return how many bytes were read
+     */
+    static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int start = buffer.position();
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position() - start);
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.position() - start;
+    }
+}
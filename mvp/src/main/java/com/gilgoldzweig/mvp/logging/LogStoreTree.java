@@ -0,0 +1,608 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.gilgoldzweig.mvp.logging.LogStoreSegment.HEADER_SIZE;
+import static com.gilgoldzweig.mvp.logging.LogStoreSegment.RECORD_HEADER_SIZE;
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.getString;
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.putString;
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.stringSize;
+
+/**
+ * A {@link Timber.Tree Tree} keeping log records in an append-only store on the device that can be
+ * {@link #query queried} by tag, time range and priority, to pull the logs of a support case
+ * without reading every file.
+ * <p>
+ * Records are appended to segment files of {@code segmentSize} bytes, each one indexed by
+ * {@link LogStoreSegment}: the ids of the tags it holds and, for every block of about 4KB, its
+ * time range and highest priority. A query skips the segments and blocks that can't match and
+ * streams the rest through a {@link LogStoreCursor}. Tags are interned store-wide in
+ * {@code name.tags}, a record only holds the id of its tag.
+ * <p>
+ * Once the store grows past {@code maxBytes}, the oldest segments are compacted on the maintenance
+ * executor, a thread shared by the stores unless one is given: their records below {@code compactionPriority} are dropped and what is left
+ * of consecutive segments is merged into one. If that isn't enough the oldest segments are deleted.
+ * <pre>
+ * LogStoreTree store = new LogStoreTree(new File(context.getFilesDir(), "logs"));
+ * Timber.plant(store);
+ * ...
+ * LogStoreCursor cursor = store.query(Collections.singleton("Network"), from, to, Log.INFO);
+ * try {
+ *     while (cursor.hasNext()) {
+ *         upload(cursor.next());
+ *     }
+ * } finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ */
+public class LogStoreTree extends SinkTree {
+    private static final int DEFAULT_SEGMENT_SIZE = 256 * 1024;
+    private static final long DEFAULT_MAX_BYTES = 8L * 1024 * 1024;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+    // Holds the longest record, its message is cut at MappedLogFormat.MAX_STRING_CHARS.
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_TAG_CHARS = 128;
+    private static final String TAGS_EXTENSION = ".tags";
+    private static final String TEMP_EXTENSION = ".tmp";
+    // Tag id of records without a tag.
+    private static final int NULL_TAG_ID = 0;
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final int compactionPriority;
+    private final Executor maintenanceExecutor;
+
+    // All fields guarded by 'this'.
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final List<LogStoreSegment> segments = new ArrayList<>();
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    // The tag of each id, id 0 is the null tag.
+    private final List<String> tagNames = new ArrayList<>();
+    private FileChannel tagChannel;
+    private FileChannel channel;
+    private LogStoreSegment active;
+    private long nextSegmentIndex;
+    private boolean opened;
+    private boolean failed;
+    private long droppedCount;
+
+    private final AtomicBoolean maintenancePending = new AtomicBoolean();
+    private final Object maintenanceLock = new Object();
+    private final Runnable maintenance = new Runnable() {
+        @Override
+        public void run() {
+            maintain();
+        }
+    };
+
+    /**
+     * Keeps up to 8MB of records in segments of 256KB, compacting away verbose and debug records first.
+     */
+    public LogStoreTree(@NonNull File directory) {
+        this(directory, "timber", DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_BYTES, Log.INFO);
+    }
+
+    /**
+     * @param directory          Where the store is written, created if missing.
+     * @param name               Prefix of the store's files.
+     * @param segmentSize        The size of each segment in bytes, at least 64KB.
+     * @param maxBytes           The size the store is kept under, at least two segments.
+     * @param compactionPriority Records below this priority are dropped from compacted segments.
+     */
+    public LogStoreTree(@NonNull File directory, @NonNull String name, int segmentSize, long maxBytes,
+                        int compactionPriority) {
+        this(directory, name, segmentSize, maxBytes, compactionPriority, MaintenanceExecutor.INSTANCE);
+    }
+
+    /**
+     * @param maintenanceExecutor Runs the compactions, which read and write whole segments.
+     * @see #LogStoreTree(File, String, int, long, int)
+     */
+    public LogStoreTree(@NonNull File directory, @NonNull String name, int segmentSize, long maxBytes,
+                        int compactionPriority, @NonNull Executor maintenanceExecutor) {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize < " + MIN_SEGMENT_SIZE + ": " + segmentSize);
+        }
+        if (maxBytes < 2L * segmentSize) {
+            throw new IllegalArgumentException("maxBytes < 2 * segmentSize: " + maxBytes);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        this.compactionPriority = compactionPriority;
+        this.maintenanceExecutor = maintenanceExecutor;
+    }
+
+    /**
+     * The records logged with one of {@code tags} between {@code from} and {@code to} at
+     * {@code minPriority} or above, oldest first.
+     *
+     * @param tags        the tags to return, a {@code null} element for records without one,
+     *                    {@code null} for any tag
+     * @param from        the earliest timestamp to return, in milliseconds, inclusive
+     * @param to          the latest timestamp to return, in milliseconds, inclusive
+     * @param minPriority the lowest priority to return
+     */
+    @NonNull
+    public LogStoreCursor query(@Nullable Collection<String> tags, long from, long to, int minPriority) {
+        LogStoreSegment[] snapshot;
+        String[] names;
+        BitSet wanted = null;
+        synchronized (this) {
+            try {
+                open();
+                if (channel != null) {
+                    drain();
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+            if (tags != null) {
+                wanted = new BitSet();
+                for (String tag : tags) {
+                    Integer id = tag == null ? Integer.valueOf(NULL_TAG_ID) : tagIds.get(tag);
+                    if (id != null) {
+                        wanted.set(id);
+                    }
+                }
+            }
+            snapshot = new LogStoreSegment[segments.size()];
+            for (int i = 0; i < snapshot.length; i++) {
+                LogStoreSegment segment = segments.get(i);
+                snapshot[i] = segment == active ? segment.snapshot() : segment;
+            }
+            names = tagNames.toArray(new String[0]);
+        }
+        return new LogStoreCursor(snapshot, names, wanted, from, to, minPriority);
+    }
+
+    /**
+     * The size of the store's segments in bytes.
+     */
+    public synchronized long getSize() {
+        return totalBytes();
+    }
+
+    /**
+     * Records that were logged after a write failed.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Writes the buffered records to the current segment.
+     */
+    public synchronized void flush() {
+        if (channel != null) {
+            try {
+                drain();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the buffered records and closes the store, a later log call or query opens it again.
+     */
+    public synchronized void close() {
+        try {
+            seal();
+            if (tagChannel != null) {
+                tagChannel.close();
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+        tagChannel = null;
+        segments.clear();
+        tagIds.clear();
+        tagNames.clear();
+        opened = false;
+    }
+
+    @Override
+    protected void log(LogRecord record, String tag) {
+        String message = customFormat ? record.getMessage(this) : record.getMessage();
+        if (message != null) {
+            write(record.getTimestamp(), record.getPriority(), tag, message);
+        }
+    }
+
+    @Override
+    protected void log(int priority, String tag, String message, Throwable t) {
+        write(System.currentTimeMillis(), priority, tag, message);
+    }
+
+    @Override
+    protected void onCrash() {
+        flush();
+    }
+
+    private synchronized void write(long timestamp, int priority, String tag, String message) {
+        if (failed) {
+            droppedCount++;
+            return;
+        }
+        try {
+            open();
+            int size = RECORD_HEADER_SIZE + stringSize(message);
+            if (active == null || active.length + size > segmentSize) {
+                roll();
+            }
+            int tagId = tagId(tag);
+            if (writeBuffer.remaining() < size) {
+                drain();
+            }
+            writeBuffer.putInt(size).putLong(timestamp).put((byte) priority).putInt(tagId);
+            putString(writeBuffer, message);
+            active.onRecord(timestamp, priority, tagId, size);
+            if (priority >= Log.WARN) {
+                drain();
+            }
+            LogMetrics metrics = Timber.metrics;
+            if (metrics != null) {
+                metrics.onBytesEmitted(size);
+            }
+        } catch (IOException e) {
+            fail(e);
+            droppedCount++;
+        }
+    }
+
+    private int tagId(String tag) throws IOException {
+        if (tag == null) {
+            return NULL_TAG_ID;
+        }
+        Integer id = tagIds.get(tag);
+        if (id != null) {
+            return id;
+        }
+        // Written through right away, before any record using it.
+        ByteBuffer definition = ByteBuffer.allocate(stringSize(tag, MAX_TAG_CHARS));
+        putString(definition, tag, MAX_TAG_CHARS);
+        definition.flip();
+        while (definition.hasRemaining()) {
+            tagChannel.write(definition);
+        }
+        int newId = tagNames.size();
+        tagNames.add(tag);
+        tagIds.put(tag, newId);
+        return newId;
+    }
+
+    private void drain() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+    }
+
+    /**
+     * Seals the current segment and starts the next one.
+     */
+    private void roll() throws IOException {
+        long index = active != null ? active.last + 1 : nextSegmentIndex;
+        seal();
+        File file = new File(directory, LogStoreSegment.fileName(name, index, index, false));
+        channel = new RandomAccessFile(file, "rw").getChannel();
+        channel.truncate(0);
+        LogStoreSegment.putHeader(writeBuffer);
+        active = new LogStoreSegment(file, index, index, false);
+        segments.add(active);
+        if (reservedBytes() > maxBytes && maintenancePending.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(maintenance);
+        }
+    }
+
+    private void seal() throws IOException {
+        if (active == null) {
+            return;
+        }
+        LogStoreSegment sealed = active;
+        active = null;
+        try {
+            drain();
+            channel.close();
+        } finally {
+            channel = null;
+            writeBuffer.clear();
+        }
+        sealed.writeIndex();
+    }
+
+    private long totalBytes() {
+        long total = 0;
+        for (LogStoreSegment segment : segments) {
+            total += segment.length;
+        }
+        return total;
+    }
+
+    /**
+     * The bytes the store will take once the current segment is full.
+     */
+    private long reservedBytes() {
+        return totalBytes() + (active != null ? segmentSize - active.length : 0);
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        Log.println(Log.ERROR, "Timber", "LogStoreTree stopped writing to " + directory + ": " + e);
+    }
+
+    /**
+     * Loads the tags and the segment indexes, a new segment is started by the first record.
+     */
+    private void open() throws IOException {
+        if (opened) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        loadTags();
+        loadSegments();
+        opened = true;
+        nextSegmentIndex = segments.isEmpty() ? 0 : segments.get(segments.size() - 1).last + 1;
+        if (reservedBytes() > maxBytes && maintenancePending.compareAndSet(false, true)) {
+            maintenanceExecutor.execute(maintenance);
+        }
+    }
+
+    private void loadTags() throws IOException {
+        tagNames.clear();
+        tagIds.clear();
+        tagNames.add(null);
+        tagChannel = new RandomAccessFile(new File(directory, name + TAGS_EXTENSION), "rw").getChannel();
+        ByteBuffer tags = ByteBuffer.allocate((int) tagChannel.size());
+        LogStoreSegment.read(tagChannel, tags, 0);
+        tags.flip();
+        while (tags.remaining() >= 4 && tags.getInt(tags.position()) <= tags.remaining() - 4) {
+            String tag = getString(tags);
+            tagIds.put(tag, tagNames.size());
+            tagNames.add(tag);
+        }
+        // Drops a definition cut short by the process dying.
+        tagChannel.truncate(tags.position());
+        tagChannel.position(tags.position());
+    }
+
+    private void loadSegments() throws IOException {
+        segments.clear();
+        List<long[]> ranges = new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File file : listed) {
+                if (file.getName().startsWith(name + "-") && file.getName().endsWith(TEMP_EXTENSION)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete(); // A compaction that didn't finish.
+                    continue;
+                }
+                long[] range = LogStoreSegment.parseFileName(name, file.getName());
+                if (range != null) {
+                    ranges.add(new long[]{range[0], range[1], file.getName().indexOf('-', name.length() + 1) >= 0 ? 1 : 0, files.size()});
+                    files.add(file);
+                }
+            }
+        }
+        // By first index, then widest range first, then compacted first.
+        Collections.sort(ranges, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                if (a[0] != b[0]) {
+                    return a[0] < b[0] ? -1 : 1;
+                }
+                if (a[1] != b[1]) {
+                    return a[1] > b[1] ? -1 : 1;
+                }
+                return (int) (b[2] - a[2]);
+            }
+        });
+        long covered = -1;
+        for (long[] range : ranges) {
+            File file = files.get((int) range[3]);
+            LogStoreSegment segment = null;
+            if (range[1] > covered) {
+                segment = LogStoreSegment.load(file, range[0], range[1], range[2] == 1);
+            }
+            if (segment == null) {
+                // Merged into a compacted segment by a compaction that was cut short, or not a segment.
+                new LogStoreSegment(file, range[0], range[1], range[2] == 1).delete();
+                continue;
+            }
+            covered = range[1];
+            segments.add(segment);
+        }
+    }
+
+    /**
+     * Compacts the oldest segments and then deletes them until the store is under {@code maxBytes}.
+     */
+    private void maintain() {
+        maintenancePending.set(false);
+        synchronized (maintenanceLock) {
+            try {
+                //noinspection StatementWithEmptyBody
+                while (compactOldest()) {
+                }
+            } catch (IOException e) {
+                Log.println(Log.ERROR, "Timber", "LogStoreTree failed to compact " + directory + ": " + e);
+            }
+            List<LogStoreSegment> deleted = new ArrayList<>();
+            synchronized (this) {
+                long total = reservedBytes();
+                while (total > maxBytes && segments.size() > 1 && segments.get(0) != active) {
+                    LogStoreSegment oldest = segments.remove(0);
+                    total -= oldest.length;
+                    deleted.add(oldest);
+                }
+            }
+            for (LogStoreSegment segment : deleted) {
+                segment.delete();
+            }
+        }
+    }
+
+    /**
+     * Compacts the oldest run of sealed segments that compacting shrinks or merges.
+     *
+     * @return false if the store is under {@code maxBytes} or nothing is worth compacting
+     */
+    private boolean compactOldest() throws IOException {
+        List<LogStoreSegment> group;
+        synchronized (this) {
+            if (reservedBytes() <= maxBytes) {
+                return false;
+            }
+            group = compactionGroup();
+        }
+        if (group == null) {
+            return false;
+        }
+        LogStoreSegment first = group.get(0);
+        LogStoreSegment last = group.get(group.size() - 1);
+        File file = new File(directory, LogStoreSegment.fileName(name, first.first, last.last, true));
+        File temp = new File(file.getPath() + TEMP_EXTENSION);
+        LogStoreSegment compacted = new LogStoreSegment(file, first.first, last.last, true);
+
+        ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+        LogStoreSegment.putHeader(buffer);
+        FileChannel output = new FileOutputStream(temp).getChannel();
+        LogStoreCursor cursor = new LogStoreCursor(group.toArray(new LogStoreSegment[0]), null, null,
+                Long.MIN_VALUE, Long.MAX_VALUE, compactionPriority);
+        try {
+            while (cursor.advance()) {
+                int size = cursor.recordSize();
+                if (buffer.remaining() < size) {
+                    write(output, buffer);
+                }
+                cursor.copyRecord(buffer);
+                compacted.onRecord(cursor.timestamp, cursor.priority, cursor.tagId, size);
+            }
+            write(output, buffer);
+            output.force(false);
+        } finally {
+            cursor.close();
+            output.close();
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw new IOException("Can't rename " + temp);
+        }
+        compacted.writeIndex();
+
+        synchronized (this) {
+            int index = segments.indexOf(first);
+            if (index < 0) {
+                return false; // Closed meanwhile, the next open keeps the compacted segment.
+            }
+            segments.subList(index, index + group.size()).clear();
+            segments.add(index, compacted);
+        }
+        for (LogStoreSegment segment : group) {
+            segment.delete();
+        }
+        return true;
+    }
+
+    /**
+     * The oldest run of sealed segments whose kept records fit in one segment, made of more than
+     * one segment or of one that has records to drop, and no longer than it takes to get the store
+     * under {@code maxBytes}.
+     */
+    private List<LogStoreSegment> compactionGroup() {
+        long excess = reservedBytes() - maxBytes;
+        for (int start = 0; start < segments.size(); start++) {
+            List<LogStoreSegment> group = new ArrayList<>();
+            long size = HEADER_SIZE;
+            long saved = -HEADER_SIZE;
+            for (int i = start; i < segments.size(); i++) {
+                LogStoreSegment segment = segments.get(i);
+                long kept = segment.bytesAtOrAbove(compactionPriority);
+                if (segment == active || size + kept > segmentSize) {
+                    break;
+                }
+                size += kept;
+                saved += segment.length - kept;
+                group.add(segment);
+                if (saved >= excess && isWorthCompacting(group)) {
+                    return group;
+                }
+            }
+            if (isWorthCompacting(group)) {
+                return group;
+            }
+        }
+        return null;
+    }
+
+    private boolean isWorthCompacting(List<LogStoreSegment> group) {
+        if (group.size() != 1) {
+            return group.size() > 1;
+        }
+        LogStoreSegment segment = group.get(0);
+        return !segment.compacted && segment.bytesAtOrAbove(compactionPriority) < segment.length - HEADER_SIZE;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * The daemon thread compacting stores created without an executor, started on first use and
+     * stopped after a minute idle.
+     */
+    private static final class MaintenanceExecutor {
+        static final Executor INSTANCE;
+
+        static {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "Timber-LogStore");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            INSTANCE = executor;
+        }
+    }
+}
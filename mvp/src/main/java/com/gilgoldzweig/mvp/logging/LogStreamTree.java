@@ -0,0 +1,357 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.putString;
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.stringSize;
+
+/**
+ * A {@link Timber.Tree Tree} streaming live log records to {@link LogStreamViewer}s over a loopback
+ * TCP socket, so high volumes of logs can be watched on a desktop without logcat's truncation and
+ * drops or {@link Timber.DebugTree}'s 4000 chars chunks.
+ * <p>
+ * Records are queued and a single sender thread writes them to every connected viewer in batches:
+ * <pre>
+ * stream := MAGIC VERSION frame*
+ * frame  := length:int dropped:int count:int record*
+ * record := timestamp:long priority:byte hasTag:byte [tag:string] message:string
+ * </pre>
+ * where {@code length} counts the bytes after it and {@code dropped} the records discarded by the
+ * {@link OverflowPolicy} since the previous frame. A viewer that can't keep up fills its socket
+ * buffer, which stops the sender and fills the queue, with {@link OverflowPolicy#BLOCK} the log
+ * calls then wait for the viewer instead of losing records.
+ * Nothing is queued while no viewer is connected.
+ * <p>
+ * The socket only listens on the loopback interface, forward it to stream from a device:
+ * <pre>
+ * adb forward tcp:7788 tcp:7788
+ * java -cp mvp.jar com.gilgoldzweig.mvp.logging.LogStreamViewer 7788
+ * </pre>
+ */
+public class LogStreamTree extends SinkTree implements Closeable {
+    static final int MAGIC = 0x544C534D; // TLSM
+    static final byte VERSION = 1;
+    // length + dropped + count
+    static final int FRAME_HEADER_SIZE = 4 + 4 + 4;
+    // timestamp + priority + tag flag
+    static final int RECORD_HEADER_SIZE = 8 + 1 + 1;
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    // A frame is sent once it holds this many bytes or the queue is empty.
+    private static final int FRAME_SIZE = 64 * 1024;
+    private static final long POLL_MILLIS = 250;
+    private static final long FLUSH_TIMEOUT_MILLIS = 2000;
+
+    private final ServerSocketChannel server;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final OverflowPolicy policy;
+    private final List<SocketChannel> viewers = new CopyOnWriteArrayList<>();
+    // Held while writing to the viewers, a new viewer is sent the header before any frame.
+    private final Object viewersLock = new Object();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final Thread acceptor;
+    private final Thread sender;
+    private volatile boolean running = true;
+    private volatile boolean sending;
+
+    // Only used by the sender thread.
+    private ByteBuffer frame = ByteBuffer.allocateDirect(FRAME_SIZE);
+    private Entry pending;
+
+    /**
+     * Listens on {@code port}, blocking log calls while the viewers can't keep up.
+     */
+    public LogStreamTree(int port) throws IOException {
+        this(port, DEFAULT_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param port     The loopback port to listen on, 0 for any free port, see {@link #getPort()}.
+     * @param capacity How many records can be queued for the viewers.
+     * @param policy   What to do with a record when the queue is full.
+     */
+    public LogStreamTree(int port, int capacity, @NonNull OverflowPolicy policy) throws IOException {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.policy = policy;
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress(InetAddress.getByName(null), port));
+
+        acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "Timber-stream-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                send();
+            }
+        }, "Timber-stream-sender");
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * The port the tree listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * How many viewers are currently connected.
+     */
+    public int getViewerCount() {
+        return viewers.size();
+    }
+
+    /**
+     * Waits up to two seconds for the queued records, and the count of those dropped, to be sent.
+     */
+    public void flush() {
+        long deadline = System.currentTimeMillis() + FLUSH_TIMEOUT_MILLIS;
+        while ((!queue.isEmpty() || sending || dropped.get() > 0) && running && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stops listening and disconnects every viewer, the queued records are discarded.
+     */
+    @Override
+    public void close() {
+        running = false;
+        closeQuietly(server);
+        acceptor.interrupt();
+        sender.interrupt();
+        synchronized (viewersLock) {
+            for (SocketChannel viewer : viewers) {
+                closeQuietly(viewer);
+            }
+            viewers.clear();
+        }
+        queue.clear();
+    }
+
+    @Override
+    protected void log(LogRecord record, String tag) {
+        if (viewers.isEmpty()) {
+            return;
+        }
+        String message = customFormat ? record.getMessage(this) : record.getMessage();
+        if (message != null) {
+            enqueue(new Entry(record.getTimestamp(), record.getPriority(), tag, message));
+        }
+    }
+
+    @Override
+    protected void log(int priority, String tag, String message, Throwable t) {
+        if (!viewers.isEmpty()) {
+            enqueue(new Entry(System.currentTimeMillis(), priority, tag, message));
+        }
+    }
+
+    @Override
+    protected void onCrash() {
+        flush();
+    }
+
+    private void enqueue(Entry entry) {
+        switch (policy) {
+            case DROP_NEWEST:
+                if (!queue.offer(entry)) {
+                    onDropped();
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(entry)) {
+                    if (queue.poll() != null) {
+                        onDropped();
+                    }
+                }
+                break;
+            case BLOCK:
+                try {
+                    // Gives up once the last viewer is gone, so a disconnect never leaves callers waiting.
+                    while (!queue.offer(entry, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (viewers.isEmpty() || !running) {
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    onDropped();
+                }
+                break;
+        }
+    }
+
+    private void onDropped() {
+        dropped.incrementAndGet();
+        LogMetrics metrics = Timber.metrics;
+        if (metrics != null) {
+            metrics.onDroppedByOverflow();
+        }
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                SocketChannel viewer = server.accept();
+                viewer.socket().setTcpNoDelay(true);
+                ByteBuffer header = ByteBuffer.allocate(4 + 1);
+                header.putInt(MAGIC).put(VERSION).flip();
+                synchronized (viewersLock) {
+                    // Added first so records logged once the viewer has the header reach it.
+                    viewers.add(viewer);
+                    try {
+                        writeFully(viewer, header);
+                    } catch (IOException e) {
+                        viewers.remove(viewer);
+                        closeQuietly(viewer);
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    Log.println(Log.ERROR, "Timber", "LogStreamTree failed to accept a viewer: " + e);
+                }
+            }
+        }
+    }
+
+    private void send() {
+        while (running) {
+            Entry entry = pending;
+            pending = null;
+            try {
+                if (entry == null) {
+                    entry = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (entry == null && dropped.get() == 0) {
+                        continue;
+                    }
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            sending = true;
+            try {
+                frame.clear();
+                frame.position(FRAME_HEADER_SIZE);
+                int count = 0;
+                // Without an entry the frame only reports the records dropped since the last one.
+                while (entry != null) {
+                    if (!append(entry)) {
+                        pending = entry; // Opens the next frame.
+                        break;
+                    }
+                    count++;
+                    entry = frame.position() < FRAME_SIZE ? queue.poll() : null;
+                }
+                frame.putInt(0, frame.position() - 4);
+                frame.putInt(4, dropped.getAndSet(0));
+                frame.putInt(8, count);
+                frame.flip();
+                broadcast();
+            } finally {
+                sending = false;
+            }
+        }
+    }
+
+    /**
+     * @return false if the frame has no room left for {@code entry}
+     */
+    private boolean append(Entry entry) {
+        int size = RECORD_HEADER_SIZE + (entry.tag != null ? stringSize(entry.tag, Integer.MAX_VALUE) : 0)
+                + stringSize(entry.message, Integer.MAX_VALUE);
+        if (frame.remaining() < size) {
+            if (frame.position() > FRAME_HEADER_SIZE) {
+                return false;
+            }
+            // A single record larger than a frame gets a frame of its own.
+            frame = ByteBuffer.allocateDirect(Math.max(FRAME_HEADER_SIZE + size, FRAME_SIZE));
+            frame.position(FRAME_HEADER_SIZE);
+        }
+        frame.putLong(entry.timestamp);
+        frame.put((byte) entry.priority);
+        frame.put((byte) (entry.tag != null ? 1 : 0));
+        if (entry.tag != null) {
+            putString(frame, entry.tag, Integer.MAX_VALUE);
+        }
+        putString(frame, entry.message, Integer.MAX_VALUE);
+        return true;
+    }
+
+    private void broadcast() {
+        int bytes = frame.remaining();
+        synchronized (viewersLock) {
+            for (SocketChannel viewer : viewers) {
+                try {
+                    writeFully(viewer, frame.duplicate());
+                    LogMetrics metrics = Timber.metrics;
+                    if (metrics != null) {
+                        metrics.onBytesEmitted(bytes);
+                    }
+                } catch (IOException e) {
+                    viewers.remove(viewer);
+                    closeQuietly(viewer);
+                }
+            }
+        }
+        if (frame.capacity() > FRAME_SIZE) {
+            frame = ByteBuffer.allocateDirect(FRAME_SIZE);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class Entry {
+        final long timestamp;
+        final int priority;
+        final String tag;
+        final String message;
+
+        Entry(long timestamp, int priority, String tag, String message) {
+            this.timestamp = timestamp;
+            this.priority = priority;
+            this.tag = tag;
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.getString;
+
+/**
+ * Reads the records streamed by a {@link LogStreamTree}, on the JVM or on the device.
+ * <p>
+ * Run it to print the records as logcat style lines, records the tree had to drop are reported
+ * in between:
+ * <pre>
+ * java -cp mvp.jar com.gilgoldzweig.mvp.logging.LogStreamViewer [host] port
+ * </pre>
+ */
+public final class LogStreamViewer implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Socket socket;
+    private final DataInputStream input;
+    private ByteBuffer frame = ByteBuffer.allocate(0);
+    private int remainingRecords;
+    private long droppedCount;
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0 || args.length > 2) {
+            System.err.println("Usage: LogStreamViewer [host] port");
+            System.exit(1);
+        }
+        String host = args.length == 2 ? args[0] : "localhost";
+        int port = Integer.parseInt(args[args.length - 1]);
+        LogStreamViewer viewer = new LogStreamViewer(host, port);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        try {
+            long dropped = 0;
+            for (StoredLog record = viewer.read(); record != null; record = viewer.read()) {
+                if (viewer.getDroppedCount() != dropped) {
+                    out.println("-- " + (viewer.getDroppedCount() - dropped) + " records dropped");
+                    dropped = viewer.getDroppedCount();
+                }
+                out.println(record);
+                if (viewer.remainingRecords == 0) {
+                    out.flush();
+                }
+            }
+        } finally {
+            out.flush();
+            viewer.close();
+        }
+    }
+
+    /**
+     * Connects to a {@link LogStreamTree} listening on {@code port}.
+     */
+    public LogStreamViewer(@NonNull String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        input = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+        try {
+            if (input.readInt() != LogStreamTree.MAGIC) {
+                throw new IOException(host + ":" + port + " is not a Timber log stream");
+            }
+            byte version = input.readByte();
+            if (version != LogStreamTree.VERSION) {
+                throw new IOException(host + ":" + port + " streams unsupported version " + version);
+            }
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Waits for the next record.
+     *
+     * @return {@code null} once the tree is closed
+     */
+    @Nullable
+    public StoredLog read() throws IOException {
+        while (remainingRecords == 0) {
+            if (!readFrame()) {
+                return null;
+            }
+        }
+        remainingRecords--;
+        long timestamp = frame.getLong();
+        int priority = frame.get();
+        String tag = frame.get() != 0 ? getString(frame) : null;
+        return new StoredLog(timestamp, priority, tag, getString(frame));
+    }
+
+    /**
+     * How many records the tree dropped so far, reported with the frames read.
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private boolean readFrame() throws IOException {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            return false;
+        }
+        if (frame.capacity() < length) {
+            frame = ByteBuffer.allocate(length);
+        }
+        frame.clear();
+        frame.limit(length);
+        input.readFully(frame.array(), 0, length);
+        droppedCount += frame.getInt();
+        remainingRecords = frame.getInt();
+        return true;
+    }
+}
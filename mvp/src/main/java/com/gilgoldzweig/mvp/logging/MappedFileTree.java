@@ -0,0 +1,328 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.*;
+
+/**
+ * A {@link Timber.Tree Tree} that appends log records to memory-mapped segment files in a compact
+ * binary format, turned back into text by {@link MappedLogDecoder}.
+ * <p>
+ * Messages are never formatted on the device, each record holds the timestamp, the priority,
+ * the ids of its tag and message template and the raw format arguments, with boxed primitives
+ * written as binary. The {@link LogFields fields} of a {@linkplain Timber#at(int) structured}
+ * call are written the same way, primitive ones straight from their unboxed values. Tags and templates are interned per segment, the first use writes a
+ * definition entry so every segment decodes on its own.
+ * <p>
+ * Once a tag or template is known writing a record doesn't allocate, unless an argument is
+ * neither a primitive, a {@link CharSequence} nor null. When a record doesn't fit in the current
+ * segment the next one is mapped and segments past {@code maxSegments} are deleted.
+ * Written records survive the process dying since the pages belong to the kernel.
+ */
+public class MappedFileTree extends SinkTree {
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final int DEFAULT_MAX_SEGMENTS = 8;
+    private static final int MIN_SEGMENT_SIZE = 64 * 1024;
+
+    private final File directory;
+    private final String name;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    private final Map<String, Integer> tagIds = new HashMap<>();
+    private final Map<String, Integer> templateIds = new HashMap<>();
+
+    private MappedByteBuffer buffer;
+    private long segmentIndex = -1;
+    private long droppedCount;
+    private boolean failed;
+
+    /**
+     * Writes up to {@value #DEFAULT_MAX_SEGMENTS} segments of 1MB to {@code directory}.
+     */
+    public MappedFileTree(@NonNull File directory) {
+        this(directory, "timber", DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_SEGMENTS);
+    }
+
+    /**
+     * @param directory   Where the segments are written, created if missing.
+     * @param name        Prefix of the segment files, {@code name-index.tlog}.
+     * @param segmentSize The size of each segment in bytes, at least 64KB.
+     * @param maxSegments How many segments to keep, the oldest are deleted first.
+     */
+    public MappedFileTree(@NonNull File directory, @NonNull String name, int segmentSize, int maxSegments) {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("segmentSize < " + MIN_SEGMENT_SIZE + ": " + segmentSize);
+        }
+        if (maxSegments < 1) {
+            throw new IllegalArgumentException("maxSegments < 1: " + maxSegments);
+        }
+        this.directory = directory;
+        this.name = name;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Records that didn't fit in an empty segment or were logged after a write failed.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Forces the current segment to storage, only needed to survive the device losing power.
+     */
+    public synchronized void sync() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    @Override
+    protected synchronized void log(LogRecord record, String tag) {
+        write(record.getTimestamp(), record.getPriority(), tag,
+                record.getMessageTemplate(), record.getArgs(), record.getStackTrace(), record.getFields());
+    }
+
+    @Override
+    protected synchronized void log(int priority, String tag, String message, Throwable t) {
+        write(System.currentTimeMillis(), priority, tag, message, LogRecord.NO_ARGS, null, null);
+    }
+
+    private void write(long timestamp, int priority, String tag, String template, Object[] args, String trace,
+                       LogFields fields) {
+        if (failed) {
+            droppedCount++;
+            return;
+        }
+        try {
+            int argCount = Math.min(args.length, MAX_ARGS);
+            int fieldCount = fields != null ? Math.min(fields.size(), MAX_FIELDS) : 0;
+            int size = RECORD_SIZE + argsSize(args, argCount) + (trace != null ? stringSize(trace) : 0)
+                    + fieldsSize(fields, fieldCount);
+            int required = size + definitionSize(tagIds, tag) + definitionSize(templateIds, template)
+                    + keysDefinitionSize(fields, fieldCount);
+            if (buffer == null || buffer.remaining() <= required) {
+                openNextSegment();
+                // The dictionaries start over in a new segment.
+                required = size + definitionSize(tagIds, tag) + definitionSize(templateIds, template)
+                        + keysDefinitionSize(fields, fieldCount);
+                if (buffer.remaining() <= required) {
+                    droppedCount++;
+                    return;
+                }
+            }
+            int tagId = intern(tagIds, TAG_DEF, tag);
+            int templateId = intern(templateIds, TEMPLATE_DEF, template);
+            for (int i = 0; i < fieldCount; i++) {
+                intern(templateIds, TEMPLATE_DEF, fields.getKey(i));
+            }
+
+            int start = buffer.position();
+            buffer.position(start + 1);
+            buffer.putLong(timestamp);
+            buffer.put((byte) priority);
+            buffer.putInt(tagId);
+            buffer.putInt(templateId);
+            buffer.put((byte) argCount);
+            for (int i = 0; i < argCount; i++) {
+                putArg(args[i]);
+            }
+            buffer.put((byte) (trace != null ? 1 : 0));
+            if (trace != null) {
+                putString(buffer, trace);
+            }
+            buffer.put((byte) fieldCount);
+            for (int i = 0; i < fieldCount; i++) {
+                buffer.putInt(templateIds.get(fields.getKey(i)));
+                putField(fields, i);
+            }
+            buffer.put(start, RECORD);
+            LogMetrics metrics = Timber.metrics;
+            if (metrics != null) {
+                metrics.onBytesEmitted(buffer.position() - start);
+            }
+        } catch (IOException e) {
+            failed = true;
+            droppedCount++;
+            Log.println(Log.ERROR, "Timber", "MappedFileTree stopped writing to " + directory + ": " + e);
+        }
+    }
+
+    private static int definitionSize(Map<String, Integer> ids, String value) {
+        return value == null || ids.containsKey(value) ? 0 : DEF_SIZE + stringSize(value);
+    }
+
+    private int keysDefinitionSize(LogFields fields, int count) {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            // A key repeated in the same record is counted twice, which only overestimates.
+            size += definitionSize(templateIds, fields.getKey(i));
+        }
+        return size;
+    }
+
+    private int intern(Map<String, Integer> ids, byte type, String value) {
+        if (value == null) {
+            return NO_ID;
+        }
+        Integer id = ids.get(value);
+        if (id != null) {
+            return id;
+        }
+        int newId = ids.size();
+        ids.put(value, newId);
+        int start = buffer.position();
+        buffer.position(start + 1);
+        buffer.putInt(newId);
+        putString(buffer, value);
+        buffer.put(start, type);
+        return newId;
+    }
+
+    private static int argsSize(Object[] args, int count) {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size += 1 + argSize(args[i]);
+        }
+        return size;
+    }
+
+    private static int fieldsSize(LogFields fields, int count) {
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size += 4 + 1;
+            switch (fields.getType(i)) {
+                case LogFields.TYPE_LONG:
+                case LogFields.TYPE_DOUBLE:
+                    size += 8;
+                    break;
+                case LogFields.TYPE_BOOLEAN:
+                    size += 1;
+                    break;
+                default:
+                    size += argSize(fields.getObject(i));
+            }
+        }
+        return size;
+    }
+
+    private static int argSize(Object arg) {
+        if (arg == null) {
+            return 0;
+        } else if (arg instanceof Integer || arg instanceof Float) {
+            return 4;
+        } else if (arg instanceof Long || arg instanceof Double) {
+            return 8;
+        } else if (arg instanceof Boolean || arg instanceof Byte) {
+            return 1;
+        } else if (arg instanceof Character || arg instanceof Short) {
+            return 2;
+        } else if (arg instanceof CharSequence) {
+            return stringSize((CharSequence) arg);
+        }
+        return stringSize(String.valueOf(arg));
+    }
+
+    private void putArg(Object arg) {
+        if (arg == null) {
+            buffer.put(ARG_NULL);
+        } else if (arg instanceof Integer) {
+            buffer.put(ARG_INT).putInt((Integer) arg);
+        } else if (arg instanceof Long) {
+            buffer.put(ARG_LONG).putLong((Long) arg);
+        } else if (arg instanceof Float) {
+            buffer.put(ARG_FLOAT).putFloat((Float) arg);
+        } else if (arg instanceof Double) {
+            buffer.put(ARG_DOUBLE).putDouble((Double) arg);
+        } else if (arg instanceof Boolean) {
+            buffer.put(ARG_BOOLEAN).put((byte) ((Boolean) arg ? 1 : 0));
+        } else if (arg instanceof Character) {
+            buffer.put(ARG_CHAR).putChar((Character) arg);
+        } else if (arg instanceof Byte) {
+            buffer.put(ARG_BYTE).put((Byte) arg);
+        } else if (arg instanceof Short) {
+            buffer.put(ARG_SHORT).putShort((Short) arg);
+        } else if (arg instanceof CharSequence) {
+            buffer.put(ARG_STRING);
+            putString(buffer, (CharSequence) arg);
+        } else {
+            buffer.put(ARG_STRING);
+            putString(buffer, String.valueOf(arg));
+        }
+    }
+
+    private void putField(LogFields fields, int index) {
+        switch (fields.getType(index)) {
+            case LogFields.TYPE_LONG:
+                buffer.put(ARG_LONG).putLong(fields.getLong(index));
+                break;
+            case LogFields.TYPE_DOUBLE:
+                buffer.put(ARG_DOUBLE).putDouble(fields.getDouble(index));
+                break;
+            case LogFields.TYPE_BOOLEAN:
+                buffer.put(ARG_BOOLEAN).put((byte) (fields.getBoolean(index) ? 1 : 0));
+                break;
+            default:
+                putArg(fields.getObject(index));
+        }
+    }
+
+    private void openNextSegment() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+        } else {
+            segmentIndex = lastSegmentIndex();
+        }
+        segmentIndex++;
+
+        RandomAccessFile file = new RandomAccessFile(segmentFile(segmentIndex), "rw");
+        try {
+            file.setLength(segmentSize);
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        } finally {
+            // The mapping stays valid after the channel is closed.
+            file.close();
+        }
+        buffer.putInt(MAGIC).put(VERSION).putLong(System.currentTimeMillis());
+        tagIds.clear();
+        templateIds.clear();
+
+        for (long index = segmentIndex - maxSegments; index >= 0; index--) {
+            File old = segmentFile(index);
+            if (!old.exists()) {
+                break;
+            }
+            //noinspection ResultOfMethodCallIgnored
+            old.delete();
+        }
+    }
+
+    private long lastSegmentIndex() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can't create " + directory);
+        }
+        long last = -1;
+        String[] files = directory.list();
+        if (files != null) {
+            for (String file : files) {
+                last = Math.max(last, MappedLogDecoder.segmentIndex(name, file));
+            }
+        }
+        return last;
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, name + "-" + index + EXTENSION);
+    }
+}
@@ -0,0 +1,221 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.*;
+
+/**
+ * Turns the segments written by {@link MappedFileTree} back into text, one logcat style line per record.
+ * <p>
+ * Runs on the JVM, pull the segments off the device and pass the files or their directory:
+ * <pre>
+ * adb pull /data/data/&lt;package&gt;/files/logs
+ * java -cp mvp.jar com.gilgoldzweig.mvp.logging.MappedLogDecoder logs
+ * </pre>
+ */
+public final class MappedLogDecoder {
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+
+    public static void main(String... args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: MappedLogDecoder <segment or directory>...");
+            System.exit(1);
+        }
+        MappedLogDecoder decoder = new MappedLogDecoder();
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, "UTF-8"));
+        for (String path : args) {
+            File file = new File(path);
+            if (file.isDirectory()) {
+                for (File segment : segmentsIn(file)) {
+                    decoder.decode(segment, out);
+                }
+            } else {
+                decoder.decode(file, out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes every complete record in {@code segment} to {@code out}.
+     */
+    public void decode(File segment, PrintWriter out) throws IOException {
+        ByteBuffer buffer;
+        FileInputStream input = new FileInputStream(segment);
+        try {
+            FileChannel channel = input.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            input.close();
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException(segment + " is not a Timber log segment");
+        }
+        byte version = buffer.get();
+        if (version < 1 || version > VERSION) {
+            throw new IOException(segment + " has unsupported version " + version);
+        }
+        buffer.getLong(); // Created at.
+
+        Map<Integer, String> tags = new HashMap<>();
+        Map<Integer, String> templates = new HashMap<>();
+        try {
+            while (buffer.hasRemaining()) {
+                byte type = buffer.get();
+                if (type == TAG_DEF) {
+                    tags.put(buffer.getInt(), getString(buffer));
+                } else if (type == TEMPLATE_DEF) {
+                    templates.put(buffer.getInt(), getString(buffer));
+                } else if (type == RECORD) {
+                    decodeRecord(buffer, version, tags, templates, out);
+                } else {
+                    break; // END, or an entry cut short.
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            out.println("-- " + segment.getName() + " ends with a truncated record");
+        }
+    }
+
+    private void decodeRecord(ByteBuffer buffer, byte version, Map<Integer, String> tags,
+                              Map<Integer, String> templates, PrintWriter out) {
+        long timestamp = buffer.getLong();
+        int priority = buffer.get();
+        String tag = tags.get(buffer.getInt());
+        String template = templates.get(buffer.getInt());
+        Object[] args = new Object[buffer.get() & 0xFF];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = getArg(buffer);
+        }
+        String trace = buffer.get() != 0 ? getString(buffer) : null;
+        StringBuilder fields = new StringBuilder();
+        if (version >= 2) {
+            for (int i = 0, count = buffer.get() & 0xFF; i < count; i++) {
+                fields.append(' ').append(templates.get(buffer.getInt())).append('=').append(getArg(buffer));
+            }
+        }
+
+        out.print(dateFormat.format(new Date(timestamp)));
+        out.print(' ');
+        out.print(priority >= 0 && priority < PRIORITY_LETTERS.length ? PRIORITY_LETTERS[priority] : '?');
+        out.print('/');
+        out.print(tag);
+        out.print(": ");
+        if (template != null) {
+            out.print(format(template, args));
+            out.println(fields);
+        }
+        if (trace != null) {
+            out.print(trace);
+        }
+        if (template == null && trace == null) {
+            out.println();
+        }
+    }
+
+    private static String format(String template, Object[] args) {
+        if (args.length == 0) {
+            return template;
+        }
+        try {
+            return String.format(template, args);
+        } catch (IllegalFormatException e) {
+            return template + " " + Arrays.toString(args);
+        }
+    }
+
+    private static Object getArg(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case ARG_NULL:
+                return null;
+            case ARG_INT:
+                return buffer.getInt();
+            case ARG_LONG:
+                return buffer.getLong();
+            case ARG_FLOAT:
+                return buffer.getFloat();
+            case ARG_DOUBLE:
+                return buffer.getDouble();
+            case ARG_BOOLEAN:
+                return buffer.get() != 0;
+            case ARG_CHAR:
+                return buffer.getChar();
+            case ARG_STRING:
+                return getString(buffer);
+            case ARG_BYTE:
+                return buffer.get();
+            case ARG_SHORT:
+                return buffer.getShort();
+            default:
+                throw new IllegalStateException("Unknown argument type " + type);
+        }
+    }
+
+    /**
+     * The segments of every tree writing to {@code directory}, oldest first.
+     */
+    static List<File> segmentsIn(File directory) {
+        List<File> segments = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(EXTENSION)) {
+                    segments.add(file);
+                }
+            }
+        }
+        Collections.sort(segments, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                String aName = segmentName(a.getName());
+                String bName = segmentName(b.getName());
+                int byName = aName.compareTo(bName);
+                if (byName != 0) {
+                    return byName;
+                }
+                long aIndex = segmentIndex(aName, a.getName());
+                long bIndex = segmentIndex(bName, b.getName());
+                return aIndex < bIndex ? -1 : (aIndex == bIndex ? 0 : 1);
+            }
+        });
+        return segments;
+    }
+
+    /**
+     * @return the index of segment {@code file} written by a tree called {@code name}, -1 if it isn't one
+     */
+    static long segmentIndex(String name, String file) {
+        if (!file.startsWith(name + "-") || !file.endsWith(EXTENSION)) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(file.substring(name.length() + 1, file.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String segmentName(String file) {
+        int dash = file.lastIndexOf('-');
+        return dash < 0 ? file : file.substring(0, dash);
+    }
+}
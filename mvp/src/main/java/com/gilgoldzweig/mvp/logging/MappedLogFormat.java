@@ -0,0 +1,129 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The segment layout shared by {@link MappedFileTree} and {@link MappedLogDecoder}, its strings are
+ * also used by {@link FlightRecorderTree}.
+ * <pre>
+ * segment  := MAGIC VERSION createdAt:long entry* 0
+ * entry    := TAG_DEF id:int string
+ *           | TEMPLATE_DEF id:int string
+ *           | RECORD timestamp:long priority:byte tagId:int templateId:int argCount:ubyte arg* hasTrace:byte [string]
+ *             fieldCount:ubyte field*
+ * arg      := type:byte value
+ * field    := keyId:int arg
+ * string   := byteLength:int modified UTF-8
+ * </pre>
+ * An entry's type byte is written last, so an entry cut short by the process dying reads as
+ * the end of the segment. Field keys share the template ids, version 1 records have no fields.
+ */
+final class MappedLogFormat {
+    static final int MAGIC = 0x544C4F47; // TLOG
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 4 + 1 + 8;
+    static final String EXTENSION = ".tlog";
+
+    static final byte END = 0;
+    static final byte TAG_DEF = 1;
+    static final byte TEMPLATE_DEF = 2;
+    static final byte RECORD = 3;
+
+    // type + timestamp + priority + tag id + template id + arg count + trace flag + field count
+    static final int RECORD_SIZE = 1 + 8 + 1 + 4 + 4 + 1 + 1 + 1;
+    // type + id
+    static final int DEF_SIZE = 1 + 4;
+    static final int NO_ID = -1;
+    static final int MAX_ARGS = 255;
+    static final int MAX_FIELDS = 255;
+    static final int MAX_STRING_CHARS = 16 * 1024;
+
+    // Indexed by priority, see android.util.Log for constants.
+    static final char[] PRIORITY_LETTERS = {'?', '?', 'V', 'D', 'I', 'W', 'E', 'A'};
+
+    static final byte ARG_NULL = 0;
+    static final byte ARG_INT = 1;
+    static final byte ARG_LONG = 2;
+    static final byte ARG_FLOAT = 3;
+    static final byte ARG_DOUBLE = 4;
+    static final byte ARG_BOOLEAN = 5;
+    static final byte ARG_CHAR = 6;
+    static final byte ARG_STRING = 7;
+    static final byte ARG_BYTE = 8;
+    static final byte ARG_SHORT = 9;
+
+    private MappedLogFormat() {
+        throw new AssertionError("No instances.");
+    }
+
+    /**
+     * The size of {@code value} written by {@link #putString(ByteBuffer, CharSequence)}.
+     */
+    static int stringSize(CharSequence value) {
+        return stringSize(value, MAX_STRING_CHARS);
+    }
+
+    /**
+     * The size of {@code value} written by {@link #putString(ByteBuffer, CharSequence, int)}.
+     */
+    static int stringSize(CharSequence value, int maxChars) {
+        int bytes = 0;
+        for (int i = 0, count = Math.min(value.length(), maxChars); i < count; i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        return 4 + bytes;
+    }
+
+    /**
+     * Writes {@code value}, cut at {@link #MAX_STRING_CHARS}, as modified UTF-8 without allocating.
+     */
+    static void putString(ByteBuffer buffer, CharSequence value) {
+        putString(buffer, value, MAX_STRING_CHARS);
+    }
+
+    /**
+     * Writes {@code value}, cut at {@code maxChars}, as modified UTF-8 without allocating.
+     */
+    static void putString(ByteBuffer buffer, CharSequence value, int maxChars) {
+        int lengthPosition = buffer.position();
+        buffer.position(lengthPosition + 4);
+        for (int i = 0, count = Math.min(value.length(), maxChars); i < count; i++) {
+            char c = value.charAt(i);
+            if (c != 0 && c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                buffer.put((byte) (0xE0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    static String getString(ByteBuffer buffer) {
+        int end = buffer.getInt();
+        end += buffer.position();
+        StringBuilder builder = new StringBuilder(end - buffer.position());
+        while (buffer.position() < end) {
+            int b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                builder.append((char) b);
+            } else if (b < 0xE0) {
+                builder.append((char) (((b & 0x1F) << 6) | (buffer.get() & 0x3F)));
+            } else {
+                builder.append((char) (((b & 0x0F) << 12) | ((buffer.get() & 0x3F) << 6) | (buffer.get() & 0x3F)));
+            }
+        }
+        return builder.toString();
+    }
+}
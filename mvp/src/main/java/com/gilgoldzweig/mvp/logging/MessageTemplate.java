@@ -0,0 +1,284 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.math.BigInteger;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Formattable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A format string parsed once and rendered without a {@link java.util.Formatter}.
+ * <p>
+ * Only the specifiers log messages use are rendered here: {@code %s}, {@code %d}, {@code %x},
+ * {@code %f} with an optional precision, {@code %%} and {@code %n}, without flags, widths or
+ * argument indexes. Anything else, an argument of the wrong type, a missing argument or a default
+ * locale with its own digits falls back to {@link String#format(String, Object...)}, so the output
+ * and the exceptions are always the same as {@code String.format}'s.
+ * <p>
+ * Parsed templates are kept in a bounded concurrent cache keyed by the format string, which is
+ * cleared when full so messages built at runtime can't grow it forever.
+ */
+final class MessageTemplate {
+    private static final int MAX_CACHED_TEMPLATES = 256;
+    private static final int DEFAULT_PRECISION = 6;
+
+    private static final ConcurrentHashMap<String, MessageTemplate> CACHE = new ConcurrentHashMap<>();
+    private static volatile Symbols symbols;
+
+    // The text around the specifiers, literals.length == conversions.length + 1.
+    private final String[] literals;
+    private final char[] conversions;
+    private final int[] precisions;
+    // False when the template uses a specifier only String.format can render.
+    private final boolean supported;
+
+    private MessageTemplate(String template) {
+        List<String> literals = new ArrayList<>();
+        StringBuilder conversions = new StringBuilder();
+        List<Integer> precisions = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean supported = true;
+
+        int length = template.length();
+        int i = 0;
+        while (i < length) {
+            char c = template.charAt(i++);
+            if (c != '%') {
+                literal.append(c);
+                continue;
+            }
+            if (i == length) {
+                supported = false;
+                break;
+            }
+            c = template.charAt(i++);
+            int precision = -1;
+            if (c == '.') {
+                int start = i;
+                while (i < length && template.charAt(i) >= '0' && template.charAt(i) <= '9') {
+                    i++;
+                }
+                if (i == start || i == length || i - start > 2 || template.charAt(i) != 'f') {
+                    supported = false;
+                    break;
+                }
+                precision = Integer.parseInt(template.substring(start, i));
+                c = template.charAt(i++);
+            }
+            if (c == '%') {
+                literal.append('%');
+            } else if (c == 'n') {
+                literal.append(System.getProperty("line.separator"));
+            } else if (c == 's' || c == 'd' || c == 'x' || c == 'f') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                conversions.append(c);
+                precisions.add(c == 'f' && precision < 0 ? DEFAULT_PRECISION : precision);
+            } else {
+                supported = false;
+                break;
+            }
+        }
+        literals.add(literal.toString());
+
+        this.supported = supported;
+        this.literals = literals.toArray(new String[0]);
+        this.conversions = conversions.toString().toCharArray();
+        this.precisions = new int[precisions.size()];
+        for (int j = 0; j < this.precisions.length; j++) {
+            this.precisions[j] = precisions.get(j);
+        }
+    }
+
+    /**
+     * Same as {@link String#format(String, Object...)}.
+     */
+    static String format(String template, Object[] args) {
+        MessageTemplate compiled = compile(template);
+        if (compiled.supported) {
+            String rendered = compiled.render(args);
+            if (rendered != null) {
+                return rendered;
+            }
+        }
+        return String.format(template, args);
+    }
+
+    static MessageTemplate compile(String template) {
+        MessageTemplate compiled = CACHE.get(template);
+        if (compiled == null) {
+            compiled = new MessageTemplate(template);
+            if (CACHE.size() >= MAX_CACHED_TEMPLATES) {
+                CACHE.clear();
+            }
+            CACHE.put(template, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * @return {@code null} if String.format has to render the arguments
+     */
+    private String render(Object[] args) {
+        if (args.length < conversions.length) {
+            return null; // Let String.format throw MissingFormatArgumentException.
+        }
+        Symbols symbols = symbols();
+        if (!symbols.asciiDigits) {
+            return null;
+        }
+        StringBuilder builder = StringBuilders.acquire();
+        builder.append(literals[0]);
+        for (int i = 0; i < conversions.length; i++) {
+            if (!append(builder, conversions[i], precisions[i], args[i], symbols.decimalSeparator)) {
+                StringBuilders.recycle(builder);
+                return null;
+            }
+            builder.append(literals[i + 1]);
+        }
+        return StringBuilders.release(builder);
+    }
+
+    /**
+     * @return false if {@code arg} can't be rendered with {@code conversion} without String.format
+     */
+    private static boolean append(StringBuilder builder, char conversion, int precision, Object arg,
+                                  char decimalSeparator) {
+        if (arg == null) {
+            builder.append("null");
+            return true;
+        }
+        switch (conversion) {
+            case 's':
+                if (arg instanceof Formattable) {
+                    return false;
+                }
+                builder.append(arg);
+                return true;
+            case 'd':
+                if (arg instanceof Integer || arg instanceof Long
+                        || arg instanceof Short || arg instanceof Byte) {
+                    builder.append(((Number) arg).longValue());
+                    return true;
+                } else if (arg instanceof BigInteger) {
+                    builder.append(arg);
+                    return true;
+                }
+                return false;
+            case 'x':
+                if (arg instanceof Integer) {
+                    builder.append(Integer.toHexString((Integer) arg));
+                } else if (arg instanceof Long) {
+                    builder.append(Long.toHexString((Long) arg));
+                } else if (arg instanceof Byte) {
+                    builder.append(Integer.toHexString((Byte) arg & 0xff));
+                } else if (arg instanceof Short) {
+                    builder.append(Integer.toHexString((Short) arg & 0xffff));
+                } else if (arg instanceof BigInteger) {
+                    builder.append(((BigInteger) arg).toString(16));
+                } else {
+                    return false;
+                }
+                return true;
+            case 'f':
+                if (arg instanceof Double || arg instanceof Float) {
+                    appendFixed(builder, ((Number) arg).doubleValue(), precision, decimalSeparator);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Rounds the shortest decimal representation of {@code value}, the digits of
+     * {@link Double#toString(double)}, half up like Formatter does.
+     */
+    private static void appendFixed(StringBuilder builder, double value, int precision, char decimalSeparator) {
+        if (Double.isNaN(value)) {
+            builder.append("NaN");
+            return;
+        }
+        if (Double.compare(value, 0.0) < 0) {
+            builder.append('-');
+            value = -value;
+        }
+        if (Double.isInfinite(value)) {
+            builder.append("Infinity");
+            return;
+        }
+
+        // Either "123.456" or "1.23456E-7", as digits with the point after the first 'point' of them.
+        String shortest = Double.toString(value);
+        int exponentAt = shortest.indexOf('E');
+        int mantissaEnd = exponentAt >= 0 ? exponentAt : shortest.length();
+        int pointAt = shortest.indexOf('.');
+        // One extra digit in front for a carry out of the first digit.
+        char[] digits = new char[mantissaEnd];
+        digits[0] = '0';
+        int length = 1;
+        for (int i = 0; i < mantissaEnd; i++) {
+            char c = shortest.charAt(i);
+            if (c != '.') {
+                digits[length++] = c;
+            }
+        }
+        int point = 1 + pointAt + (exponentAt >= 0 ? Integer.parseInt(shortest.substring(exponentAt + 1)) : 0);
+
+        int kept = point + precision;
+        if (kept < length) {
+            boolean roundUp = kept >= 0 && digits[kept] >= '5';
+            length = Math.max(kept, 0);
+            for (int i = length - 1; roundUp && i >= 0; i--) {
+                roundUp = digits[i] == '9';
+                digits[i] = roundUp ? '0' : (char) (digits[i] + 1);
+            }
+        }
+
+        int start = 0;
+        while (start < point - 1 && start < length - 1 && digits[start] == '0') {
+            start++;
+        }
+        for (int i = start; i < point; i++) {
+            builder.append(i < length ? digits[i] : '0');
+        }
+        if (point <= start) {
+            builder.append('0');
+        }
+        if (precision > 0) {
+            builder.append(decimalSeparator);
+            for (int i = point; i < point + precision; i++) {
+                builder.append(i >= 0 && i < length ? digits[i] : '0');
+            }
+        }
+    }
+
+    private static Symbols symbols() {
+        Locale locale = Locale.getDefault();
+        Symbols current = symbols;
+        if (current == null || (current.locale != locale && !current.locale.equals(locale))) {
+            current = new Symbols(locale);
+            symbols = current;
+        }
+        return current;
+    }
+
+    /**
+     * What the default locale changes in the rendered numbers.
+     */
+    private static final class Symbols {
+        final Locale locale;
+        final char decimalSeparator;
+        final boolean asciiDigits;
+
+        Symbols(Locale locale) {
+            DecimalFormatSymbols symbols = new DecimalFormatSymbols(locale);
+            this.locale = locale;
+            this.decimalSeparator = symbols.getDecimalSeparator();
+            this.asciiDigits = symbols.getZeroDigit() == '0';
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.gilgoldzweig.mvp.logging;
+
+import com.gilgoldzweig.mvp.analytics.Event;
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+/**
+ * An event or event parameter Timber reports on itself, named at runtime.
+ */
+final class NamedEvent implements Event, EventParameter {
+    private final String displayName;
+
+    NamedEvent(String displayName) {
+        this.displayName = displayName;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+}
@@ -0,0 +1,24 @@
+package com.gilgoldzweig.mvp.logging;
+
+/**
+ * What an asynchronous {@link Timber} does with a new log call when its ring buffer is full.
+ *
+ * @see Timber#enableAsync(int, OverflowPolicy)
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Discard the oldest queued record to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new record and keep everything that is already queued.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Make the calling thread wait until the drainer frees a slot.
+     */
+    BLOCK
+}
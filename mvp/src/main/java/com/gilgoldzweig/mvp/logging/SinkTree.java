@@ -0,0 +1,51 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Pair;
+
+import com.gilgoldzweig.mvp.analytics.Bundlify;
+import com.gilgoldzweig.mvp.analytics.Event;
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+/**
+ * A tree writing what it logs to a destination of its own, a file, a buffer or a socket.
+ * <p>
+ * Crashes are logged as errors followed by {@link #onCrash()}, events as info lines rendered
+ * the same as {@link Timber.DebugTree}'s.
+ */
+public abstract class SinkTree extends Timber.Tree {
+
+    /**
+     * Called after a crash was logged, trees holding records back write them out here.
+     */
+    protected void onCrash() {
+    }
+
+    @Override
+    public void crash(Throwable t, String message) {
+        e(t, message);
+        onCrash();
+    }
+
+    @Override
+    public void crash(Throwable t, String message, Object... args) {
+        e(t, message, args);
+        onCrash();
+    }
+
+    @Override
+    public void crash(Throwable t) {
+        e(t);
+        onCrash();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void event(Event event, Pair<EventParameter, Object>... args) {
+        i(EventMessages.format(event, args));
+    }
+
+    @Override
+    public void event(Event event, Bundlify bundlify) {
+        i(EventMessages.format(event, bundlify));
+    }
+}
@@ -0,0 +1,103 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.ref.WeakReference;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Renders each distinct stack trace once.
+ * <p>
+ * Throwables are fingerprinted by their class, their top frames and the classes of their causes.
+ * The first throwable with a fingerprint is rendered in full, prefixed with an id, later ones only
+ * render their first line followed by {@code same as #id (xN)}. The last {@code capacity}
+ * fingerprints are remembered, least recently used first out.
+ */
+final class StackTraceCache {
+    private static final int FINGERPRINT_FRAMES = 8;
+    private static final int FINGERPRINT_CAUSES = 8;
+
+    private final Map<Long, Entry> entries;
+    private int nextId = 1;
+
+    StackTraceCache(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity < 1: " + capacity);
+        }
+        entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    String render(Throwable t) {
+        Long fingerprint = fingerprint(t);
+        Entry entry;
+        int count;
+        synchronized (this) {
+            entry = entries.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(nextId++);
+                entries.put(fingerprint, entry);
+            } else if (entry.last.get() == t) {
+                // The same throwable again, e.g. a crash reported to every tree.
+                return entry.lastRendering;
+            }
+            count = ++entry.count;
+        }
+
+        String rendering = count == 1
+                ? "#" + entry.id + " " + renderFull(t)
+                : t + "\n\tsame as #" + entry.id + " (x" + count + ")\n";
+        synchronized (this) {
+            entry.last = new WeakReference<>(t);
+            entry.lastRendering = rendering;
+        }
+        return rendering;
+    }
+
+    static String renderFull(Throwable t) {
+        // Don't replace this with Log.getStackTraceString() - it hides
+        // UnknownHostException, which is not what we want.
+        StringWriter sw = new StringWriter(256);
+        PrintWriter pw = new PrintWriter(sw, false);
+        t.printStackTrace(pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    private static long fingerprint(Throwable t) {
+        long hash = t.getClass().getName().hashCode();
+        StackTraceElement[] frames = t.getStackTrace();
+        for (int i = 0, count = Math.min(frames.length, FINGERPRINT_FRAMES); i < count; i++) {
+            StackTraceElement frame = frames[i];
+            hash = mix(hash, frame.getClassName().hashCode());
+            hash = mix(hash, frame.getMethodName().hashCode());
+            hash = mix(hash, frame.getLineNumber());
+        }
+        Throwable cause = t.getCause();
+        for (int i = 0; cause != null && i < FINGERPRINT_CAUSES; i++) {
+            hash = mix(hash, cause.getClass().getName().hashCode());
+            cause = cause.getCause();
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001B3L;
+    }
+
+    private static final class Entry {
+        final int id;
+        int count;
+        WeakReference<Throwable> last = new WeakReference<>(null);
+        String lastRendering;
+
+        Entry(int id) {
+            this.id = id;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import static com.gilgoldzweig.mvp.logging.MappedLogFormat.PRIORITY_LETTERS;
+
+/**
+ * A record read back from a {@link LogStoreTree} by {@link LogStoreTree#query}, or streamed by a
+ * {@link LogStreamTree} to a {@link LogStreamViewer}.
+ */
+public final class StoredLog {
+    private final long timestamp;
+    private final int priority;
+    private final String tag;
+    private final String message;
+
+    StoredLog(long timestamp, int priority, @Nullable String tag, @NonNull String message) {
+        this.timestamp = timestamp;
+        this.priority = priority;
+        this.tag = tag;
+        this.message = message;
+    }
+
+    /**
+     * When the log call was made, in {@link System#currentTimeMillis()} milliseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    @Nullable
+    public String getTag() {
+        return tag;
+    }
+
+    /**
+     * The formatted message followed by the stack trace, if any.
+     */
+    @NonNull
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * The record as a logcat style line.
+     */
+    @Override
+    public String toString() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS", Locale.US);
+        return dateFormat.format(new Date(timestamp))
+                + ' ' + (priority >= 0 && priority < PRIORITY_LETTERS.length ? PRIORITY_LETTERS[priority] : '?')
+                + '/' + tag + ": " + message;
+    }
+}
@@ -0,0 +1,56 @@
+package com.gilgoldzweig.mvp.logging;
+
+/**
+ * A {@link StringBuilder} kept per thread for building messages without growing a new one each time.
+ * <p>
+ * A builder is taken out of its thread's slot while in use, so code that logs while a message is
+ * being built, e.g. from an argument's {@code toString()}, gets a fresh builder instead of
+ * corrupting the one in use.
+ */
+final class StringBuilders {
+    private static final int INITIAL_CAPACITY = 256;
+    // Builders grown past this by a huge message are dropped instead of being kept for the thread.
+    private static final int MAX_CAPACITY = 4096;
+
+    private static final ThreadLocal<StringBuilder[]> SLOT = new ThreadLocal<StringBuilder[]>() {
+        @Override
+        protected StringBuilder[] initialValue() {
+            return new StringBuilder[1];
+        }
+    };
+
+    private StringBuilders() {
+    }
+
+    /**
+     * An empty builder, hand it back with {@link #release(StringBuilder)} or {@link #recycle(StringBuilder)}.
+     */
+    static StringBuilder acquire() {
+        StringBuilder[] slot = SLOT.get();
+        StringBuilder builder = slot[0];
+        if (builder == null) {
+            return new StringBuilder(INITIAL_CAPACITY);
+        }
+        slot[0] = null;
+        return builder;
+    }
+
+    /**
+     * Returns what was built and hands the builder back.
+     */
+    static String release(StringBuilder builder) {
+        String built = builder.toString();
+        recycle(builder);
+        return built;
+    }
+
+    /**
+     * Hands the builder back, discarding what was built.
+     */
+    static void recycle(StringBuilder builder) {
+        if (builder.capacity() <= MAX_CAPACITY) {
+            builder.setLength(0);
+            SLOT.get()[0] = builder;
+        }
+    }
+}
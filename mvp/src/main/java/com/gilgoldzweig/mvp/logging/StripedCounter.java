@@ -0,0 +1,45 @@
+package com.gilgoldzweig.mvp.logging;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cells picked by the calling thread, so threads counting at the
+ * same time rarely update the same cell. {@code LongAdder} isn't available before API 24.
+ */
+final class StripedCounter {
+    private static final int STRIPES = stripes();
+    // Longs per cache line, keeps padded cells from sharing one.
+    private static final int CACHE_LINE_LONGS = 8;
+
+    private final AtomicLongArray cells;
+    private final int stride;
+
+    /**
+     * @param padded whether each cell gets a cache line of its own, for the busiest counters
+     */
+    StripedCounter(boolean padded) {
+        stride = padded ? CACHE_LINE_LONGS : 1;
+        cells = new AtomicLongArray(STRIPES * stride);
+    }
+
+    void add(long value) {
+        cells.getAndAdd(((int) Thread.currentThread().getId() & (STRIPES - 1)) * stride, value);
+    }
+
+    void increment() {
+        add(1);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0, length = cells.length(); i < length; i += stride) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    private static int stripes() {
+        int processors = Math.min(Runtime.getRuntime().availableProcessors(), 16);
+        return Integer.highestOneBit(Math.max(processors, 1) * 2 - 1);
+    }
+}
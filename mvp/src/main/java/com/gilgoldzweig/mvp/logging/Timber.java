@@ -10,14 +10,15 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 import android.util.Pair;
 
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -34,9 +35,42 @@ import static java.util.Collections.unmodifiableList;
 public final class Timber {
     public static final int EVENT_LOG_PROPERTY = 31;
     private static final Tree[] TREE_ARRAY_EMPTY = new Tree[0];
-    // Both fields guarded by 'FOREST'.
+    private static final Object[] NO_ARGS = LogRecord.NO_ARGS;
+    private static final int MAX_TAG_LENGTH = 23;
+    private static final Pattern ANONYMOUS_CLASS = Pattern.compile("(\\$\\d+)+$");
+    private static final String TIMBER_CLASS_NAME = Timber.class.getName();
+    private static final String TIMBER_NESTED_CLASS_PREFIX = TIMBER_CLASS_NAME + "$";
+    private static final String EXTENSIONS_CLASS_NAME = "com.gilgoldzweig.mvp.logging.TimberExtensionKt";
+    private static final String CALL_SITE_CLASS_NAME = "com.gilgoldzweig.mvp.logging.CallSiteTimber";
+    private static final int PRIORITY_COUNT = Log.ASSERT + 1;
+    // All fields guarded by 'FOREST'.
     private static final Set<Tree> FOREST = new HashSet<>();
-    private static volatile Tree[] forestAsArray = TREE_ARRAY_EMPTY;
+    static volatile Tree[] forestAsArray = TREE_ARRAY_EMPTY;
+    // The planted trees interested in each priority, indexed by priority.
+    private static volatile Tree[][] forestByPriority = emptyForestByPriority();
+
+    // The tag set by tag() for the next log call on each thread.
+    private static final ThreadLocal<String> EXPLICIT_TAG = new ThreadLocal<>();
+    // Number of threads with a tag waiting in EXPLICIT_TAG, lets untagged calls skip the lookup.
+    private static final AtomicInteger PENDING_TAGS = new AtomicInteger();
+    // The LogContext of the coroutine running on each thread.
+    private static final ThreadLocal<LogContext> LOG_CONTEXT = new ThreadLocal<>();
+    // Set once a LogContext is first installed, lets apps without one skip the lookup.
+    private static volatile boolean logContextUsed;
+    private static final Map<Class<?>, String> CLASS_TAGS = new ConcurrentHashMap<>();
+    // Guarded by 'FOREST', null while logging synchronously.
+    private static volatile AsyncLogDispatcher asyncDispatcher;
+    // Guarded by 'FOREST', null unless each tree is isolated behind its own queue.
+    private static volatile TreeIsolator treeIsolator;
+    // Guarded by 'FOREST', null when no limits are set.
+    private static volatile LogLimiter logLimiter;
+    // Guarded by 'FOREST', null while repeated messages are logged as they come.
+    private static volatile LogCollapser logCollapser;
+    private static final long DEFAULT_COLLAPSE_TIMEOUT_MILLIS = 5000;
+    // Guarded by 'FOREST', null while metrics are disabled.
+    static volatile LogMetrics metrics;
+    // Null, the default, while every stack trace is rendered in full.
+    static volatile StackTraceCache stackTraceCache;
 
     /**
      * A {@link Tree} that delegates to all planted trees in the {@linkplain #FOREST forest}.
@@ -44,168 +78,97 @@ public final class Timber {
     public static final Tree TREE_OF_SOULS = new Tree() {
         @Override
         public void v(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].v(message, args);
-            }
+            dispatch(Log.VERBOSE, null, message, args, null);
         }
 
         @Override
         public void v(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].v(t, message, args);
-            }
+            dispatch(Log.VERBOSE, t, message, args, null);
         }
 
         @Override
         public void v(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].v(t);
-            }
+            dispatch(Log.VERBOSE, t, null, NO_ARGS, null);
         }
 
         @Override
         public void d(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].d(message, args);
-            }
+            dispatch(Log.DEBUG, null, message, args, null);
         }
 
         @Override
         public void d(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].d(t, message, args);
-            }
+            dispatch(Log.DEBUG, t, message, args, null);
         }
 
         @Override
         public void d(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].d(t);
-            }
+            dispatch(Log.DEBUG, t, null, NO_ARGS, null);
         }
 
         @Override
         public void i(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].i(message, args);
-            }
+            dispatch(Log.INFO, null, message, args, null);
         }
 
         @Override
         public void i(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].i(t, message, args);
-            }
+            dispatch(Log.INFO, t, message, args, null);
         }
 
         @Override
         public void i(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].i(t);
-            }
+            dispatch(Log.INFO, t, null, NO_ARGS, null);
         }
 
         @Override
         public void w(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].w(message, args);
-            }
+            dispatch(Log.WARN, null, message, args, null);
         }
 
         @Override
         public void w(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].w(t, message, args);
-            }
+            dispatch(Log.WARN, t, message, args, null);
         }
 
         @Override
         public void w(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].w(t);
-            }
+            dispatch(Log.WARN, t, null, NO_ARGS, null);
         }
 
         @Override
         public void e(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].e(message, args);
-            }
+            dispatch(Log.ERROR, null, message, args, null);
         }
 
         @Override
         public void e(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].e(t, message, args);
-            }
+            dispatch(Log.ERROR, t, message, args, null);
         }
 
         @Override
         public void e(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].e(t);
-            }
+            dispatch(Log.ERROR, t, null, NO_ARGS, null);
         }
 
         @Override
         public void wtf(String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].wtf(message, args);
-            }
+            dispatch(Log.ASSERT, null, message, args, null);
         }
 
         @Override
         public void wtf(Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].wtf(t, message, args);
-            }
+            dispatch(Log.ASSERT, t, message, args, null);
         }
 
         @Override
         public void wtf(Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].wtf(t);
-            }
+            dispatch(Log.ASSERT, t, null, NO_ARGS, null);
         }
 
         @Override
         public void crash(Throwable t, String message) {
+            Timber.flush();
             Tree[] forest = forestAsArray;
             for (Tree tree : forest) {
                 tree.crash(t, message);
@@ -213,23 +176,31 @@ public final class Timber {
         }
 
         @Override
-        public void event(Event EventableType, Pair<EventParameter, Object>[] args) {
+        @SuppressWarnings("unchecked")
+        public void event(Event EventableType, Pair<EventParameter, Object>... args) {
             Tree[] forest = forestAsArray;
+            TreeIsolator isolator = treeIsolator;
             for (Tree tree : forest) {
-                tree.event(EventableType, args);
+                if (isolator == null || !isolator.isShed(tree)) {
+                    tree.event(EventableType, args);
+                }
             }
         }
 
         @Override
         public void event(Event EventableType, Bundlify bundlify) {
             Tree[] forest = forestAsArray;
+            TreeIsolator isolator = treeIsolator;
             for (Tree tree : forest) {
-                tree.event(EventableType, bundlify);
+                if (isolator == null || !isolator.isShed(tree)) {
+                    tree.event(EventableType, bundlify);
+                }
             }
         }
 
         @Override
         public void crash(Throwable t, String message, Object... args) {
+            Timber.flush();
             Tree[] forest = forestAsArray;
             for (Tree tree : forest) {
                 tree.crash(t, message, args);
@@ -238,6 +209,7 @@ public final class Timber {
 
         @Override
         public void crash(Throwable t) {
+            Timber.flush();
             Tree[] forest = forestAsArray;
             for (Tree tree : forest) {
                 tree.crash(t);
@@ -246,29 +218,17 @@ public final class Timber {
 
         @Override
         public void log(int priority, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].log(priority, message, args);
-            }
+            dispatch(priority, null, message, args, null);
         }
 
         @Override
         public void log(int priority, Throwable t, String message, Object... args) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].log(priority, t, message, args);
-            }
+            dispatch(priority, t, message, args, null);
         }
 
         @Override
         public void log(int priority, Throwable t) {
-            Tree[] forest = forestAsArray;
-            //noinspection ForLoopReplaceableByForEach
-            for (int i = 0, count = forest.length; i < count; i++) {
-                forest[i].log(priority, t);
-            }
+            dispatch(priority, t, null, NO_ARGS, null);
         }
 
         @Override
@@ -281,6 +241,549 @@ public final class Timber {
         throw new AssertionError("No instances.");
     }
 
+    /**
+     * Sends a log call to every planted tree, either directly or through the async ring buffer.
+     * The call is turned into a single {@link LogRecord} so the message is formatted once no matter
+     * how many trees are planted.
+     *
+     * @param callSiteTag the calling class' tag when it was generated at build time,
+     *                    {@code null} to infer it from the stack if a tree needs it
+     */
+    private static void dispatch(int priority, Throwable t, String message, Object[] args,
+                                 String callSiteTag) {
+        dispatch(priority, null, t, message, args, null, callSiteTag);
+    }
+
+    /**
+     * Sends a structured log call made through {@link #at(int)} to every planted tree, the fields
+     * are {@linkplain LogRecord#detachFields() copied} only if the record outlives the call.
+     */
+    static void dispatchFields(int priority, String tag, Throwable t, String message, LogFields fields) {
+        dispatch(priority, tag, t, message, NO_ARGS, fields, null);
+    }
+
+    private static void dispatch(int priority, String tag, Throwable t, String message, Object[] args,
+                                 LogFields fields, String callSiteTag) {
+        Tree[] forest = interestedTrees(priority);
+        // Consume tag even when message is not loggable so that next message is correctly tagged.
+        String explicitTag = takeExplicitTag();
+        if (tag != null) {
+            explicitTag = tag;
+        }
+        if (forest.length == 0) {
+            return;
+        }
+        LogContext context = currentLogContext();
+        if (explicitTag == null && context != null) {
+            explicitTag = context.getTag();
+        }
+        LogLimiter limiter = logLimiter;
+        if (limiter != null) {
+            if (explicitTag == null && callSiteTag == null && limiter.hasTagRules(priority)) {
+                callSiteTag = inferCallerTag();
+            }
+            if (!limiter.tryAcquire(explicitTag != null ? explicitTag : callSiteTag, priority)) {
+                LogMetrics metrics = Timber.metrics;
+                if (metrics != null) {
+                    metrics.onDroppedByLimit();
+                }
+                return;
+            }
+        }
+        LogRecord record = new LogRecord(priority, t, message, args);
+        record.explicitTag = explicitTag;
+        record.context = context;
+        record.fields = fields;
+        deliver(forest, record, callSiteTag, true);
+    }
+
+    /**
+     * Log call reporting on Timber itself, never rate limited nor collapsed.
+     */
+    static void logUnlimited(int priority, String tag, String message, Object... args) {
+        Tree[] forest = interestedTrees(priority);
+        if (forest.length > 0) {
+            LogRecord record = new LogRecord(priority, null, message, args);
+            record.explicitTag = tag;
+            deliver(forest, record, null, false);
+        }
+    }
+
+    private static void deliver(Tree[] forest, LogRecord record, String callSiteTag, boolean collapsible) {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        TreeIsolator isolator = treeIsolator;
+        LogMetrics metrics = Timber.metrics;
+        boolean onCallingThread = isolator == null && (dispatcher == null || dispatcher.isDrainerThread());
+        // Tags depend on the calling thread so they are resolved before the record leaves it.
+        resolveTags(forest, record, callSiteTag, onCallingThread);
+        // The call's tag, the same whichever thread the trees are called on.
+        String tag = record.explicitTag != null ? record.explicitTag
+                : record.inferredTag != null ? record.inferredTag : callSiteTag;
+        LogCollapser collapser = logCollapser;
+        if (collapsible && collapser != null && !collapser.offer(record, tag)) {
+            return;
+        }
+        int priority = record.getPriority();
+        if (metrics != null) {
+            metrics.onRecord(priority, tag);
+        }
+        if (onCallingThread) {
+            //noinspection ForLoopReplaceableByForEach
+            for (int i = 0, count = forest.length; i < count; i++) {
+                Tree tree = forest[i];
+                String treeTag = tree.customTag ? customTag(tree, record) : record.tagFor(tree);
+                if (metrics == null) {
+                    tree.prepareLog(record, treeTag);
+                } else {
+                    long start = System.nanoTime();
+                    tree.prepareLog(record, treeTag);
+                    metrics.onTreeLog(tree, System.nanoTime() - start);
+                }
+            }
+            return;
+        }
+        // The record outlives the call, which reuses its fields.
+        record.detachFields();
+        if (isolator != null) {
+            isolator.enqueue(forest, record);
+        } else {
+            dispatcher.enqueue(record);
+        }
+    }
+
+    /**
+     * Infers the calling class once for all trees when the record has no explicit tag, and keeps
+     * the calling frame for trees with their own {@link DebugTree#createStackElementTag}.
+     *
+     * @param onCallingThread whether trees with their own {@link Tree#getTag()} will be asked
+     *                        for their tag, in which case they don't need the inferred one
+     */
+    private static void resolveTags(Tree[] forest, LogRecord record, String callSiteTag,
+                                    boolean onCallingThread) {
+        if (record.explicitTag != null) {
+            return;
+        }
+        boolean inferred = false;
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, count = forest.length; i < count; i++) {
+            Tree tree = forest[i];
+            if (tree.customStackElementTag) {
+                if (record.callerElement == null) {
+                    record.callerElement = callerStackElement();
+                }
+            } else if (!inferred && tree.infersTag() && !(onCallingThread && tree.customTag)) {
+                record.inferredTag = callSiteTag != null ? callSiteTag : inferCallerTag();
+                inferred = true;
+            }
+        }
+    }
+
+    /**
+     * Asks a tree with its own {@link Tree#getTag()} for its tag, handing it the explicit tag first.
+     */
+    private static String customTag(Tree tree, LogRecord record) {
+        if (record.explicitTag != null) {
+            tree.explicitTag.set(record.explicitTag);
+        }
+        return tree.getTag();
+    }
+
+    /**
+     * The {@link LogContext} of the coroutine running on the calling thread.
+     */
+    @Nullable
+    static LogContext currentLogContext() {
+        return logContextUsed ? LOG_CONTEXT.get() : null;
+    }
+
+    /**
+     * Installs the {@link LogContext} of the coroutine resuming on the calling thread,
+     * {@code null} when it leaves.
+     */
+    static void setLogContext(@Nullable LogContext context) {
+        if (context != null) {
+            logContextUsed = true;
+            LOG_CONTEXT.set(context);
+        } else if (logContextUsed) {
+            LOG_CONTEXT.remove();
+        }
+    }
+
+    /**
+     * Returns and clears the calling thread's tag set by {@link #tag(String)}.
+     */
+    static String takeExplicitTag() {
+        if (PENDING_TAGS.get() == 0) {
+            return null;
+        }
+        String tag = EXPLICIT_TAG.get();
+        if (tag != null) {
+            EXPLICIT_TAG.remove();
+            PENDING_TAGS.decrementAndGet();
+        }
+        return tag;
+    }
+
+    /**
+     * The planted trees interested in {@code priority}, a single volatile read.
+     * Priorities outside of {@link Log}'s range go to every tree, which filter them on their own.
+     */
+    private static Tree[] interestedTrees(int priority) {
+        if (priority >= 0 && priority < PRIORITY_COUNT) {
+            return forestByPriority[priority];
+        }
+        return forestAsArray;
+    }
+
+    /**
+     * Checks if any planted tree is interested in {@code priority}.
+     *
+     * Use this to skip building expensive log messages, it costs a single volatile read.
+     */
+    public static boolean isLoggable(int priority) {
+        return interestedTrees(priority).length > 0;
+    }
+
+    /**
+     * Checks if any planted tree would log a message at {@code priority} with {@code tag}.
+     */
+    public static boolean isLoggable(int priority, @Nullable String tag) {
+        Tree[] forest = interestedTrees(priority);
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, count = forest.length; i < count; i++) {
+            Tree tree = forest[i];
+            if (tree.accepts(priority, tag) && tree.isLoggable(tag, priority)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Log call whose tag was generated at build time, see {@link CallSiteTimber}.
+     */
+    static void logAtCallSite(int priority, Throwable t, String message, Object[] args,
+                              String callSiteTag) {
+        dispatch(priority, t, message, args, callSiteTag);
+    }
+
+    /**
+     * Switches Timber to asynchronous logging.
+     *
+     * Log calls are queued into a lock-free ring buffer of {@code capacity} records and delivered
+     * in batches to the planted trees by a single background thread, which takes formatting and
+     * writing off the calling thread.
+     * Tags are still resolved on the calling thread, trees inferring their tag from the call site
+     * should override {@link Tree#infersTag()}.
+     *
+     * The queue is flushed synchronously before a crash is reported, both through
+     * {@link #crash(Throwable)} and through an uncaught exception.
+     *
+     * @param capacity the maximum number of queued records, rounded up to a power of two
+     * @param policy   what to do with a log call when the buffer is full
+     */
+    public static void enableAsync(int capacity, @NonNull OverflowPolicy policy) {
+        AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(capacity, policy);
+        AsyncLogDispatcher previous;
+        TreeIsolator previousIsolator;
+        synchronized (FOREST) {
+            previous = asyncDispatcher;
+            previousIsolator = treeIsolator;
+            dispatcher.start();
+            asyncDispatcher = dispatcher;
+            treeIsolator = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+        if (previousIsolator != null) {
+            previousIsolator.shutdown();
+        }
+    }
+
+    /**
+     * Switches Timber back to synchronous logging after delivering everything that is still queued.
+     */
+    public static void disableAsync() {
+        AsyncLogDispatcher previous;
+        synchronized (FOREST) {
+            previous = asyncDispatcher;
+            asyncDispatcher = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Isolates every planted tree behind its own queue, so a slow tree can't hold up the others or
+     * the calling thread.
+     *
+     * Each tree gets up to {@code capacityPerTree} queued records and its own thread, records are
+     * dropped for a tree whose queue is full. A watchdog sheds a tree that takes longer than
+     * {@code latencyBudgetMillis} for a single record: its queue is dropped and it gets no records
+     * or events for ten budgets, after which it is given records again unless it is still stuck.
+     * Both are reported to the other trees as the {@code logging_tree_shed} and
+     * {@code logging_tree_recovered} events, with the tree, its latency and how many records it
+     * missed.
+     *
+     * Replaces {@link #enableAsync asynchronous logging}, tags are resolved the same way. Events
+     * and crashes are still delivered on the calling thread, the queues are flushed before a crash
+     * is reported.
+     *
+     * @param capacityPerTree     the maximum number of records queued for each tree, rounded up to
+     *                            a power of two
+     * @param latencyBudgetMillis how long a tree may take to log a single record
+     */
+    public static void enableIsolation(int capacityPerTree, long latencyBudgetMillis) {
+        TreeIsolator isolator = new TreeIsolator(capacityPerTree, latencyBudgetMillis);
+        AsyncLogDispatcher previousDispatcher;
+        TreeIsolator previous;
+        synchronized (FOREST) {
+            previous = treeIsolator;
+            previousDispatcher = asyncDispatcher;
+            isolator.start();
+            treeIsolator = isolator;
+            asyncDispatcher = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+        if (previousDispatcher != null) {
+            previousDispatcher.shutdown();
+        }
+    }
+
+    /**
+     * Switches Timber back to synchronous logging after delivering what the trees that aren't shed
+     * still have queued.
+     */
+    public static void disableIsolation() {
+        TreeIsolator previous;
+        synchronized (FOREST) {
+            previous = treeIsolator;
+            treeIsolator = null;
+        }
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+
+    /**
+     * Checks if log calls are currently delivered asynchronously, with or without
+     * {@link #enableIsolation isolation}.
+     */
+    public static boolean isAsync() {
+        return asyncDispatcher != null || treeIsolator != null;
+    }
+
+    /**
+     * Delivers every queued log record on the calling thread, a no-op when logging synchronously.
+     */
+    public static void flush() {
+        AsyncLogDispatcher dispatcher = asyncDispatcher;
+        if (dispatcher != null) {
+            dispatcher.flush();
+        }
+        TreeIsolator isolator = treeIsolator;
+        if (isolator != null) {
+            isolator.flush();
+        }
+    }
+
+    /**
+     * Sets how many distinct stack traces are remembered, none by default.
+     *
+     * Throwables are fingerprinted by class, top frames and causes. The first one with a fingerprint
+     * is logged in full as {@code #id} and later ones as their first line followed by
+     * {@code same as #id (xN)}, so crash loops and retry storms don't print the same trace again.
+     * {@link #e(Throwable)} and {@link #crash(Throwable)} share the cache, the least recently seen
+     * fingerprint is forgotten first.
+     * <p>
+     * The cache is shared by every planted tree, so only enable it when the trees logging throwables
+     * see the same records: a tree with a higher minimum priority, tag filters or its own destination
+     * may otherwise get a {@code same as #id} whose full trace only went to another tree.
+     *
+     * @param size the number of fingerprints to remember, 0 logs every stack trace in full
+     */
+    public static void setStackTraceCacheSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size < 0: " + size);
+        }
+        stackTraceCache = size == 0 ? null : new StackTraceCache(size);
+    }
+
+    /**
+     * Allows at most {@code messagesPerSecond} log calls at {@code priority} with {@code tag},
+     * after an initial {@code burst}.
+     *
+     * A {@code null} tag sets the limit of every tag without a limit of its own, each tag is still
+     * counted on its own. Dropped calls cost no formatting and are reported every 10 seconds as
+     * {@code suppressed N messages from Tag}. Calls without a tag generated at build time or set
+     * through {@link #tag(String)} are tagged from the stack while a limit is set for a specific
+     * tag at their priority, otherwise they share the bucket of untagged calls.
+     */
+    public static void setRateLimit(@Nullable String tag, int priority, double messagesPerSecond, int burst) {
+        if (messagesPerSecond <= 0) {
+            throw new IllegalArgumentException("messagesPerSecond <= 0: " + messagesPerSecond);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("burst < 1: " + burst);
+        }
+        checkLimitPriority(priority);
+        limiter().setRateLimit(tag, priority, messagesPerSecond, burst);
+    }
+
+    /**
+     * Logs a random {@code rate} of the calls at {@code priority} with {@code tag}, between 0 and 1.
+     *
+     * Sampled out calls are dropped and reported like {@link #setRateLimit rate limited} ones,
+     * a {@code null} tag sets the rate of every tag without a rate of its own.
+     */
+    public static void setSampleRate(@Nullable String tag, int priority, double rate) {
+        if (rate < 0 || rate > 1) {
+            throw new IllegalArgumentException("rate not between 0 and 1: " + rate);
+        }
+        checkLimitPriority(priority);
+        limiter().setSampleRate(tag, priority, rate);
+    }
+
+    /**
+     * Removes every rate limit and sample rate, after reporting what they suppressed.
+     */
+    public static void clearLimits() {
+        LogLimiter limiter;
+        synchronized (FOREST) {
+            limiter = logLimiter;
+            logLimiter = null;
+        }
+        if (limiter != null) {
+            limiter.stop();
+        }
+    }
+
+    private static LogLimiter limiter() {
+        synchronized (FOREST) {
+            LogLimiter limiter = logLimiter;
+            if (limiter == null) {
+                limiter = new LogLimiter();
+                limiter.start();
+                logLimiter = limiter;
+            }
+            return limiter;
+        }
+    }
+
+    private static void checkLimitPriority(int priority) {
+        if (priority < 0 || priority >= PRIORITY_COUNT) {
+            throw new IllegalArgumentException("Unknown priority: " + priority);
+        }
+    }
+
+    /**
+     * Collapses identical consecutive log calls, reporting each run after 5 seconds at most.
+     *
+     * @see #enableCollapsing(long)
+     */
+    public static void enableCollapsing() {
+        enableCollapsing(DEFAULT_COLLAPSE_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Collapses identical consecutive log calls, same priority, tag and message, into the first one
+     * followed by {@code previous message repeated N more times} once a different call ends the run.
+     * A run still going on {@code timeoutMillis} after its first repeat is reported then, and again
+     * every {@code timeoutMillis} for as long as it lasts.
+     *
+     * Calls with an exception are never collapsed. Comparing messages formats them on the calling
+     * thread, even while logging {@link #enableAsync asynchronously}.
+     * <p>
+     * Collapsing is global, not per thread: a call is compared with the previous call from any thread,
+     * so threads logging at the same time end each other's runs, and the same call from two threads
+     * in a row is collapsed.
+     */
+    public static void enableCollapsing(long timeoutMillis) {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeoutMillis <= 0: " + timeoutMillis);
+        }
+        LogCollapser previous;
+        synchronized (FOREST) {
+            previous = logCollapser;
+            logCollapser = new LogCollapser(timeoutMillis);
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Logs every call again, after reporting the current run of repeated calls.
+     */
+    public static void disableCollapsing() {
+        LogCollapser previous;
+        synchronized (FOREST) {
+            previous = logCollapser;
+            logCollapser = null;
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Starts counting what logging costs, from zero, read through {@link #getMetrics()}.
+     */
+    public static void enableMetrics() {
+        enableMetrics(0);
+    }
+
+    /**
+     * Starts counting what logging costs, from zero, and sends the counters as a
+     * {@code logging_metrics} {@link #event(Event, Pair[]) event} every {@code dumpIntervalMillis}.
+     *
+     * @param dumpIntervalMillis 0 to only read them through {@link #getMetrics()}
+     */
+    public static void enableMetrics(long dumpIntervalMillis) {
+        if (dumpIntervalMillis < 0) {
+            throw new IllegalArgumentException("dumpIntervalMillis < 0: " + dumpIntervalMillis);
+        }
+        LogMetrics enabled = new LogMetrics();
+        LogMetrics previous;
+        synchronized (FOREST) {
+            previous = metrics;
+            if (dumpIntervalMillis > 0) {
+                enabled.startDumping(dumpIntervalMillis);
+            }
+            metrics = enabled;
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * Stops counting, log calls go back to measuring nothing.
+     */
+    public static void disableMetrics() {
+        LogMetrics previous;
+        synchronized (FOREST) {
+            previous = metrics;
+            metrics = null;
+        }
+        if (previous != null) {
+            previous.stop();
+        }
+    }
+
+    /**
+     * The counters since {@link #enableMetrics()}, {@code null} while metrics are disabled.
+     */
+    @Nullable
+    public static LogMetricsSnapshot getMetrics() {
+        LogMetrics current = metrics;
+        return current != null ? current.snapshot() : null;
+    }
+
     /**
      * Log a verbose message with optional format args.
      */
@@ -303,7 +806,11 @@ public final class Timber {
     }
 
     public static void v(Object object) {
-        TREE_OF_SOULS.v(String.valueOf(object));
+        if (isLoggable(Log.VERBOSE)) {
+            TREE_OF_SOULS.v(String.valueOf(object), NO_ARGS);
+        } else {
+            takeExplicitTag();
+        }
     }
 
     /**
@@ -328,7 +835,11 @@ public final class Timber {
     }
 
     public static void d(Object object) {
-        TREE_OF_SOULS.d(String.valueOf(object));
+        if (isLoggable(Log.DEBUG)) {
+            TREE_OF_SOULS.d(String.valueOf(object), NO_ARGS);
+        } else {
+            takeExplicitTag();
+        }
     }
 
     /**
@@ -353,7 +864,11 @@ public final class Timber {
     }
 
     public static void i(Object object) {
-        TREE_OF_SOULS.i(String.valueOf(object));
+        if (isLoggable(Log.INFO)) {
+            TREE_OF_SOULS.i(String.valueOf(object), NO_ARGS);
+        } else {
+            takeExplicitTag();
+        }
     }
 
     /**
@@ -385,10 +900,14 @@ public final class Timber {
 //        TREE_OF_SOULS.w(String.valueOf(object));
 //    }
     public static <T> void w(T object) {
+        if (!isLoggable(Log.WARN)) {
+            takeExplicitTag();
+            return;
+        }
         if (object instanceof Object[]) {
-            TREE_OF_SOULS.w(Arrays.toString(new Object[]{object}));
+            TREE_OF_SOULS.w(Arrays.toString(new Object[]{object}), NO_ARGS);
         } else {
-            TREE_OF_SOULS.w(String.valueOf(object));
+            TREE_OF_SOULS.w(String.valueOf(object), NO_ARGS);
         }
     }
 
@@ -414,7 +933,11 @@ public final class Timber {
     }
 
     public static void e(Object object) {
-        TREE_OF_SOULS.e(String.valueOf(object));
+        if (isLoggable(Log.ERROR)) {
+            TREE_OF_SOULS.e(String.valueOf(object), NO_ARGS);
+        } else {
+            takeExplicitTag();
+        }
     }
 
     /**
@@ -501,14 +1024,38 @@ public final class Timber {
         return TREE_OF_SOULS;
     }
 
+    /**
+     * Starts a structured log call at {@code priority}, whose key/value fields reach the trees
+     * unrendered through {@link LogRecord#getFields()}.
+     * <pre>
+     * Timber.at(Log.INFO).tag("Network").kv("userId", id).kv("ms", elapsed).log("fetch done");
+     * </pre>
+     * Primitive fields are not boxed and the event is reused by the calling thread, trees that
+     * don't look at the fields get them appended to the message as {@code key=value} pairs.
+     * When no planted tree is interested in {@code priority} the returned event ignores everything.
+     */
+    @NonNull
+    public static LogEvent at(int priority) {
+        if (interestedTrees(priority).length == 0) {
+            takeExplicitTag();
+            return LogEvent.DISABLED;
+        }
+        return LogEvent.obtain(priority);
+    }
+
     /**
      * Set a one-time tag for use on the next logging call.
      */
     public static Tree tag(String tag) {
-        Tree[] forest = forestAsArray;
-        //noinspection ForLoopReplaceableByForEach
-        for (int i = 0, count = forest.length; i < count; i++) {
-            forest[i].explicitTag.set(tag);
+        String previous = EXPLICIT_TAG.get();
+        if (tag != null) {
+            EXPLICIT_TAG.set(tag);
+            if (previous == null) {
+                PENDING_TAGS.incrementAndGet();
+            }
+        } else if (previous != null) {
+            EXPLICIT_TAG.remove();
+            PENDING_TAGS.decrementAndGet();
         }
         return TREE_OF_SOULS;
     }
@@ -526,7 +1073,7 @@ public final class Timber {
         synchronized (FOREST) {
 
             FOREST.add(tree);
-            forestAsArray = FOREST.toArray(new Tree[FOREST.size()]);
+            rebuildForest();
         }
     }
 
@@ -547,7 +1094,7 @@ public final class Timber {
         }
         synchronized (FOREST) {
             Collections.addAll(FOREST, trees);
-            forestAsArray = FOREST.toArray(new Tree[FOREST.size()]);
+            rebuildForest();
         }
     }
 
@@ -559,7 +1106,7 @@ public final class Timber {
             if (!FOREST.remove(tree)) {
                 throw new IllegalArgumentException("Cannot uproot tree which is not planted: " + tree);
             }
-            forestAsArray = FOREST.toArray(new Tree[FOREST.size()]);
+            rebuildForest();
         }
     }
 
@@ -569,10 +1116,49 @@ public final class Timber {
     public static void uprootAll() {
         synchronized (FOREST) {
             FOREST.clear();
-            forestAsArray = TREE_ARRAY_EMPTY;
+            rebuildForest();
+        }
+    }
+
+    /**
+     * Rebuilds the planted trees arrays read by the log calls, must be called while holding 'FOREST'.
+     */
+    private static void rebuildForest() {
+        Tree[] forest = FOREST.toArray(new Tree[FOREST.size()]);
+        Tree[][] byPriority = new Tree[PRIORITY_COUNT][];
+        List<Tree> interested = new ArrayList<>(forest.length);
+        for (int priority = 0; priority < PRIORITY_COUNT; priority++) {
+            interested.clear();
+            for (Tree tree : forest) {
+                if (priority >= tree.getMinPriority()) {
+                    interested.add(tree);
+                }
+            }
+            byPriority[priority] = interested.isEmpty()
+                    ? TREE_ARRAY_EMPTY
+                    : interested.toArray(new Tree[interested.size()]);
+        }
+        forestAsArray = forest.length == 0 ? TREE_ARRAY_EMPTY : forest;
+        forestByPriority = byPriority;
+    }
+
+    /**
+     * Called when a tree's filters change so the dispatch tables pick it up.
+     */
+    static void onTreeFiltersChanged(Tree tree) {
+        synchronized (FOREST) {
+            if (FOREST.contains(tree)) {
+                rebuildForest();
+            }
         }
     }
 
+    private static Tree[][] emptyForestByPriority() {
+        Tree[][] byPriority = new Tree[PRIORITY_COUNT][];
+        Arrays.fill(byPriority, TREE_ARRAY_EMPTY);
+        return byPriority;
+    }
+
     /**
      * Return a copy of all planted {@linkplain Tree trees}.
      */
@@ -588,12 +1174,141 @@ public final class Timber {
         }
     }
 
+    /**
+     * Returns the tag of the first frame on the calling thread's stack outside of Timber.
+     */
+    static String inferCallerTag() {
+        StackTraceElement element = callerStackElement();
+        return element != null ? createClassTag(element.getClassName()) : null;
+    }
+
+    /**
+     * Returns the first frame on the calling thread's stack outside of Timber, or null if there is none.
+     */
+    static StackTraceElement callerStackElement() {
+        // DO NOT switch this to Thread.getCurrentThread().getStackTrace(). The test will pass
+        // because Robolectric runs them on the JVM but on Android the elements are different.
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        for (StackTraceElement element : stackTrace) {
+            String className = element.getClassName();
+            if (!className.equals(TIMBER_CLASS_NAME)
+                    && !className.startsWith(TIMBER_NESTED_CLASS_PREFIX)
+                    && !className.equals(AsyncLogDispatcher.class.getName())
+                    && !className.equals(EXTENSIONS_CLASS_NAME)
+                    && !className.equals(CALL_SITE_CLASS_NAME)) {
+                return element;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the tag inferred for messages logged by {@code type}, cached per class.
+     */
+    public static String tagFor(@NonNull Class<?> type) {
+        String tag = CLASS_TAGS.get(type);
+        if (tag == null) {
+            tag = createClassTag(type.getName());
+            CLASS_TAGS.put(type, tag);
+        }
+        return tag;
+    }
+
+    /**
+     * Applies the platform's tag length limit to a tag generated at build time.
+     */
+    static String limitTagLength(String tag) {
+        // Tag length limit was removed in API 24.
+        if (tag == null || tag.length() <= MAX_TAG_LENGTH || Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return tag;
+        }
+        return tag.substring(0, MAX_TAG_LENGTH);
+    }
+
+    /**
+     * Creates a tag from a class name without any anonymous class suffixes (e.g., {@code Foo$1}
+     * becomes {@code Foo}), truncated where the platform limits the tag length.
+     */
+    static String createClassTag(String className) {
+        String tag = className;
+        Matcher m = ANONYMOUS_CLASS.matcher(tag);
+        if (m.find()) {
+            tag = m.replaceAll("");
+        }
+        return limitTagLength(tag.substring(tag.lastIndexOf('.') + 1));
+    }
+
     /**
      * A facade for handling logging calls. Install instances via {@link #plant Timber.plant()}.
      */
     @Suppress(names = {"unused", "UNCHECKED_CAST"})
     public static abstract class Tree {
+        private static final String[] LEVEL_METHODS = {"v", "d", "i", "w", "e", "wtf"};
+
         final ThreadLocal<String> explicitTag = new ThreadLocal<>();
+        // Trees overriding these can't share the tag and message Timber resolves once per call.
+        final boolean customTag = overrides(getClass(), "getTag");
+        final boolean customFormat = overrides(getClass(), "formatMessage", String.class, Object[].class);
+        // Trees overriding a level method still see every call made through it.
+        final boolean customLevels = overridesLevelMethods(getClass());
+        // Debug trees overriding createStackElementTag are handed the calling frame instead of its class' tag.
+        final boolean customStackElementTag = this instanceof DebugTree
+                && overrides(getClass(), "createStackElementTag", StackTraceElement.class);
+
+        private volatile int minPriority = Log.VERBOSE;
+        // Null when not filtering.
+        private volatile Set<String> includedTags;
+        private volatile Set<String> excludedTags;
+
+        /**
+         * The lowest priority this tree logs, see {@link Log} for constants.
+         */
+        public final int getMinPriority() {
+            return minPriority;
+        }
+
+        /**
+         * Only log messages at {@code priority} or above.
+         *
+         * Timber keeps the trees interested in each priority up front, so messages no tree is
+         * interested in are dropped before any tag or message is computed.
+         */
+        public final Tree setMinPriority(int priority) {
+            minPriority = priority;
+            Timber.onTreeFiltersChanged(this);
+            return this;
+        }
+
+        /**
+         * Only log messages with one of {@code tags}, no tags logs every tag.
+         */
+        public final Tree includeTags(String... tags) {
+            includedTags = tags.length == 0 ? null : new HashSet<>(Arrays.asList(tags));
+            return this;
+        }
+
+        /**
+         * Never log messages with one of {@code tags}.
+         */
+        public final Tree excludeTags(String... tags) {
+            excludedTags = tags.length == 0 ? null : new HashSet<>(Arrays.asList(tags));
+            return this;
+        }
+
+        /**
+         * Checks {@code priority} and {@code tag} against this tree's minimum priority and tag filters.
+         */
+        public final boolean accepts(int priority, @Nullable String tag) {
+            if (priority < minPriority) {
+                return false;
+            }
+            Set<String> included = includedTags;
+            if (included != null && (tag == null || !included.contains(tag))) {
+                return false;
+            }
+            Set<String> excluded = excludedTags;
+            return excluded == null || tag == null || !excluded.contains(tag);
+        }
 
         public String getTag() {
             String tag = explicitTag.get();
@@ -742,6 +1457,7 @@ public final class Timber {
          * Log an error message with optional format args.
          */
 
+        @SuppressWarnings("unchecked")
         public abstract void event(Event event, Pair<EventParameter, Object>... args);
 
         public abstract void event(Event event, Bundlify bundlify);
@@ -784,49 +1500,194 @@ public final class Timber {
             return true;
         }
 
+        /**
+         * Return whether this tree falls back to a tag inferred from the calling class
+         * when no explicit tag was set.
+         * <p>
+         * When Timber logs {@linkplain Timber#enableAsync asynchronously} {@link #getTag()} is not
+         * called, the tag is resolved on the calling thread and handed to the tree instead.
+         */
+        protected boolean infersTag() {
+            return false;
+        }
+
         private void prepareLog(int priority, Throwable t, String message, Object... args) {
             // Consume tag even when message is not loggable so that next message is correctly tagged.
             String tag = getTag();
 
-            if (!isLoggable(tag, priority)) {
+            if (!accepts(priority, tag) || !isLoggable(tag, priority)) {
+                return;
+            }
+            log(new LogRecord(priority, t, message, args), tag);
+        }
+
+        /**
+         * Logs a record shared with the rest of the forest, through the level method it was made
+         * with when this tree overrides level methods.
+         */
+        final void prepareLog(LogRecord record, String tag) {
+            if (customLevels) {
+                logThroughLevel(record, tag);
                 return;
             }
-            if (message != null && message.length() == 0) {
-                message = null;
+            if (!accepts(record.getPriority(), tag) || !isLoggable(tag, record.getPriority())) {
+                return;
             }
+            log(record, tag);
+        }
+
+        /**
+         * Write a log record to its destination. By default formats the record and calls
+         * {@link #log(int, String, String, Throwable)}.
+         * <p>
+         * Trees writing the raw message template and arguments can override this instead,
+         * the record is shared with the rest of the forest.
+         *
+         * @param record The log call.
+         * @param tag    Explicit anyOf inferred tag. May be {@code null}.
+         */
+        protected void log(LogRecord record, String tag) {
+            String message = customFormat ? record.getMessage(this) : record.getMessage();
             if (message == null) {
-                if (t == null) {
-                    return; // Swallow message if it's null and there's no throwable.
-                }
-                message = getStackTraceString(t);
-            } else {
-                if (args.length > 0) {
-                    message = formatMessage(message, args);
-                }
-                if (t != null) {
-                    message += "\n" + getStackTraceString(t);
-                }
+                return; // Swallow message if it's null and there's no throwable.
             }
-
-            log(priority, tag, message, t);
+            LogMetrics metrics = Timber.metrics;
+            if (metrics != null) {
+                metrics.onBytesEmitted(LogMetrics.utf8Length(message));
+            }
+            log(record.getPriority(), tag, message, record.getThrowable());
         }
 
         /**
-         * Formats a log message with optional arguments.
+         * Formats a log message with optional arguments, same as {@link String#format(String, Object...)}
+         * but with the format string parsed once.
          */
         protected String formatMessage(String message, Object[] args) {
-            return String.format(message, args);
+            return MessageTemplate.format(message, args);
         }
 
+        /**
+         * Calls the level method matching the record, with its tag handed over as an explicit one.
+         */
+        private void logThroughLevel(LogRecord record, String tag) {
+            if (tag != null) {
+                explicitTag.set(tag);
+            }
+            int priority = record.getPriority();
+            Throwable t = record.getThrowable();
+            String message = record.getMessageTemplate();
+            try {
+                if (message == null) {
+                    logThroughLevel(priority, t);
+                } else if (t == null) {
+                    logThroughLevel(priority, message, record.getArgs());
+                } else {
+                    logThroughLevel(priority, t, message, record.getArgs());
+                }
+            } finally {
+                // An override that doesn't call through must not leave the tag to the next call.
+                explicitTag.remove();
+            }
+        }
 
-        private String getStackTraceString(Throwable t) {
-            // Don't replace this with Log.getStackTraceString() - it hides
-            // UnknownHostException, which is not what we want.
-            StringWriter sw = new StringWriter(256);
-            PrintWriter pw = new PrintWriter(sw, false);
-            t.printStackTrace(pw);
-            pw.flush();
-            return sw.toString();
+        private void logThroughLevel(int priority, String message, Object[] args) {
+            switch (priority) {
+                case Log.VERBOSE:
+                    v(message, args);
+                    break;
+                case Log.DEBUG:
+                    d(message, args);
+                    break;
+                case Log.INFO:
+                    i(message, args);
+                    break;
+                case Log.WARN:
+                    w(message, args);
+                    break;
+                case Log.ERROR:
+                    e(message, args);
+                    break;
+                case Log.ASSERT:
+                    wtf(message, args);
+                    break;
+                default:
+                    log(priority, message, args);
+            }
+        }
+
+        private void logThroughLevel(int priority, Throwable t, String message, Object[] args) {
+            switch (priority) {
+                case Log.VERBOSE:
+                    v(t, message, args);
+                    break;
+                case Log.DEBUG:
+                    d(t, message, args);
+                    break;
+                case Log.INFO:
+                    i(t, message, args);
+                    break;
+                case Log.WARN:
+                    w(t, message, args);
+                    break;
+                case Log.ERROR:
+                    e(t, message, args);
+                    break;
+                case Log.ASSERT:
+                    wtf(t, message, args);
+                    break;
+                default:
+                    log(priority, t, message, args);
+            }
+        }
+
+        private void logThroughLevel(int priority, Throwable t) {
+            switch (priority) {
+                case Log.VERBOSE:
+                    v(t);
+                    break;
+                case Log.DEBUG:
+                    d(t);
+                    break;
+                case Log.INFO:
+                    i(t);
+                    break;
+                case Log.WARN:
+                    w(t);
+                    break;
+                case Log.ERROR:
+                    e(t);
+                    break;
+                case Log.ASSERT:
+                    wtf(t);
+                    break;
+                default:
+                    log(priority, t);
+            }
+        }
+
+        private static boolean overridesLevelMethods(Class<?> type) {
+            for (String name : LEVEL_METHODS) {
+                if (overrides(type, name, String.class, Object[].class)
+                        || overrides(type, name, Throwable.class, String.class, Object[].class)
+                        || overrides(type, name, Throwable.class)) {
+                    return true;
+                }
+            }
+            return overrides(type, "log", int.class, String.class, Object[].class)
+                    || overrides(type, "log", int.class, Throwable.class, String.class, Object[].class)
+                    || overrides(type, "log", int.class, Throwable.class);
+        }
+
+        private static boolean overrides(Class<?> type, String name, Class<?>... parameterTypes) {
+            for (Class<?> c = type; c != null && c != Tree.class && c != DebugTree.class; c = c.getSuperclass()) {
+                try {
+                    c.getDeclaredMethod(name, parameterTypes);
+                    return true;
+                } catch (NoSuchMethodException ignored) {
+                    // Keep looking up the hierarchy.
+                }
+            }
+            return false;
         }
 
         /**
@@ -860,9 +1721,6 @@ public final class Timber {
     @Suppress(names = {"unused", "UNCHECKED_CAST"})
     public static class DebugTree extends Tree {
         private static final int MAX_LOG_LENGTH = 4000;
-        private static final int MAX_TAG_LENGTH = 23;
-        private static final int CALL_STACK_INDEX = 5;
-        private static final Pattern ANONYMOUS_CLASS = Pattern.compile("(\\$\\d+)+$");
 
         /**
          * Extract the tag which should be used for the message from the {@code element}. By default
@@ -872,17 +1730,12 @@ public final class Timber {
          * Note: This will not be called if a {@linkplain #tag(String) manual tag} was specified.
          */
         protected String createStackElementTag(StackTraceElement element) {
-            String tag = element.getClassName();
-            Matcher m = ANONYMOUS_CLASS.matcher(tag);
-            if (m.find()) {
-                tag = m.replaceAll("");
-            }
-            tag = tag.substring(tag.lastIndexOf('.') + 1);
-            // Tag length limit was removed in API 24.
-            if (tag.length() <= MAX_TAG_LENGTH || Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-                return tag;
-            }
-            return tag.substring(0, MAX_TAG_LENGTH);
+            return createClassTag(element.getClassName());
+        }
+
+        @Override
+        protected boolean infersTag() {
+            return true;
         }
 
         @Override
@@ -892,14 +1745,12 @@ public final class Timber {
                 return tag;
             }
 
-            // DO NOT switch this to Thread.getCurrentThread().getStackTrace(). The test will pass
-            // because Robolectric runs them on the JVM but on Android the elements are different.
-            StackTraceElement[] stackTrace = new Throwable().getStackTrace();
-            if (stackTrace.length <= CALL_STACK_INDEX) {
+            StackTraceElement element = callerStackElement();
+            if (element == null) {
                 throw new IllegalStateException(
                         "Synthetic stacktrace didn't have enough elements: are you using proguard?");
             }
-            return createStackElementTag(stackTrace[CALL_STACK_INDEX]);
+            return createStackElementTag(element);
         }
 
         /**
@@ -938,24 +1789,14 @@ public final class Timber {
         }
 
         @Override
-        public void event(Event event, Pair<EventParameter, Object>[] args) {
-            if (args.length == 0) {
-                d("event: %s", event.toString());
-            } else {
-                d("event: %s args: %s", event.toString(), buildPairArgsString(args));
-            }
-
+        @SuppressWarnings("unchecked")
+        public void event(Event event, Pair<EventParameter, Object>... args) {
+            d(EventMessages.format(event, args));
         }
 
         @Override
         public void event(Event event, Bundlify bundlify) {
-
-            if (bundlify.isEmpty()) {
-                d("event: %s", event.toString());
-            } else {
-                d("event: %s args: %s", event.toString(), bundlify.toString());
-            }
-
+            d(EventMessages.format(event, bundlify));
         }
 
         @Override
@@ -976,20 +1817,5 @@ public final class Timber {
         private void makeCrashReport(@Nullable String message, @Nullable Throwable t, Object... args) {
             e(t, message, args);
         }
-
-        private String buildPairArgsString(Pair<EventParameter, Object>[] args) {
-            if (args.length == 0) return "Empty";
-            StringBuilder builder = new StringBuilder();
-            builder.append("[");
-
-            for (Pair<EventParameter, Object> pair : args) {
-                builder.append(String.format("Pair(%s, %s), ", pair.first.toString(), pair.second.toString()));
-            }
-            if (builder.length() > 2) {
-                builder.replace(builder.length() - 2, builder.length(), "");
-            }
-            builder.append("]");
-            return builder.toString();
-        }
     }
 }
@@ -1,14 +1,9 @@
 package com.gilgoldzweig.mvp.logging
 
-import android.os.Build
+import android.util.Log
 import com.gilgoldzweig.mvp.analytics.Bundlify
 import com.gilgoldzweig.mvp.analytics.Event
 import com.gilgoldzweig.mvp.analytics.EventParameter
-import java.util.regex.Pattern
-
-private const val MAX_TAG_LENGTH = 23
-private const val CALL_STACK_INDEX = 4
-private val anonymousClassPattern = Pattern.compile("(\\$\\d+)+$")
 
 /**
  * Calls [Timber.d] with a message based on the receiver
@@ -18,8 +13,9 @@ fun Any?.d(
 	prefix: String = "",
 	postfix: String = "",
 	separator: String = " "
-): Unit =
-	Timber.tag(getTag()).d(createMessage(prefix, postfix, separator))
+) {
+	logWithTag(Log.DEBUG, null, prefix, postfix, separator)
+}
 
 /**
  * Calls [Timber.e] with a message based on the receiver
@@ -29,8 +25,9 @@ fun Any?.e(
 	prefix: String = "",
 	postfix: String = "",
 	separator: String = " "
-): Unit =
-	Timber.tag(getTag()).e(createMessage(prefix, postfix, separator))
+) {
+	logWithTag(Log.ERROR, null, prefix, postfix, separator)
+}
 
 /**
  * Calls [Timber.i] with a message based on the receiver
@@ -40,7 +37,9 @@ fun Any?.i(
 	prefix: String = "",
 	postfix: String = "",
 	separator: String = " "
-): Unit = Timber.tag(getTag()).i(createMessage(prefix, postfix, separator))
+) {
+	logWithTag(Log.INFO, null, prefix, postfix, separator)
+}
 
 /**
  * Calls [Timber.wtf] with a message based on the receiver
@@ -50,9 +49,9 @@ fun Any?.wtf(
 	prefix: String = "",
 	postfix: String = "",
 	separator: String = " "
-) =
-	Timber.tag(getTag())
-		.wtf(createMessage(prefix, postfix, separator))
+) {
+	logWithTag(Log.ASSERT, null, prefix, postfix, separator)
+}
 
 /**
  * Calls [Timber.w] with a message based on the receiver
@@ -62,9 +61,32 @@ fun Any?.w(
 	prefix: String = "",
 	postfix: String = "",
 	separator: String = " "
-) = Timber.tag(getTag())
-	.w(createMessage(prefix, postfix, separator))
+) {
+	logWithTag(Log.WARN, null, prefix, postfix, separator)
+}
 
+/**
+ * Logs a message based on the receiver, shared by the extensions above and the build-time
+ * tagged calls in [CallSiteTimber]
+ *
+ * Nothing is built and the stack is not walked when no planted tree is interested in [priority],
+ * a pending [Timber.tag] is still consumed
+ *
+ * @param tag the caller's tag, null to infer it from the stack
+ */
+internal fun Any?.logWithTag(
+	priority: Int,
+	tag: String?,
+	prefix: String,
+	postfix: String,
+	separator: String
+) {
+	if (Timber.isLoggable(priority)) {
+		Timber.tag(tag ?: getTag()).log(priority, createMessage(prefix, postfix, separator))
+	} else {
+		Timber.takeExplicitTag()
+	}
+}
 
 private fun Any?.createMessage(
 	prefix: String = "",
@@ -73,15 +95,105 @@ private fun Any?.createMessage(
 ): String =
 	"$prefix$separator${this ?: "null"}$separator$postfix"
 
+/**
+ * Logs the message returned by [message] at [Log.VERBOSE], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag, so the message can be
+ * expensive to build
+ */
+@Suppress("unused")
+inline fun Any.logV(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.VERBOSE, t, message)
+
+/**
+ * Logs the message returned by [message] at [Log.DEBUG], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag
+ */
+@Suppress("unused")
+inline fun Any.logD(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.DEBUG, t, message)
+
+/**
+ * Logs the message returned by [message] at [Log.INFO], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag
+ */
+@Suppress("unused")
+inline fun Any.logI(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.INFO, t, message)
+
+/**
+ * Logs the message returned by [message] at [Log.WARN], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag
+ */
+@Suppress("unused")
+inline fun Any.logW(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.WARN, t, message)
+
+/**
+ * Logs the message returned by [message] at [Log.ERROR], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag
+ */
+@Suppress("unused")
+inline fun Any.logE(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.ERROR, t, message)
+
+/**
+ * Logs the message returned by [message] at [Log.ASSERT], tagged with the receiver's class
+ *
+ * [message] only runs if a planted tree accepts the priority and tag
+ */
+@Suppress("unused")
+inline fun Any.logWtf(t: Throwable? = null, message: () -> String): Unit =
+	logLazy(Log.ASSERT, t, message)
+
+/**
+ * Checks the priority first, a single volatile read, then the tag against the trees' filters
+ * and only then builds the message
+ */
+@PublishedApi
+internal inline fun Any.logLazy(priority: Int, t: Throwable?, message: () -> String) {
+	if (!Timber.isLoggable(priority)) return skipPendingTag()
+	val tag = Timber.tagFor(javaClass)
+	if (Timber.isLoggable(priority, tag)) {
+		logWithTag(priority, tag, t, message())
+	} else {
+		skipPendingTag()
+	}
+}
+
+/**
+ * Consumes a pending [Timber.tag] for a call that logs nothing, so it doesn't tag the next one
+ */
+@PublishedApi
+internal fun skipPendingTag() {
+	Timber.takeExplicitTag()
+}
+
+/**
+ * Logs an already built message, kept out of line so the lazy functions inline as little as possible
+ */
+@PublishedApi
+internal fun logWithTag(priority: Int, tag: String, t: Throwable?, message: String): Unit =
+	Timber.tag(tag).log(priority, t, message)
+
 /**
  * logs a non fetal exception
  */
 @Suppress("unused")
-fun Throwable.crash(message: String? = null) {
+fun Throwable.crash(message: String? = null): Unit = crashWithTag(getTag(), message)
+
+/**
+ * Logs a non fetal exception with an already resolved tag
+ */
+internal fun Throwable.crashWithTag(tag: String?, message: String?) {
 	if (message == null) {
-		Timber.tag(getTag()).crash(this)
+		Timber.tag(tag).crash(this)
 	} else {
-		Timber.tag(getTag()).crash(this, message)
+		Timber.tag(tag).crash(this, message)
 	}
 }
 
@@ -94,42 +206,21 @@ fun Event.event(): Unit = Timber.event(this)
 /**
  * logs an analytics event to Timber with extra parameters
  */
-fun Event.event(vararg params: Pair<EventParameter, Any>) {
-	val bundlify = Bundlify()
-	params.forEach { bundlify.put(it.first, it.second) }
-	Timber.tag(getTag()).event(this, bundlify)
-}
+fun Event.event(vararg params: Pair<EventParameter, Any>): Unit = eventWithTag(getTag(), params)
 
 /**
- * Extract the tag which should be used for the message from the `element`. By default
- * this will use the class name without any anonymous class suffixes (e.g., `Foo$1`
- * becomes `Foo`).
- *
- *
- * Note: This will not be called if a [manual tag][.tag] was specified.
+ * logs an analytics event to Timber with extra parameters and an already resolved tag
  */
-private fun createStackElementTag(element: StackTraceElement): String {
-	var tag = element.className
-	val m = anonymousClassPattern.matcher(tag)
-	if (m.find()) {
-		tag = m.replaceAll("")
-	}
-	tag = tag.substring(tag.lastIndexOf('.') + 1)
-	// Tag length limit was removed in API 24.
-	return if (tag.length <= MAX_TAG_LENGTH || Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-		tag
-	} else tag.substring(0, MAX_TAG_LENGTH)
+internal fun Event.eventWithTag(tag: String?, params: Array<out Pair<EventParameter, Any>>) {
+	val bundlify = Bundlify()
+	params.forEach { bundlify.put(it.first, it.second) }
+	Timber.tag(tag).event(this, bundlify)
 }
 
 /**
- * Returns the tag for the place that called the function
+ * Returns the tag for the place that called the function.
+ *
+ * Only reached by code that was not processed by the call-site tag plugin,
+ * which passes the caller's tag through [CallSiteTimber] instead of walking the stack.
  */
-private fun getTag(): String {
-	val stackTrace = Throwable().stackTrace
-	if (stackTrace.size <= CALL_STACK_INDEX) {
-		if (stackTrace.isNotEmpty()) {
-			return createStackElementTag(stackTrace.last())
-		}
-	}
-	return createStackElementTag(stackTrace[CALL_STACK_INDEX])
-}
+private fun getTag(): String? = Timber.inferCallerTag()
@@ -0,0 +1,206 @@
+package com.gilgoldzweig.mvp.logging;
+
+import android.util.Pair;
+
+import com.gilgoldzweig.mvp.analytics.EventParameter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gives every planted tree its own bounded queue and worker, so a tree blocking in {@code log()}
+ * only holds up its own records.
+ * <p>
+ * Each tree gets a lane, an {@link AsyncLogDispatcher} delivering to that tree alone and dropping
+ * new records when full, so callers never wait. A watchdog checks the lanes every latency budget:
+ * a tree that took longer than the budget for a record, or is still stuck on one, is shed for
+ * {@link #SHED_BUDGETS} budgets. Its queued records are dropped, new ones are dropped as they
+ * come and it doesn't receive events. Shedding and recovering are reported as the
+ * {@code logging_tree_shed} and {@code logging_tree_recovered} {@link Timber#event events}.
+ * The lane of an uprooted tree is dropped at the next check, along with what it still holds.
+ */
+final class TreeIsolator {
+    // How many latency budgets a slow tree is shed for before it gets records again.
+    private static final int SHED_BUDGETS = 10;
+    private static final long MIN_CHECK_INTERVAL_MILLIS = 100;
+
+    private static final NamedEvent SHED_EVENT = new NamedEvent("logging_tree_shed");
+    private static final NamedEvent RECOVERED_EVENT = new NamedEvent("logging_tree_recovered");
+    private static final NamedEvent TREE = new NamedEvent("tree");
+    private static final NamedEvent LATENCY_MILLIS = new NamedEvent("latency_millis");
+    private static final NamedEvent SHED_RECORDS = new NamedEvent("shed_records");
+
+    private final int capacity;
+    private final long budgetNanos;
+    private final ConcurrentHashMap<Timber.Tree, Lane> lanes = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> watchdog;
+
+    private Thread.UncaughtExceptionHandler previousHandler;
+    private Thread.UncaughtExceptionHandler crashFlushHandler;
+
+    TreeIsolator(int capacity, long latencyBudgetMillis) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity < 2: " + capacity);
+        }
+        if (latencyBudgetMillis <= 0) {
+            throw new IllegalArgumentException("latencyBudgetMillis <= 0: " + latencyBudgetMillis);
+        }
+        this.capacity = capacity;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(latencyBudgetMillis);
+    }
+
+    void start() {
+        long interval = Math.max(TimeUnit.NANOSECONDS.toMillis(budgetNanos), MIN_CHECK_INTERVAL_MILLIS);
+        watchdog = LogScheduler.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+
+        previousHandler = Thread.getDefaultUncaughtExceptionHandler();
+        crashFlushHandler = new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread thread, Throwable throwable) {
+                flush();
+                if (previousHandler != null) {
+                    previousHandler.uncaughtException(thread, throwable);
+                }
+            }
+        };
+        Thread.setDefaultUncaughtExceptionHandler(crashFlushHandler);
+    }
+
+    /**
+     * Stops the watchdog and every lane, after delivering what the lanes that aren't shed still hold.
+     * Shed lanes are dropped without waiting for their tree.
+     */
+    void shutdown() {
+        watchdog.cancel(false);
+        if (Thread.getDefaultUncaughtExceptionHandler() == crashFlushHandler) {
+            Thread.setDefaultUncaughtExceptionHandler(previousHandler);
+        }
+        for (Lane lane : lanes.values()) {
+            if (lane.shedUntil != 0) {
+                lane.dispatcher.discardAll();
+                lane.dispatcher.abandon();
+            } else {
+                lane.dispatcher.shutdown();
+            }
+        }
+        lanes.clear();
+    }
+
+    /**
+     * Queues {@code record} on the lane of every tree in {@code forest}.
+     */
+    void enqueue(Timber.Tree[] forest, LogRecord record) {
+        //noinspection ForLoopReplaceableByForEach
+        for (int i = 0, count = forest.length; i < count; i++) {
+            Lane lane = lane(forest[i]);
+            if (lane.shedUntil != 0) {
+                lane.shed++;
+            } else {
+                lane.dispatcher.enqueue(record);
+            }
+        }
+    }
+
+    /**
+     * Delivers what every lane that isn't shed holds, waiting up to two seconds for each.
+     */
+    void flush() {
+        for (Lane lane : lanes.values()) {
+            if (lane.shedUntil == 0) {
+                lane.dispatcher.flush();
+            }
+        }
+    }
+
+    /**
+     * Checks if {@code tree} is currently shed for being too slow.
+     */
+    boolean isShed(Timber.Tree tree) {
+        Lane lane = lanes.get(tree);
+        return lane != null && lane.shedUntil != 0;
+    }
+
+    private Lane lane(Timber.Tree tree) {
+        Lane lane = lanes.get(tree);
+        if (lane == null) {
+            synchronized (lanes) {
+                lane = lanes.get(tree);
+                if (lane == null) {
+                    AsyncLogDispatcher dispatcher = new AsyncLogDispatcher(capacity, OverflowPolicy.DROP_NEWEST, tree);
+                    dispatcher.start();
+                    lane = new Lane(dispatcher);
+                    lanes.put(tree, lane);
+                }
+            }
+        }
+        return lane;
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        Timber.Tree[] forest = Timber.forestAsArray;
+        for (Map.Entry<Timber.Tree, Lane> entry : lanes.entrySet()) {
+            Timber.Tree tree = entry.getKey();
+            Lane lane = entry.getValue();
+            long latency = Math.max(lane.dispatcher.takeMaxLatencyNanos(), lane.dispatcher.busyNanos(now));
+            if (lane.shedUntil == 0) {
+                if (latency > budgetNanos) {
+                    lane.shedUntil = now + SHED_BUDGETS * budgetNanos;
+                    lane.shed = lane.dispatcher.discardAll();
+                    report(SHED_EVENT, tree, latency, lane.shed);
+                } else if (!isPlanted(forest, tree)) {
+                    // Shutting the lane down could hold the scheduler thread for seconds, and the
+                    // tree was uprooted so its remaining records aren't delivered.
+                    lanes.remove(tree);
+                    lane.dispatcher.abandon();
+                }
+            } else if (now - lane.shedUntil >= 0) {
+                if (lane.dispatcher.busyNanos(now) > budgetNanos) {
+                    // Still stuck on the record it had when it was shed.
+                    lane.shedUntil = now + SHED_BUDGETS * budgetNanos;
+                } else {
+                    long shed = lane.shed;
+                    lane.shed = 0;
+                    lane.shedUntil = 0;
+                    report(RECOVERED_EVENT, tree, latency, shed);
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void report(NamedEvent event, Timber.Tree tree, long latencyNanos, long shed) {
+        Timber.event(event,
+                new Pair<EventParameter, Object>(TREE, String.valueOf(tree)),
+                new Pair<EventParameter, Object>(LATENCY_MILLIS, TimeUnit.NANOSECONDS.toMillis(latencyNanos)),
+                new Pair<EventParameter, Object>(SHED_RECORDS, shed));
+    }
+
+    private static boolean isPlanted(Timber.Tree[] forest, Timber.Tree tree) {
+        for (Timber.Tree planted : forest) {
+            if (planted == tree) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static final class Lane {
+        final AsyncLogDispatcher dispatcher;
+        // System.nanoTime() the tree gets records again at, 0 while it isn't shed.
+        volatile long shedUntil;
+        // Records dropped while shed, racy as it is only reported.
+        volatile long shed;
+
+        Lane(AsyncLogDispatcher dispatcher) {
+            this.dispatcher = dispatcher;
+        }
+    }
+}
@@ -4,12 +4,16 @@ import android.arch.lifecycle.Lifecycle
 import android.arch.lifecycle.LifecycleObserver
 import android.arch.lifecycle.OnLifecycleEvent
 import android.support.annotation.CallSuper
+import com.gilgoldzweig.mvp.logging.LogContext
 import com.gilgoldzweig.mvp.models.threads.CoroutineDispatchers
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.MainCoroutineDispatcher
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import java.util.*
+import kotlinx.coroutines.yield
+import java.util.concurrent.TimeUnit
 import kotlin.coroutines.CoroutineContext
 
 /**
@@ -22,23 +26,75 @@ abstract class BasePresenter<V : BaseContract.View>(
 
     var lifecycle: Lifecycle? = null
 
+    /**
+     * If true the queued actions are replayed by [executeQueuedUiActions] every time
+     * the bound lifecycle is resumed, until it is paused again
+     */
     var autoExecuteUiActions: Boolean = true
 
+    /**
+     * How long [executeQueuedUiActions] may keep the ui thread busy before yielding it for a frame
+     */
+    var uiActionsFrameBudgetMillis: Long = DEFAULT_FRAME_BUDGET_MILLIS
+
+    /**
+     * If true [performOnUi] and [executeOnUi] called on the ui thread run the action right away
+     * instead of posting it to the next loop, with the semantics of
+     * [Dispatchers.Main.immediate][MainCoroutineDispatcher.immediate]
+     *
+     * Only applies when [CoroutineDispatchers.main] is a [MainCoroutineDispatcher] supporting it,
+     * an action that runs right away throws to the caller
+     */
+    var immediateUiDispatch: Boolean = false
+
     var view: V? = null
 
-    val actionsWaitingForUIExecution: Queue<V.() -> Unit> = LinkedList()
+    // The automatic replay started by onResume, cancelled by onPause and detach.
+    @Volatile
+    private var replayJob: Job? = null
+
+    /**
+     * The actions waiting for the view to be resumed, safe to use from any thread
+     *
+     * Override to change its capacity or overflow policy
+     */
+    open val actionsWaitingForUIExecution: UiActionQueue<V> by lazy {
+        UiActionQueue<V>()
+    }
+
+    /**
+     * The depth, drops and latency of [actionsWaitingForUIExecution]
+     */
+    val uiActionMetrics: UiActionMetrics
+        get() = actionsWaitingForUIExecution.metrics()
+
+    /**
+     * The logging context of every coroutine started from the presenter's contexts, null by default
+     *
+     * Override to have logs carry a tag or values such as the presenter's name across suspension points
+     * and threads, use [com.gilgoldzweig.mvp.logging.withLogContext] to add values for a single block
+     *
+     * ```
+     * override val logContext = LogContext(null, "presenter" to "Login")
+     * ```
+     */
+    open val logContext: LogContext? = null
+
+    // Built once for the current job and dispatchers instead of on every access.
+    @Volatile
+    private var contexts: Contexts? = null
 
     override val coroutineContext: CoroutineContext
         get() = uiContext
 
     val networkContext: CoroutineContext
-        get() = job + dispatchers.network
+        get() = contexts().network
 
     val uiContext: CoroutineContext
-        get() = job + dispatchers.main
+        get() = contexts().ui
 
     val databaseContext: CoroutineContext
-        get() = job + dispatchers.database
+        get() = contexts().database
 
     /**
      * attach the view to the presenter
@@ -64,7 +120,10 @@ abstract class BasePresenter<V : BaseContract.View>(
      * @param addToRetryQueue In case the function is called when the provided lifecycle is not available to
      * receive the action for example [Lifecycle.State.DESTROYED]
      * the [action] will be added to a retry queue [actionsWaitingForUIExecution] and we be executed when
-     * [executeQueuedUiActions] is called
+     * [executeQueuedUiActions] is called, once the queue is full its [UiActionQueue.policy] applies
+     *
+     * While queued actions are waiting or being replayed the [action] is queued behind them even when
+     * the lifecycle is resumed, so it never runs before an action performed earlier
      *
      * If your'e launching this inside launch function with the default context it is better
      * to use [executeOnUi]
@@ -74,8 +133,8 @@ abstract class BasePresenter<V : BaseContract.View>(
     fun performOnUi(addToRetryQueue: Boolean = true, action: V.() -> Unit) {
         if (job.isCancelled) return
         if (isLifecycleResumed()) {
-            launch(uiContext) {
-                view?.let(action)
+            if (!queueBehindReplay { offer(action) }) {
+                runOnUi(action)
             }
         } else {
             if (addToRetryQueue) {
@@ -84,6 +143,28 @@ abstract class BasePresenter<V : BaseContract.View>(
         }
     }
 
+    /**
+     * Launches an action of the View to the ui context, the same as [performOnUi]
+     * except that while the lifecycle isn't resumed the [action] replaces the queued action with the
+     * same [key], so only the latest one runs when [executeQueuedUiActions] is called
+     *
+     * example:
+     *
+     * performOnUi(key = "progress") { renderProgress(percent) }
+     *
+     * @param key identifies the actions that make each other obsolete
+     */
+    fun performOnUi(key: Any, action: V.() -> Unit) {
+        if (job.isCancelled) return
+        if (isLifecycleResumed()) {
+            if (!queueBehindReplay { offer(key, action) }) {
+                runOnUi(action)
+            }
+        } else {
+            actionsWaitingForUIExecution.offer(key, action)
+        }
+    }
+
     /**
      * Perform an action of the View on the ui context
      *
@@ -93,15 +174,18 @@ abstract class BasePresenter<V : BaseContract.View>(
      * @param addToRetryQueue In case the function is called when the provided lifecycle is not available to
      * receive the action for example [Lifecycle.State.DESTROYED]
      * the [action] will be added to a retry queue [actionsWaitingForUIExecution] and will be executed when
-     * [executeQueuedUiActions] is called
+     * [executeQueuedUiActions] is called, once the queue is full its [UiActionQueue.policy] applies
+     *
+     * While queued actions are waiting or being replayed the [action] is queued behind them even when
+     * the lifecycle is resumed, and the function returns without waiting for it
      *
      * @see [Lifecycle.getCurrentState]
      */
     suspend fun executeOnUi(addToRetryQueue: Boolean = true, action: V.() -> Unit) {
         if (job.isCancelled) return
         if (isLifecycleResumed()) {
-            withContext(uiContext) {
-                view?.let(action)
+            if (!queueBehindReplay { offer(action) }) {
+                runOnUiAndWait(action)
             }
         } else {
             if (addToRetryQueue) {
@@ -111,8 +195,33 @@ abstract class BasePresenter<V : BaseContract.View>(
     }
 
     /**
-     * Performs all actions in [actionsWaitingForUIExecution]
-     * This function should be called when the [job] is alive and when the ui allows executing actions
+     * Perform an action of the View on the ui context, the same as [executeOnUi]
+     * except that while the lifecycle isn't resumed the [action] replaces the queued action with the
+     * same [key], so only the latest one runs when [executeQueuedUiActions] is called
+     *
+     * @param key identifies the actions that make each other obsolete
+     */
+    suspend fun executeOnUi(key: Any, action: V.() -> Unit) {
+        if (job.isCancelled) return
+        if (isLifecycleResumed()) {
+            if (!queueBehindReplay { offer(key, action) }) {
+                runOnUiAndWait(action)
+            }
+        } else {
+            actionsWaitingForUIExecution.offer(key, action)
+        }
+    }
+
+    /**
+     * Performs all actions in [actionsWaitingForUIExecution], in the order they were queued
+     * This function should be called when the [job] is alive and when the ui allows executing actions,
+     * it is called on every resume unless [autoExecuteUiActions] is disabled
+     *
+     * The actions run in a single dispatch to the ui context, once they took [uiActionsFrameBudgetMillis]
+     * the ui thread is yielded so a frame can be drawn before the rest of them run
+     *
+     * An action is taken from the queue before it runs, when the drain is cancelled the actions
+     * that already ran are never run again and the rest stay queued
      *
      * The function does not check for the current lifecycle state it's the caller duty to verify that
      *
@@ -120,16 +229,84 @@ abstract class BasePresenter<V : BaseContract.View>(
      * @see executeOnUi
      */
     suspend fun executeQueuedUiActions() {
-        if (!job.isActive) return
-        var action = actionsWaitingForUIExecution.poll()
-        while (action != null) {
+        if (!job.isActive || actionsWaitingForUIExecution.isEmpty()) return
+        withContext(uiContext) {
+            drainQueuedUiActions()
+        }
+    }
+
+    /**
+     * Runs the queued actions on the calling coroutine, which must be on the ui thread
+     */
+    private suspend fun drainQueuedUiActions() {
+        val budgetNanos = TimeUnit.MILLISECONDS.toNanos(uiActionsFrameBudgetMillis)
+        var frameStart = System.nanoTime()
+        while (actionsWaitingForUIExecution.executeNext(view)) {
+            if (System.nanoTime() - frameStart >= budgetNanos) {
+                yield()
+                frameStart = System.nanoTime()
+            }
+        }
+    }
+
+    /**
+     * Queues an action called while resumed if queued actions are waiting or being replayed, and has
+     * the ui thread replay it after them unless [autoExecuteUiActions] is disabled
+     *
+     * @return false if nothing is waiting and the action can run right away
+     */
+    private inline fun queueBehindReplay(offer: UiActionQueue<V>.() -> Unit): Boolean {
+        if (actionsWaitingForUIExecution.isEmpty() && replayJob?.isActive != true) return false
+        actionsWaitingForUIExecution.offer()
+        // On the ui thread, where a replay that took its last action is already completed.
+        launch(uiContext) {
+            if (isLifecycleResumed()) {
+                replayQueuedUiActions()
+            }
+        }
+        return true
+    }
+
+    private fun runOnUi(action: V.() -> Unit) {
+        if (canRunOnUiNow()) {
+            view?.let(action)
+        } else {
+            launch(uiContext) {
+                view?.let(action)
+            }
+        }
+    }
+
+    private suspend fun runOnUiAndWait(action: V.() -> Unit) {
+        if (canRunOnUiNow()) {
+            view?.let(action)
+        } else {
             withContext(uiContext) {
                 view?.let(action)
             }
-            action = actionsWaitingForUIExecution.poll()
         }
     }
 
+    /**
+     * Checks if [immediateUiDispatch] is enabled and the calling thread is the ui thread
+     */
+    private fun canRunOnUiNow(): Boolean {
+        if (!immediateUiDispatch) return false
+        val contexts = contexts()
+        val immediate = contexts.immediateMain ?: return false
+        return !immediate.isDispatchNeeded(contexts.ui)
+    }
+
+    private fun contexts(): Contexts {
+        val job = job
+        val dispatchers = dispatchers
+        val cached = contexts
+        if (cached != null && cached.job === job && cached.dispatchers === dispatchers) {
+            return cached
+        }
+        return Contexts(job, dispatchers, logContext).also { contexts = it }
+    }
+
     /**
      * Checks if the lifecycle is not null and in a resumed state
      */
@@ -152,6 +329,7 @@ abstract class BasePresenter<V : BaseContract.View>(
     @CallSuper
     override fun detach() {
         job.cancel()
+        replayJob = null
         view = null
         actionsWaitingForUIExecution.clear()
         lifecycle?.removeObserver(this)
@@ -165,6 +343,39 @@ abstract class BasePresenter<V : BaseContract.View>(
     @OnLifecycleEvent(Lifecycle.Event.ON_START)
     open fun onStart() = Unit
 
+    /**
+     * If this class is bound to a lifecycle then we can listen to the [Lifecycle.Event.ON_RESUME]
+     * and replay the queued actions if [autoExecuteUiActions] is enabled
+     */
+    @CallSuper
+    @OnLifecycleEvent(Lifecycle.Event.ON_RESUME)
+    open fun onResume() {
+        replayQueuedUiActions()
+    }
+
+    /**
+     * Starts replaying the queued actions unless a replay is running, must be called on the ui thread
+     */
+    private fun replayQueuedUiActions() {
+        if (!autoExecuteUiActions || job.isCancelled || replayJob?.isActive == true) return
+        if (actionsWaitingForUIExecution.isEmpty()) return
+        // Drains on the launched coroutine itself, so cancelling it stops the replay.
+        replayJob = launch(uiContext) {
+            drainQueuedUiActions()
+        }
+    }
+
+    /**
+     * If this class is bound to a lifecycle then we can listen to the [Lifecycle.Event.ON_PAUSE]
+     * and stop replaying the queued actions, the ones that did not run yet stay queued
+     */
+    @CallSuper
+    @OnLifecycleEvent(Lifecycle.Event.ON_PAUSE)
+    open fun onPause() {
+        replayJob?.cancel()
+        replayJob = null
+    }
+
     /**
      * If this class is bound to a lifecycle then we can listen to lifecycle events
      * There is no default implementation but inheritors can use this function easily
@@ -181,4 +392,39 @@ abstract class BasePresenter<V : BaseContract.View>(
     open fun onDestroy() {
         detach()
     }
+
+    /**
+     * The presenter's contexts for a job and dispatchers, replaced when either of them changes
+     */
+    private class Contexts(
+        val job: Job,
+        val dispatchers: CoroutineDispatchers,
+        logContext: LogContext?
+    ) {
+        private val base: CoroutineContext = logContext?.let { job + it } ?: job
+
+        val network: CoroutineContext = base + dispatchers.network
+        val ui: CoroutineContext = base + dispatchers.main
+        val database: CoroutineContext = base + dispatchers.database
+
+        /**
+         * The immediate version of the main dispatcher, null if it has none
+         */
+        val immediateMain: CoroutineDispatcher? by lazy(LazyThreadSafetyMode.PUBLICATION) {
+            try {
+                (dispatchers.main as? MainCoroutineDispatcher)?.immediate
+            } catch (e: UnsupportedOperationException) {
+                null
+            } catch (e: IllegalStateException) {
+                null
+            }
+        }
+    }
+
+    companion object {
+        /**
+         * Half a 60fps frame, leaving the other half for the frame itself
+         */
+        const val DEFAULT_FRAME_BUDGET_MILLIS = 8L
+    }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package com.gilgoldzweig.mvp.mvp
+
+/**
+ * What a presenter's [UiActionQueue] went through, see [BasePresenter.uiActionMetrics]
+ *
+ * @param depth actions waiting when the metrics were taken
+ * @param peakDepth the most actions that were waiting at once
+ * @param dropped actions discarded by the queue's [UiActionQueue.policy] because it was full
+ * @param conflated keyed actions replaced by a newer action with the same key before they ran
+ * @param executed queued actions that ran on the view
+ * @param averageLatencyNanos the average time between queueing an action and running it
+ * @param maxLatencyNanos the longest time between queueing an action and running it
+ */
+data class UiActionMetrics(
+    val depth: Int,
+    val peakDepth: Int,
+    val dropped: Long,
+    val conflated: Long,
+    val executed: Long,
+    val averageLatencyNanos: Long,
+    val maxLatencyNanos: Long
+)
@@ -0,0 +1,298 @@
+package com.gilgoldzweig.mvp.mvp
+
+import com.gilgoldzweig.mvp.logging.OverflowPolicy
+import com.gilgoldzweig.mvp.logging.Timber
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * The actions a [BasePresenter] holds back until its view can receive them
+ *
+ * Any thread can [offer] an action while the ui thread executes them, a bounded lock-free ring
+ * buffer (the sequence based bounded queue described by Dmitry Vyukov) so queueing from the
+ * presenter's background contexts never loses or corrupts an action nor blocks a caller
+ *
+ * An action offered with a key replaces the waiting action with the same key in its place in the
+ * queue, so repeated renders of the same state only run their latest version
+ *
+ * Unlike the `LinkedList` it replaces, a full queue drops actions, each one is counted in [metrics]
+ * and reported as a warning through [Timber]
+ *
+ * @param capacity how many actions can wait, at least 2, rounded up to a power of two
+ * @param policy what to do with a new action once [capacity] actions are waiting,
+ * [OverflowPolicy.BLOCK] is not supported since the ui thread itself offers actions
+ */
+class UiActionQueue<V : BaseContract.View>(
+    capacity: Int = DEFAULT_CAPACITY,
+    val policy: OverflowPolicy = OverflowPolicy.DROP_OLDEST
+) {
+
+    private val slots: Array<Slot<V>>
+    private val mask: Int
+
+    private val head = AtomicLong()
+    private val tail = AtomicLong()
+
+    // The waiting keyed actions, each also in a slot until it is taken.
+    private val keyed = ConcurrentHashMap<Any, Keyed<V>>()
+
+    private val dropped = AtomicLong()
+    private val conflated = AtomicLong()
+    private val executed = AtomicLong()
+    private val peakDepth = AtomicLong()
+    private val totalLatencyNanos = AtomicLong()
+    private val maxLatencyNanos = AtomicLong()
+
+    init {
+        require(capacity > 1) { "capacity < 2: $capacity" }
+        require(policy != OverflowPolicy.BLOCK) { "BLOCK would stall the ui thread offering an action" }
+        val size = Integer.highestOneBit(capacity - 1) shl 1
+        slots = Array(size) { Slot<V>(it.toLong()) }
+        mask = size - 1
+    }
+
+    /**
+     * How many actions can wait
+     */
+    val capacity: Int
+        get() = slots.size
+
+    /**
+     * How many actions are waiting, may be a few calls behind while other threads offer actions
+     */
+    val size: Int
+        get() = (tail.get() - head.get()).coerceIn(0, slots.size.toLong()).toInt()
+
+    fun isEmpty(): Boolean {
+        val position = head.get()
+        return slots[(position and mask.toLong()).toInt()].sequence != position + 1
+    }
+
+    fun isNotEmpty(): Boolean = !isEmpty()
+
+    /**
+     * Queues an action, applying the [policy] when the queue is full
+     *
+     * @return false if [action] was dropped
+     */
+    fun offer(action: V.() -> Unit): Boolean {
+        while (true) {
+            val position = tail.get()
+            val slot = slots[(position and mask.toLong()).toInt()]
+            val difference = slot.sequence - position
+            if (difference == 0L) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slot.action = action
+                    slot.enqueuedAt = System.nanoTime()
+                    slot.sequence = position + 1
+                    updatePeakDepth(position + 1 - head.get())
+                    return true
+                }
+            } else if (difference < 0L) {
+                if (policy == OverflowPolicy.DROP_NEWEST) {
+                    onDropped()
+                    return false
+                }
+                if (discardOldest()) {
+                    onDropped()
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues an action, replacing the waiting action with the same [key] if there is one
+     *
+     * An action replacing one that a full queue is dropping is dropped with it and counted as
+     * dropped, although its caller may already have been handed true
+     *
+     * @return false if [action] was dropped
+     */
+    fun offer(key: Any, action: V.() -> Unit): Boolean {
+        while (true) {
+            val waiting = keyed[key]
+            if (waiting != null) {
+                if (waiting.replace(action)) {
+                    conflated.incrementAndGet()
+                    return true
+                }
+                // Taken while we looked at it, the next action for the key gets its own place.
+                keyed.remove(key, waiting)
+                continue
+            }
+            val entry = Keyed(key, action)
+            if (keyed.putIfAbsent(key, entry) == null) {
+                if (offer(entry)) return true
+                if (take(entry) !== action) {
+                    // Replaced before it could be queued, the replacing action is dropped as well.
+                    conflated.decrementAndGet()
+                    onDropped()
+                }
+                return false
+            }
+        }
+    }
+
+    /**
+     * Takes the oldest action, without counting it as executed
+     */
+    fun poll(): (V.() -> Unit)? {
+        val position = claim()
+        if (position < 0) return null
+        val slot = slots[(position and mask.toLong()).toInt()]
+        val action = take(slot.action)
+        release(slot, position)
+        return action
+    }
+
+    /**
+     * Takes the oldest action and runs it on [view], must be called on the ui thread
+     *
+     * An action taken while there is no view is discarded, the same as one performed right away
+     *
+     * @return false if the queue was empty
+     */
+    fun executeNext(view: V?): Boolean {
+        val position = claim()
+        if (position < 0) return false
+        val slot = slots[(position and mask.toLong()).toInt()]
+        val action = take(slot.action)
+        val enqueuedAt = slot.enqueuedAt
+        release(slot, position)
+        if (view != null && action != null) {
+            onExecuted(System.nanoTime() - enqueuedAt)
+            view.action()
+        }
+        return true
+    }
+
+    /**
+     * Discards every waiting action, they are not counted as dropped
+     */
+    fun clear() {
+        while (true) {
+            val position = claim()
+            if (position < 0) return
+            val slot = slots[(position and mask.toLong()).toInt()]
+            take(slot.action)
+            release(slot, position)
+        }
+    }
+
+    /**
+     * What the queue went through since it was created
+     */
+    fun metrics(): UiActionMetrics {
+        val executedCount = executed.get()
+        return UiActionMetrics(
+            depth = size,
+            peakDepth = peakDepth.get().toInt(),
+            dropped = dropped.get(),
+            conflated = conflated.get(),
+            executed = executedCount,
+            averageLatencyNanos = if (executedCount > 0) totalLatencyNanos.get() / executedCount else 0,
+            maxLatencyNanos = maxLatencyNanos.get()
+        )
+    }
+
+    private fun onDropped() {
+        val count = dropped.incrementAndGet()
+        Timber.tag(TAG).w("Dropped a ui action with %s, %d waiting, %d dropped so far", policy, slots.size, count)
+    }
+
+    private fun onExecuted(latencyNanos: Long) {
+        executed.incrementAndGet()
+        totalLatencyNanos.addAndGet(latencyNanos)
+        var max = maxLatencyNanos.get()
+        while (latencyNanos > max && !maxLatencyNanos.compareAndSet(max, latencyNanos)) {
+            max = maxLatencyNanos.get()
+        }
+    }
+
+    private fun updatePeakDepth(depth: Long) {
+        var peak = peakDepth.get()
+        while (depth > peak && !peakDepth.compareAndSet(peak, depth)) {
+            peak = peakDepth.get()
+        }
+    }
+
+    private fun discardOldest(): Boolean {
+        val position = claim()
+        if (position < 0) return false
+        val slot = slots[(position and mask.toLong()).toInt()]
+        take(slot.action)
+        release(slot, position)
+        return true
+    }
+
+    /**
+     * The action to run for a claimed slot, a keyed action stops accepting replacements
+     */
+    private fun take(action: (V.() -> Unit)?): (V.() -> Unit)? {
+        if (action !is Keyed<*>) return action
+        @Suppress("UNCHECKED_CAST")
+        val entry = action as Keyed<V>
+        val latest = entry.action.getAndSet(null)
+        keyed.remove(entry.key, entry)
+        return latest
+    }
+
+    /**
+     * @return the claimed position or -1 if the queue is empty
+     */
+    private fun claim(): Long {
+        while (true) {
+            val position = head.get()
+            val slot = slots[(position and mask.toLong()).toInt()]
+            val difference = slot.sequence - (position + 1)
+            if (difference == 0L) {
+                if (head.compareAndSet(position, position + 1)) {
+                    return position
+                }
+            } else if (difference < 0L) {
+                return -1
+            }
+        }
+    }
+
+    private fun release(slot: Slot<V>, position: Long) {
+        slot.action = null
+        slot.sequence = position + slots.size
+    }
+
+    /**
+     * A reusable slot, owned by a producer or a consumer based on its sequence
+     */
+    private class Slot<V>(@Volatile var sequence: Long) {
+        var action: (V.() -> Unit)? = null
+        var enqueuedAt: Long = 0
+    }
+
+    /**
+     * A keyed action, replaced in place until it is taken from its slot
+     */
+    private class Keyed<V>(val key: Any, action: V.() -> Unit) : (V) -> Unit {
+        val action = AtomicReference<(V.() -> Unit)?>(action)
+
+        /**
+         * @return false if the action was already taken
+         */
+        fun replace(newAction: V.() -> Unit): Boolean {
+            while (true) {
+                val current = action.get() ?: return false
+                if (action.compareAndSet(current, newAction)) return true
+            }
+        }
+
+        override fun invoke(view: V) {
+            action.get()?.invoke(view)
+        }
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 128
+
+        private const val TAG = "UiActionQueue"
+    }
+}
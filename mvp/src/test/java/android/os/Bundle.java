@@ -0,0 +1,110 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stands in for the mockable {@code android.os.Bundle}, whose methods throw in unit tests, with
+ * the calls {@link com.gilgoldzweig.mvp.analytics.Bundlify} makes kept in a map.
+ */
+public final class Bundle {
+
+    private final Map<String, Object> map = new LinkedHashMap<>();
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    public void putString(String key, String value) {
+        map.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        map.put(key, value);
+    }
+
+    public void putBoolean(String key, boolean value) {
+        map.put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        map.put(key, value);
+    }
+
+    public void putParcelable(String key, Parcelable value) {
+        map.put(key, value);
+    }
+
+    public void putParcelableArray(String key, Parcelable[] value) {
+        map.put(key, value);
+    }
+
+    public void putParcelableArrayList(String key, ArrayList<? extends Parcelable> value) {
+        map.put(key, value);
+    }
+
+    public String getString(String key) {
+        return (String) map.get(key);
+    }
+
+    public String[] getStringArray(String key) {
+        return (String[]) map.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayList(String key) {
+        return (ArrayList<String>) map.get(key);
+    }
+
+    public int getInt(String key) {
+        Object value = map.get(key);
+        return value instanceof Integer ? (Integer) value : 0;
+    }
+
+    public long getLong(String key) {
+        Object value = map.get(key);
+        return value instanceof Long ? (Long) value : 0L;
+    }
+
+    public boolean getBoolean(String key) {
+        Object value = map.get(key);
+        return value instanceof Boolean && (Boolean) value;
+    }
+
+    public float getFloat(String key) {
+        Object value = map.get(key);
+        return value instanceof Float ? (Float) value : 0f;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelable(String key) {
+        return (T) map.get(key);
+    }
+
+    public Parcelable[] getParcelableArray(String key) {
+        return (Parcelable[]) map.get(key);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> ArrayList<T> getParcelableArrayList(String key) {
+        return (ArrayList<T>) map.get(key);
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle[" + map + "]";
+    }
+}
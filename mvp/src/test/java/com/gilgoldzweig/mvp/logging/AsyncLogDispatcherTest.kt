@@ -0,0 +1,175 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Queues records from one or more threads into an [AsyncLogDispatcher] and checks what its drainer delivers
+ */
+class AsyncLogDispatcherTest {
+
+	private val tree = BlockingTree()
+
+	@After
+	fun release() {
+		tree.release.countDown()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that records from a single thread are delivered once each, in the order they were queued
+	 */
+	@Test
+	fun testOrdering() {
+		tree.release.countDown()
+		val dispatcher = AsyncLogDispatcher(64, OverflowPolicy.BLOCK, tree)
+		dispatcher.start()
+
+		repeat(10_000) { assertTrue(dispatcher.enqueue(record("$it"))) }
+		dispatcher.shutdown()
+
+		assertEquals((0 until 10_000).map { "$it" }, tree.messages())
+		assertEquals(0, dispatcher.droppedCount())
+	}
+
+	/**
+	 * Checks that a full buffer rejects the new records with [OverflowPolicy.DROP_NEWEST]
+	 */
+	@Test
+	fun testDropNewest() {
+		val dispatcher = AsyncLogDispatcher(8, OverflowPolicy.DROP_NEWEST, tree)
+		dispatcher.start()
+		stallDrainer(dispatcher)
+
+		repeat(20) { assertEquals(it < 8, dispatcher.enqueue(record("$it"))) }
+		tree.release.countDown()
+		dispatcher.shutdown()
+
+		assertEquals(listOf("stall") + (0 until 8).map { "$it" }, tree.messages())
+		assertEquals(12, dispatcher.droppedCount())
+	}
+
+	/**
+	 * Checks that a full buffer makes room for the new records with [OverflowPolicy.DROP_OLDEST]
+	 */
+	@Test
+	fun testDropOldest() {
+		val dispatcher = AsyncLogDispatcher(8, OverflowPolicy.DROP_OLDEST, tree)
+		dispatcher.start()
+		stallDrainer(dispatcher)
+
+		repeat(20) { assertTrue(dispatcher.enqueue(record("$it"))) }
+		tree.release.countDown()
+		dispatcher.shutdown()
+
+		assertEquals(listOf("stall") + (12 until 20).map { "$it" }, tree.messages())
+		assertEquals(12, dispatcher.droppedCount())
+	}
+
+	/**
+	 * Checks that producers outpacing the drainer wait for room with [OverflowPolicy.BLOCK],
+	 * losing nothing and keeping each producer's order
+	 */
+	@Test
+	fun testBlockUnderContention() {
+		tree.release.countDown()
+		val dispatcher = AsyncLogDispatcher(16, OverflowPolicy.BLOCK, tree)
+		dispatcher.start()
+		val producers = 4
+		val recordsPerProducer = 5_000
+
+		(0 until producers).map { producer ->
+			thread {
+				repeat(recordsPerProducer) { assertTrue(dispatcher.enqueue(record("$producer:$it"))) }
+			}
+		}.forEach { it.join() }
+		dispatcher.shutdown()
+
+		val messages = tree.messages()
+		assertEquals(producers * recordsPerProducer, messages.size)
+		for (producer in 0 until producers) {
+			assertEquals((0 until recordsPerProducer).map { "$producer:$it" }, messages.filter { it.startsWith("$producer:") })
+		}
+		assertEquals(0, dispatcher.droppedCount())
+	}
+
+	/**
+	 * Checks that [AsyncLogDispatcher.flush] returns only once everything queued before it was delivered
+	 */
+	@Test
+	fun testFlush() {
+		tree.release.countDown()
+		val dispatcher = AsyncLogDispatcher(1024, OverflowPolicy.BLOCK, tree)
+		dispatcher.start()
+
+		repeat(1_000) { dispatcher.enqueue(record("$it")) }
+		dispatcher.flush()
+
+		assertEquals(1_000, tree.lines().size)
+		dispatcher.shutdown()
+	}
+
+	/**
+	 * Checks that an uncaught exception flushes the queue before reaching the previous handler,
+	 * which is restored on shutdown
+	 */
+	@Test
+	fun testFlushOnUncaughtException() {
+		val original = Thread.getDefaultUncaughtExceptionHandler()
+		var deliveredBeforeHandler = -1
+		val previous = Thread.UncaughtExceptionHandler { _, _ -> deliveredBeforeHandler = tree.lines().size }
+		Thread.setDefaultUncaughtExceptionHandler(previous)
+		try {
+			Timber.plant(tree)
+			val dispatcher = AsyncLogDispatcher(1024, OverflowPolicy.BLOCK)
+			dispatcher.start()
+			stallDrainer(dispatcher)
+
+			repeat(100) { dispatcher.enqueue(record("$it")) }
+			val crashing = thread {
+				tree.release.countDown()
+				throw IllegalStateException("crash")
+			}
+			crashing.join()
+
+			assertEquals(101, deliveredBeforeHandler)
+			dispatcher.shutdown()
+			assertSame(previous, Thread.getDefaultUncaughtExceptionHandler())
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler(original)
+		}
+	}
+
+	/**
+	 * Hands the drainer a record it blocks on until [BlockingTree.release] is counted down
+	 */
+	private fun stallDrainer(dispatcher: AsyncLogDispatcher) {
+		dispatcher.enqueue(record("stall"))
+		assertTrue(tree.entered.await(1, TimeUnit.SECONDS))
+		assertFalse(tree.release.count == 0L)
+	}
+
+	private fun record(message: String) = LogRecord(Log.DEBUG, null, message, LogRecord.NO_ARGS)
+
+	/**
+	 * Blocks in its first [log] call until [release] is counted down
+	 */
+	class BlockingTree : RecordingTree() {
+		val entered = CountDownLatch(1)
+		val release = CountDownLatch(1)
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			entered.countDown()
+			release.await()
+			super.log(priority, tag, message, t)
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Pair
+import com.gilgoldzweig.mvp.analytics.Bundlify
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Logs through a planted [Timber.DebugTree] and checks the lines it prints against what it printed
+ * before events were rendered in pooled builders
+ */
+class DebugTreeTest {
+
+	@Before
+	fun plant() {
+		Logcat.take()
+		Timber.plant(Timber.DebugTree())
+	}
+
+	@After
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that a message shorter than the limit is printed as is, and one reaching it is split
+	 */
+	@Test
+	fun testShortMessage() {
+		Timber.tag("Tag").i("a".repeat(3999))
+		Timber.tag("Tag").i("b".repeat(4000))
+
+		assertEquals(listOf("I/Tag: ${"a".repeat(3999)}", "I/Tag: ${"b".repeat(4000)}"), Logcat.take())
+	}
+
+	/**
+	 * Checks that a long message is split by line, then every line into parts of at most 4000 chars
+	 */
+	@Test
+	fun testLongMessageChunked() {
+		Timber.tag("Tag").w("a".repeat(4500) + "\n" + "b".repeat(10) + "\n\n" + "c".repeat(8000))
+
+		assertEquals(listOf(
+			"W/Tag: ${"a".repeat(4000)}",
+			"W/Tag: ${"a".repeat(500)}",
+			"W/Tag: ${"b".repeat(10)}",
+			"W/Tag: ",
+			"W/Tag: ${"c".repeat(4000)}",
+			"W/Tag: ${"c".repeat(4000)}"
+		), Logcat.take())
+	}
+
+	/**
+	 * Checks that assertions are printed through `wtf`, chunked the same way
+	 */
+	@Test
+	fun testAssertChunked() {
+		Timber.tag("Tag").wtf("short")
+		Timber.tag("Tag").wtf("d".repeat(4001))
+
+		assertEquals(listOf("A/Tag: short", "A/Tag: ${"d".repeat(4000)}", "A/Tag: d"), Logcat.take())
+	}
+
+	/**
+	 * Checks that events with and without arguments are printed at debug as they were before
+	 */
+	@Test
+	fun testEvent() {
+		Timber.event(NamedEvent("opened"))
+		Timber.event(NamedEvent("clicked"), param("id", 42), param("label", "50% off"))
+
+		assertEquals(listOf(
+			"D/DebugTreeTest: event: opened",
+			"D/DebugTreeTest: event: clicked args: [Pair(id, 42), Pair(label, 50% off)]"
+		), Logcat.take())
+	}
+
+	/**
+	 * Checks that events with an empty and a filled [Bundlify] are printed at debug as they were before
+	 */
+	@Test
+	fun testBundlifyEvent() {
+		Timber.event(NamedEvent("opened"), Bundlify())
+		Timber.event(NamedEvent("clicked"), Bundlify().put("id", 42).put("label", "50% off"))
+
+		assertEquals(listOf(
+			"D/DebugTreeTest: event: opened",
+			"D/DebugTreeTest: event: clicked args: Bundle[{id=42, label=50% off}]"
+		), Logcat.take())
+	}
+
+	private fun param(name: String, value: Any) = Pair<EventParameter, Any>(NamedEvent(name), value)
+}
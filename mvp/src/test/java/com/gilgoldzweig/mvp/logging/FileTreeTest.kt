@@ -0,0 +1,117 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import com.gilgoldzweig.mvp.models.threads.CoroutineDispatchers
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.FileInputStream
+import java.util.concurrent.Executor
+import java.util.zip.GZIPInputStream
+
+/**
+ * Writes lines with [FileTree] and reads back the current and rotated files
+ */
+class FileTreeTest {
+
+	@get:Rule
+	val folder = TemporaryFolder()
+
+	private val immediate = Executor { it.run() }.asCoroutineDispatcher()
+
+	/**
+	 * Checks that full files are rotated and gzipped without losing or reordering a line,
+	 * leaving alone the files of a tree whose name starts with this one's
+	 */
+	@Test
+	fun testRotationAndGzip() {
+		val other = File(folder.root, "app-net-20200101-000000-000.log").apply { writeText("other") }
+		val tree = fileTree(immediate, diskBudget = 1024 * 1024)
+
+		repeat(1_000) { tree.prepareLog(LogRecord(Log.INFO, null, "message %d", arrayOf(it)), "Rotating") }
+		tree.close()
+
+		val rotated = rotatedFiles()
+		assertTrue(rotated.size > 5)
+		assertTrue(rotated.all { it.name.endsWith(".log.gz") })
+		assertEquals((0 until 1_000).map { "I/Rotating: message $it" }, readLines().map { it.substring(24) })
+		assertEquals("other", other.readText())
+	}
+
+	/**
+	 * Checks that the oldest rotated files are deleted to keep the directory under the disk budget
+	 */
+	@Test
+	fun testDiskBudget() {
+		val tree = fileTree(immediate, diskBudget = 3 * MAX_FILE_SIZE)
+
+		repeat(20_000) { tree.prepareLog(LogRecord(Log.INFO, null, "message %d", arrayOf(it)), "Budget") }
+		tree.close()
+
+		assertTrue(MAX_FILE_SIZE + rotatedFiles().map { it.length() }.sum() <= 3 * MAX_FILE_SIZE)
+		val lines = readLines()
+		assertTrue(lines.size < 20_000)
+		assertTrue(lines.last().endsWith("I/Budget: message 19999"))
+	}
+
+	/**
+	 * Checks that lines stay in the buffer until one at the flush priority comes in
+	 */
+	@Test
+	fun testFlushOnWarn() {
+		val tree = fileTree(immediate, diskBudget = 1024 * 1024)
+		val file = File(folder.root, "app.log")
+
+		tree.prepareLog(LogRecord(Log.DEBUG, null, "buffered", LogRecord.NO_ARGS), "Flush")
+		assertEquals(0, file.length())
+		tree.prepareLog(LogRecord(Log.WARN, null, "flushed", LogRecord.NO_ARGS), "Flush")
+
+		assertEquals(listOf("D/Flush: buffered", "W/Flush: flushed"), file.readLines().map { it.substring(24) })
+		tree.close()
+	}
+
+	/**
+	 * Checks that compressions still waiting for the disk dispatcher are cancelled by [FileTree.close]
+	 */
+	@Test
+	fun testCloseCancelsCompression() {
+		val pending = ArrayList<Runnable>()
+		val tree = fileTree(Executor { pending += it }.asCoroutineDispatcher(), diskBudget = 1024 * 1024)
+
+		repeat(1_000) { tree.prepareLog(LogRecord(Log.INFO, null, "message %d", arrayOf(it)), "Closing") }
+		tree.close()
+		pending.forEach { it.run() }
+
+		assertTrue(rotatedFiles().isNotEmpty())
+		assertTrue(rotatedFiles().none { it.name.endsWith(".gz") })
+	}
+
+	private fun fileTree(disk: CoroutineDispatcher, diskBudget: Long) = FileTree(
+		folder.root,
+		CoroutineDispatchers(disk = disk, main = immediate, new = immediate),
+		"app",
+		MAX_FILE_SIZE,
+		Long.MAX_VALUE,
+		diskBudget,
+		Log.WARN,
+		1024
+	)
+
+	private fun rotatedFiles(): List<File> =
+		folder.root.listFiles().orEmpty().filter { it.name.startsWith("app-2") }.sortedBy { it.name }
+
+	/**
+	 * Every line of the rotated files, oldest first, then of the current file
+	 */
+	private fun readLines(): List<String> = rotatedFiles().flatMap { file ->
+		GZIPInputStream(FileInputStream(file)).bufferedReader().use { it.readLines() }
+	} + File(folder.root, "app.log").readLines()
+
+	private companion object {
+		const val MAX_FILE_SIZE = 4096L
+	}
+}
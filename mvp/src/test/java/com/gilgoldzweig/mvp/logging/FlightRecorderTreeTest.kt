@@ -0,0 +1,50 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Writes records of random sizes to a [FlightRecorderTree] and reads them back with [FlightRecorderTree.dump]
+ */
+class FlightRecorderTreeTest {
+
+	/**
+	 * Checks that after the ring wrapped many times the dump holds the newest records, oldest first
+	 */
+	@Test
+	fun testKeepsNewestRecords() {
+		val tree = FlightRecorderTree(4 * 1024, 0)
+		val random = Random(42)
+		val written = ArrayList<String>()
+
+		repeat(10_000) { index ->
+			val message = "$index:" + "x".repeat(random.nextInt(300)) + if (index % 7 == 0) "é中" else ""
+			tree.log(LogRecord(Log.DEBUG, null, message, LogRecord.NO_ARGS), if (index % 3 == 0) null else "Tag")
+			written.add(message)
+		}
+
+		val lines = tree.dump().lines().filter { it.isNotEmpty() }
+		assertTrue(lines.size > 10)
+		lines.forEachIndexed { index, line ->
+			assertEquals(written[written.size - lines.size + index], line.substringAfter(": "))
+		}
+	}
+
+	/**
+	 * Checks that records older than maxAgeMillis are left out of snapshots
+	 */
+	@Test
+	fun testMaxAge() {
+		val tree = FlightRecorderTree(4 * 1024, 50)
+		tree.log(Log.INFO, "Tag", "old", null)
+		Thread.sleep(100)
+		tree.log(Log.INFO, "Tag", "new", null)
+
+		val lines = tree.dump().lines().filter { it.isNotEmpty() }
+		assertEquals(1, lines.size)
+		assertTrue(lines[0].endsWith(" I/Tag: new"))
+	}
+}
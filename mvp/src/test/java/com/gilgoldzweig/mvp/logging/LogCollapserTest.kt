@@ -0,0 +1,113 @@
+package com.gilgoldzweig.mvp.logging
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Logs repeated calls with [Timber.enableCollapsing] and checks what reaches a planted tree
+ */
+class LogCollapserTest {
+
+	private val tree = ReportTree()
+
+	@After
+	fun uproot() {
+		Timber.disableCollapsing()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that a different call ends the run, reported before it with the run's priority and tag
+	 */
+	@Test
+	fun testRunEnd() {
+		Timber.plant(tree)
+		Timber.enableCollapsing()
+
+		repeat(4) { Timber.tag("Tag").w("same %d", 1) }
+		Timber.tag("Tag").w("same %d", 2)
+		Timber.tag("Other").w("same %d", 2)
+		Timber.tag("Other").e(IllegalStateException("boom"), "failed")
+		Timber.tag("Other").e(IllegalStateException("boom"), "failed")
+
+		assertEquals(listOf(
+			"W/Tag: same 1",
+			"W/Tag: previous message repeated 3 more times",
+			"W/Tag: same 2",
+			"W/Other: same 2",
+			"E/Other: failed",
+			"E/Other: failed"
+		), tree.lines().map { it.substringBefore('\n') })
+	}
+
+	/**
+	 * Checks that a run still going on is reported every timeout, and not again once a different call ends it
+	 */
+	@Test
+	fun testTimeoutReported() {
+		Timber.plant(tree)
+		Timber.enableCollapsing(200)
+
+		repeat(3) { Timber.d("same") }
+		assertTrue(tree.reported[0].await(5, TimeUnit.SECONDS))
+		repeat(2) { Timber.d("same") }
+		assertTrue(tree.reported[1].await(5, TimeUnit.SECONDS))
+		Timber.d("different")
+
+		assertEquals(listOf(
+			"D/null: same",
+			"D/null: previous message repeated 2 more times",
+			"D/null: previous message repeated 2 more times",
+			"D/null: different"
+		), tree.lines())
+	}
+
+	/**
+	 * Checks that disabling collapsing reports the current run, and calls are all logged afterwards
+	 */
+	@Test
+	fun testStop() {
+		Timber.plant(tree)
+		Timber.enableCollapsing()
+
+		repeat(3) { Timber.i("same") }
+		Timber.disableCollapsing()
+		Timber.i("same")
+
+		assertEquals(listOf("I/null: same", "I/null: previous message repeated 2 more times", "I/null: same"), tree.lines())
+	}
+
+	/**
+	 * Checks that the previous call is shared by all threads
+	 */
+	@Test
+	fun testGlobal() {
+		Timber.plant(tree)
+		Timber.enableCollapsing()
+
+		thread { Timber.i("same") }.join()
+		Timber.i("same")
+		Timber.i("different")
+
+		assertEquals(listOf("I/null: same", "I/null: previous message repeated 1 more times", "I/null: different"), tree.lines())
+	}
+
+	/**
+	 * Counts down [reported] once for each repeat report it logs
+	 */
+	class ReportTree : RecordingTree() {
+		val reported = List(2) { CountDownLatch(1) }
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			super.log(priority, tag, message, t)
+			if (message.startsWith("previous message repeated")) {
+				reported.firstOrNull { it.count > 0 }?.countDown()
+			}
+		}
+	}
+}
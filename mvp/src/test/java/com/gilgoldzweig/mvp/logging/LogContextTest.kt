@@ -0,0 +1,111 @@
+package com.gilgoldzweig.mvp.logging
+
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withContext
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.util.concurrent.Executors
+import kotlin.concurrent.thread
+
+/**
+ * Logs from coroutines running with a [LogContext] and checks the tag and pairs each record carries
+ */
+class LogContextTest {
+
+	private val tree = RecordingTree()
+	private val first = Executors.newSingleThreadExecutor()
+	private val second = Executors.newSingleThreadExecutor()
+
+	@After
+	fun uproot() {
+		Timber.uprootAll()
+		first.shutdown()
+		second.shutdown()
+	}
+
+	/**
+	 * Checks that the context follows the coroutine across suspension points and threads,
+	 * and is gone from the threads once the coroutine left them
+	 */
+	@Test
+	fun testFollowsCoroutine() {
+		Timber.plant(tree)
+
+		runBlocking(first.asCoroutineDispatcher()) {
+			withLogContext("Ctx", "id" to 1) {
+				Timber.d("before")
+				delay(10)
+				withContext(second.asCoroutineDispatcher()) {
+					Timber.d("switched")
+				}
+				Timber.d("after")
+			}
+			Timber.d("outside")
+		}
+		first.submit { Timber.d("first") }.get()
+		second.submit { Timber.d("second") }.get()
+
+		assertEquals(listOf(
+			"D/Ctx: before [id=1]",
+			"D/Ctx: switched [id=1]",
+			"D/Ctx: after [id=1]",
+			"D/null: outside",
+			"D/null: first",
+			"D/null: second"
+		), tree.lines())
+	}
+
+	/**
+	 * Checks that a nested [withLogContext] extends the outer context only for its block
+	 */
+	@Test
+	fun testNested() {
+		Timber.plant(tree)
+
+		runBlocking(first.asCoroutineDispatcher()) {
+			withLogContext("Outer", "id" to 1) {
+				withLogContext(values = *arrayOf("id" to 2, "user" to "u")) {
+					Timber.d("inner")
+				}
+				Timber.d("outer")
+			}
+		}
+
+		assertEquals(listOf("D/Outer: inner [id=2, user=u]", "D/Outer: outer [id=1]"), tree.lines())
+	}
+
+	/**
+	 * Checks that [Timber.tag] wins over the context's tag, the pairs are still appended
+	 */
+	@Test
+	fun testExplicitTagWins() {
+		Timber.plant(tree)
+
+		runBlocking(first.asCoroutineDispatcher()) {
+			withLogContext("Ctx", "id" to 1) {
+				Timber.tag("Tag").d("explicit")
+			}
+		}
+
+		assertEquals(listOf("D/Tag: explicit [id=1]"), tree.lines())
+	}
+
+	/**
+	 * Checks [LogContext.extend] and the lookups of the resulting context
+	 */
+	@Test
+	fun testExtend() {
+		val context = LogContext("Tag", "a" to 1).extend(null, "b" to 2, "a" to 3)
+
+		assertEquals("Tag", context.tag)
+		assertEquals(2, context.size)
+		assertEquals(3, context["a"])
+		assertNull(context["c"])
+		assertEquals("[a=3, b=2]", context.formatPairs())
+		thread { assertNull(Timber.currentLogContext()) }.join()
+	}
+}
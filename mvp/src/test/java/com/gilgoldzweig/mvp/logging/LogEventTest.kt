@@ -0,0 +1,153 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Test
+import java.util.*
+
+/**
+ * Makes structured log calls with [Timber.at] and checks which event they reuse and the fields
+ * the trees receive
+ */
+class LogEventTest {
+
+	private val tree = FieldsTree()
+
+	@After
+	fun uproot() {
+		Timber.disableAsync()
+		Timber.disableIsolation()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that the calling thread's event is reused once logged, without the previous call's
+	 * fields, tag or exception
+	 */
+	@Test
+	fun testReused() {
+		Timber.plant(tree)
+
+		val first = Timber.at(Log.INFO)
+		first.tag("Tag").kv("count", 1).error(IllegalStateException()).log("first")
+		val second = Timber.at(Log.INFO)
+		second.kv("done", true).log("second")
+
+		assertSame(first, second)
+		assertEquals(listOf("I/Tag: first count=1", "I/null: second done=true"), tree.lines().map { it.substringBefore('\n') })
+	}
+
+	/**
+	 * Checks that a structured log call made while computing a field of another one gets its own
+	 * event, and the thread's event is reused again afterwards
+	 */
+	@Test
+	fun testNestedAt() {
+		Timber.plant(tree)
+
+		Timber.at(Log.INFO).kv("before", 1).kv("nested", nested()).kv("after", 3).log("outer")
+		val event = Timber.at(Log.INFO)
+		event.log("next")
+
+		assertSame(event, Timber.at(Log.INFO))
+		assertEquals(listOf("I/null: inner inner=2", "I/null: outer before=1 nested=2 after=3", "I/null: next"), tree.lines())
+	}
+
+	/**
+	 * Checks that an event whose call threw before [LogEvent.log] is replaced once, without
+	 * its fields reaching the next call
+	 */
+	@Test
+	fun testThrowingFieldReplaced() {
+		Timber.plant(tree)
+
+		try {
+			Timber.at(Log.INFO).kv("before", 1).kv("failed", fail()).log("lost")
+		} catch (expected: IllegalStateException) {
+		}
+		val event = Timber.at(Log.INFO)
+		event.kv("after", 2).log("next")
+
+		assertSame(event, Timber.at(Log.INFO))
+		assertEquals(listOf("I/null: next after=2"), tree.lines())
+	}
+
+	/**
+	 * Checks that trees logging on the async drainer get a copy of the fields the calling thread reuses
+	 */
+	@Test
+	fun testFieldsCopiedWhenAsync() {
+		Timber.plant(tree)
+		Timber.enableAsync(16, OverflowPolicy.BLOCK)
+
+		logEvents()
+		Timber.flush()
+
+		assertEvents()
+	}
+
+	/**
+	 * Checks that trees logging on their isolated lanes get a copy of the fields the calling thread reuses
+	 */
+	@Test
+	fun testFieldsCopiedWhenIsolated() {
+		Timber.plant(tree)
+		Timber.enableIsolation(16, 1_000)
+
+		logEvents()
+		Timber.flush()
+
+		assertEvents()
+	}
+
+	/**
+	 * Checks that a call no tree is interested in gets the shared disabled event, which ignores
+	 * everything and consumes the pending tag
+	 */
+	@Test
+	fun testDisabled() {
+		tree.setMinPriority(Log.WARN)
+		Timber.plant(tree)
+
+		Timber.tag("Lost")
+		val event = Timber.at(Log.DEBUG)
+		event.tag("Tag").kv("count", 1).kv("name", "name").error(IllegalStateException()).log("disabled")
+		Timber.w("next")
+
+		assertSame(LogEvent.DISABLED, event)
+		assertEquals(listOf("W/null: next"), tree.lines())
+		assertEquals(listOf(null), tree.fields)
+	}
+
+	private fun nested(): Int {
+		Timber.at(Log.INFO).kv("inner", 2).log("inner")
+		return 2
+	}
+
+	private fun fail(): Int = throw IllegalStateException()
+
+	private fun logEvents() {
+		Timber.at(Log.INFO).kv("count", 1).kv("name", "first").log("first")
+		Timber.at(Log.INFO).kv("count", 2).log("second")
+	}
+
+	private fun assertEvents() {
+		assertEquals(listOf("I/null: first count=1 name=first", "I/null: second count=2"), tree.lines())
+		assertEquals(listOf(mapOf("count" to 1L, "name" to "first"), mapOf("count" to 2L)), tree.fields.map { it!!.toMap() })
+	}
+
+	private fun LogFields.toMap() = (0 until size()).associate { getKey(it) to getValue(it) }
+
+	/**
+	 * Keeps the fields of every record it logs, as they are when it gets them
+	 */
+	class FieldsTree : RecordingTree() {
+		val fields: MutableList<LogFields?> = Collections.synchronizedList(ArrayList<LogFields?>())
+
+		override fun log(record: LogRecord, tag: String?) {
+			fields += record.fields
+			super.log(record, tag)
+		}
+	}
+}
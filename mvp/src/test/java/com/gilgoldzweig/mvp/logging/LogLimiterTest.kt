@@ -0,0 +1,121 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+/**
+ * Rate limits and samples calls through a [LogLimiter] and checks what it lets through and reports
+ */
+class LogLimiterTest {
+
+	private val tree = RecordingTree()
+
+	@After
+	fun uproot() {
+		Timber.clearLimits()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that a burst goes through at once and that tokens are then refilled at the set rate, up to the burst
+	 */
+	@Test
+	fun testTokenBucket() {
+		val limiter = LogLimiter()
+		limiter.setRateLimit("Tag", Log.DEBUG, 10.0, 3)
+		val start = 1_000_000_000L
+
+		assertEquals(listOf(true, true, true, false), List(4) { limiter.tryAcquire("Tag", Log.DEBUG, start) })
+		assertFalse(limiter.tryAcquire("Tag", Log.DEBUG, start + SECOND / 20))
+		assertTrue(limiter.tryAcquire("Tag", Log.DEBUG, start + SECOND / 10))
+		assertEquals(3, List(10) { limiter.tryAcquire("Tag", Log.DEBUG, start + 10 * SECOND) }.count { it })
+		assertTrue(limiter.tryAcquire("Tag", Log.INFO, start))
+		assertTrue(limiter.tryAcquire("Other", Log.DEBUG, start))
+	}
+
+	/**
+	 * Checks that a rule for any tag gives each tag its own bucket and that calls without a tag share one
+	 */
+	@Test
+	fun testAnyTagRule() {
+		val limiter = LogLimiter()
+		limiter.setRateLimit(null, Log.DEBUG, 1.0, 2)
+
+		for (tag in listOf("A", "B", null)) {
+			assertEquals(listOf(true, true, false), List(3) { limiter.tryAcquire(tag, Log.DEBUG, 0) })
+		}
+		assertFalse(limiter.hasTagRules(Log.DEBUG))
+		limiter.setRateLimit("A", Log.DEBUG, 1.0, 1)
+		assertTrue(limiter.hasTagRules(Log.DEBUG))
+		assertFalse(limiter.hasTagRules(Log.INFO))
+	}
+
+	/**
+	 * Checks that about the sample rate of the calls is let through
+	 */
+	@Test
+	fun testSampling() {
+		val limiter = LogLimiter()
+		limiter.setSampleRate("Sampled", Log.INFO, 0.25)
+		limiter.setSampleRate("Never", Log.INFO, 0.0)
+
+		val passed = List(10_000) { limiter.tryAcquire("Sampled", Log.INFO, 0) }.count { it }
+
+		assertTrue("$passed", passed in 2_300..2_700)
+		assertFalse(limiter.tryAcquire("Never", Log.INFO, 0))
+	}
+
+	/**
+	 * Checks that suppressed calls are reported once per interval, by tag and priority, and not again
+	 */
+	@Test
+	fun testReportTiming() {
+		Timber.plant(tree)
+		val limiter = LogLimiter(100)
+		limiter.setRateLimit(null, Log.WARN, 1.0, 1)
+		val start = System.nanoTime()
+		limiter.start()
+
+		repeat(5) { limiter.tryAcquire("Tag", Log.WARN) }
+		repeat(3) { limiter.tryAcquire(null, Log.WARN) }
+		while (tree.lines().size < 2 && System.nanoTime() - start < SECOND) Thread.sleep(5)
+		val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+		Thread.sleep(250)
+		limiter.stop()
+
+		assertTrue("$elapsedMillis", elapsedMillis >= 100)
+		assertEquals(setOf("W/Tag: suppressed 4 messages from Tag", "W/null: suppressed 2 untagged messages"), tree.lines().toSet())
+		assertEquals(2, tree.lines().size)
+	}
+
+	/**
+	 * Checks that calls without a tag are only tagged from the stack while a rule for a specific tag is set
+	 */
+	@Test
+	fun testCallerTagOnlyForTagRules() {
+		Timber.plant(tree)
+
+		Timber.setRateLimit(null, Log.DEBUG, 1.0, 1)
+		repeat(3) { Timber.d("any") }
+		Timber.clearLimits()
+		Timber.setRateLimit("LogLimiterTest", Log.DEBUG, 1.0, 1)
+		repeat(3) { Timber.d("tagged") }
+		Timber.clearLimits()
+
+		assertEquals(listOf(
+			"D/null: any",
+			"D/null: suppressed 2 untagged messages",
+			"D/null: tagged",
+			"D/LogLimiterTest: suppressed 2 messages from LogLimiterTest"
+		), tree.lines())
+	}
+
+	private companion object {
+		val SECOND = TimeUnit.SECONDS.toNanos(1)
+	}
+}
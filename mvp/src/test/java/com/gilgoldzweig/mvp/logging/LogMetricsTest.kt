@@ -0,0 +1,83 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+/**
+ * Logs with metrics enabled and checks the counters read back from [Timber.getMetrics]
+ */
+class LogMetricsTest {
+
+	@After
+	fun uproot() {
+		Timber.disableAsync()
+		Timber.disableMetrics()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that records are counted by priority and by tag, untagged ones as `(none)`
+	 */
+	@Test
+	fun testRecordCounts() {
+		val metrics = LogMetrics()
+
+		metrics.onRecord(Log.DEBUG, "A")
+		metrics.onRecord(Log.DEBUG, "A")
+		metrics.onRecord(Log.ERROR, null)
+		val snapshot = metrics.snapshot()
+
+		assertEquals(2, snapshot.getRecords(Log.DEBUG))
+		assertEquals(1, snapshot.getRecords(Log.ERROR))
+		assertEquals(3, snapshot.totalRecords)
+		assertEquals(mapOf("A" to 2L, "(none)" to 1L), snapshot.recordsByTag)
+	}
+
+	/**
+	 * Checks that a record is counted under the same tag whether it is delivered on the calling thread or queued,
+	 * including the tag a [Timber.DebugTree] infers
+	 */
+	@Test
+	fun testSameTagSyncAndAsync() {
+		Timber.plant(Timber.DebugTree())
+		Timber.enableMetrics()
+
+		Timber.d("sync")
+		Timber.tag("Tag").d("sync")
+		Timber.enableAsync(16, OverflowPolicy.BLOCK)
+		Timber.d("async")
+		Timber.tag("Tag").d("async")
+		Timber.flush()
+
+		assertEquals(mapOf("LogMetricsTest" to 2L, "Tag" to 2L), Timber.getMetrics()!!.recordsByTag)
+	}
+
+	/**
+	 * Checks that the default [Timber.Tree.log] counts the UTF-8 bytes of the message, not its chars
+	 */
+	@Test
+	fun testBytesEmitted() {
+		Timber.plant(RecordingTree())
+		Timber.enableMetrics()
+
+		Timber.tag("Tag").i("héllo 中")
+
+		assertEquals("héllo 中".toByteArray(Charsets.UTF_8).size.toLong(), Timber.getMetrics()!!.bytesEmitted)
+		Timber.disableMetrics()
+		assertNull(Timber.getMetrics())
+	}
+
+	/**
+	 * Checks [LogMetrics.utf8Length] against the encoder, with a lone surrogate counted as one byte
+	 */
+	@Test
+	fun testUtf8Length() {
+		listOf("", "ascii", "é", "中文", "😀", "aÿࠀ￿").forEach {
+			assertEquals(it, it.toByteArray(Charsets.UTF_8).size.toLong(), LogMetrics.utf8Length(it))
+		}
+		assertEquals(2, LogMetrics.utf8Length("\uD83Da"))
+	}
+}
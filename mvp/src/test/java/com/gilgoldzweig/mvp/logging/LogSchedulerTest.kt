@@ -0,0 +1,31 @@
+package com.gilgoldzweig.mvp.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+/**
+ * Runs work on [LogScheduler]'s shared thread
+ */
+class LogSchedulerTest {
+
+	/**
+	 * Checks that every caller shares one daemon thread, which runs delayed work no earlier than asked
+	 */
+	@Test
+	fun testSingleDaemonThread() {
+		val scheduler = LogScheduler.get()
+		val start = System.nanoTime()
+
+		val thread = scheduler.schedule<Thread>({ Thread.currentThread() }, 50, TimeUnit.MILLISECONDS).get()
+		val elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+		assertSame(scheduler, LogScheduler.get())
+		assertEquals("Timber-scheduler", thread.name)
+		assertTrue(thread.isDaemon)
+		assertTrue("$elapsedMillis", elapsedMillis >= 50)
+		assertSame(thread, scheduler.submit<Thread> { Thread.currentThread() }.get())
+	}
+}
@@ -0,0 +1,86 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * Writes records with [LogStoreTree] and reads them back with [LogStoreTree.query]
+ */
+class LogStoreTreeTest {
+
+	@get:Rule
+	val folder = TemporaryFolder()
+
+	/**
+	 * Checks that queries filter by tag, time range and priority, across segments and after reopening
+	 */
+	@Test
+	fun testQuery() {
+		val tree = LogStoreTree(folder.root, "store", SEGMENT_SIZE, 64L * SEGMENT_SIZE, Log.INFO)
+		fun logRange(range: IntRange) = range.forEach {
+			val priority = if (it % 100 == 0) Log.WARN else Log.DEBUG
+			val tag = if (it % 2 == 0) "Even" else null
+			tree.log(LogRecord(priority, null, "message %d", arrayOf(it)), tag)
+		}
+		logRange(0 until 10_000)
+		Thread.sleep(20)
+		val from = System.currentTimeMillis()
+		logRange(10_000 until 11_000)
+		val to = System.currentTimeMillis()
+		Thread.sleep(20)
+		logRange(11_000 until 20_000)
+
+		val even = tree.query(setOf("Even"), from, to, Log.DEBUG).asSequence().toList()
+		assertEquals((10_000 until 11_000 step 2).map { "message $it" }, even.map { it.message })
+		assertTrue(even.all { it.tag == "Even" })
+
+		val untagged = tree.query(setOf(null), 0, Long.MAX_VALUE, Log.DEBUG).asSequence().count()
+		assertEquals(10_000, untagged)
+
+		val warnings = tree.query(null, 0, Long.MAX_VALUE, Log.WARN).asSequence().map { it.message }.toList()
+		assertEquals((0 until 20_000 step 100).map { "message $it" }, warnings)
+
+		assertFalse(tree.query(setOf("Unknown"), 0, Long.MAX_VALUE, Log.VERBOSE).hasNext())
+
+		tree.close()
+		val reopened = LogStoreTree(folder.root, "store", SEGMENT_SIZE, 64L * SEGMENT_SIZE, Log.INFO)
+		assertEquals(even.map { it.message },
+			reopened.query(setOf("Even"), from, to, Log.DEBUG).asSequence().map { it.message }.toList())
+	}
+
+	/**
+	 * Checks that the store is compacted under its size cap by the executor it was given, dropping
+	 * debug records from old segments before deleting any
+	 */
+	@Test
+	fun testCompaction() {
+		val tasks = ArrayDeque<Runnable>()
+		val tree = LogStoreTree(folder.root, "store", SEGMENT_SIZE, 4L * SEGMENT_SIZE, Log.INFO, Executor { tasks += it })
+		repeat(20_000) {
+			val priority = if (it % 10 == 0) Log.INFO else Log.DEBUG
+			tree.log(LogRecord(priority, null, "message %d", arrayOf(it)), "Tag")
+		}
+		tree.flush()
+
+		assertEquals(1, tasks.size)
+		assertTrue(tree.size > 4L * SEGMENT_SIZE)
+		tasks.poll().run()
+		assertTrue(tree.size <= 4L * SEGMENT_SIZE)
+
+		val info = tree.query(null, 0, Long.MAX_VALUE, Log.INFO).asSequence().map { it.message }.toList()
+		// More info records are left than would fit uncompacted.
+		val all = tree.query(null, 0, Long.MAX_VALUE, Log.VERBOSE).asSequence().toList()
+		assertTrue(info.size > all.size / 10 + 100)
+		assertEquals("message 19990", info.last())
+		assertEquals(info.size, info.distinct().size)
+	}
+
+	companion object {
+		const val SEGMENT_SIZE = 64 * 1024
+	}
+}
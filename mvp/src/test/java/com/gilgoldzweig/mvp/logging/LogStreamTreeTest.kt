@@ -0,0 +1,79 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import kotlin.concurrent.thread
+
+/**
+ * Streams records from a [LogStreamTree] to a [LogStreamViewer] over loopback
+ */
+class LogStreamTreeTest {
+
+	private lateinit var tree: LogStreamTree
+
+	@Before
+	fun listen() {
+		tree = LogStreamTree(0, 256, OverflowPolicy.BLOCK)
+	}
+
+	@After
+	fun close() {
+		tree.close()
+	}
+
+	/**
+	 * Checks that a viewer slower than the logging thread gets every record, long messages whole
+	 */
+	@Test
+	fun testNoLossUnderBackpressure() {
+		val viewer = LogStreamViewer("localhost", tree.port)
+		val long = "x".repeat(100_000)
+
+		val writer = thread {
+			repeat(50_000) {
+				tree.log(LogRecord(Log.DEBUG, null, "message %d", arrayOf(it)), if (it % 2 == 0) "Even" else null)
+			}
+			tree.log(LogRecord(Log.WARN, null, long, LogRecord.NO_ARGS), "Long")
+		}
+
+		repeat(50_000) {
+			val record = viewer.read()!!
+			assertEquals("message $it", record.message)
+			assertEquals(if (it % 2 == 0) "Even" else null, record.tag)
+			if (it % 10_000 == 0) Thread.sleep(50)
+		}
+		val last = viewer.read()!!
+		assertEquals(Log.WARN, last.priority)
+		assertEquals(long, last.message)
+		assertEquals(0, viewer.droppedCount)
+
+		writer.join()
+		viewer.close()
+	}
+
+	/**
+	 * Checks that records dropped by the overflow policy are reported to the viewer
+	 */
+	@Test
+	fun testReportsDropped() {
+		tree.close()
+		tree = LogStreamTree(0, 1, OverflowPolicy.DROP_NEWEST)
+		val viewer = LogStreamViewer("localhost", tree.port)
+		while (tree.viewerCount == 0) Thread.sleep(1)
+
+		repeat(10_000) {
+			tree.log(LogRecord(Log.INFO, null, "message %d", arrayOf(it)), "Tag")
+		}
+		tree.log(LogRecord(Log.INFO, null, "done", LogRecord.NO_ARGS), "Tag")
+		tree.flush()
+		tree.close()
+
+		var received = 0
+		while (viewer.read() != null) received++
+		assertTrue(received > 0)
+		assertEquals(10_001L, received + viewer.droppedCount)
+	}
+}
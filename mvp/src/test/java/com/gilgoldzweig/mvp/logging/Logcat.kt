@@ -0,0 +1,25 @@
+package com.gilgoldzweig.mvp.logging
+
+import java.util.*
+
+/**
+ * Keeps what the test `android.util.Log` prints as `P/tag: message` lines, from any thread
+ */
+object Logcat {
+
+	private val lines = Collections.synchronizedList(ArrayList<String>())
+
+	@JvmStatic
+	fun println(priority: Int, tag: String?, message: String) {
+		lines += "${"??VDIWEA"[priority]}/$tag: $message"
+	}
+
+	/**
+	 * What was printed since the last call, oldest first
+	 */
+	fun take(): List<String> = synchronized(lines) {
+		val taken = lines.toList()
+		lines.clear()
+		taken
+	}
+}
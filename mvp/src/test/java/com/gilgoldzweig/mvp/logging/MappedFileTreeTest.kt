@@ -0,0 +1,93 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.Assert.*
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.PrintWriter
+import java.io.StringWriter
+
+/**
+ * Writes records with [MappedFileTree] and reads them back with [MappedLogDecoder]
+ */
+class MappedFileTreeTest {
+
+	@get:Rule
+	val folder = TemporaryFolder()
+
+	/**
+	 * Checks that typed arguments, tags and stack traces survive the round trip
+	 */
+	@Test
+	fun testDecodeRecords() {
+		val tree = MappedFileTree(folder.root)
+
+		tree.log(LogRecord(Log.DEBUG, null, "int %d long %d double %.1f bool %b char %c text %s",
+			arrayOf(42, 7L, 2.5, true, 'x', "héllo")), "Network")
+		tree.log(LogRecord(Log.WARN, null, "no args", LogRecord.NO_ARGS), null)
+		tree.log(LogRecord(Log.ERROR, IllegalStateException("boom"), "failed %s", arrayOf<Any?>(null)), "Network")
+
+		val lines = decode(folder.root).lines()
+
+		assertTrue(lines[0].endsWith("D/Network: int 42 long 7 double 2.5 bool true char x text héllo"))
+		assertTrue(lines[1].endsWith("W/null: no args"))
+		assertTrue(lines[2].endsWith("E/Network: failed null"))
+		assertTrue(lines[3].startsWith("java.lang.IllegalStateException: boom"))
+	}
+
+	/**
+	 * Checks that a full segment rolls over, that old segments are deleted and that
+	 * the newest segment decodes on its own
+	 */
+	@Test
+	fun testSegmentRollover() {
+		val tree = MappedFileTree(folder.root, "rolling", SEGMENT_SIZE, 2)
+
+		repeat(10_000) {
+			tree.log(LogRecord(Log.INFO, null, "message %d", arrayOf(it)), "Rolling")
+		}
+
+		val segments = MappedLogDecoder.segmentsIn(folder.root)
+		assertEquals(2, segments.size)
+		assertEquals(0, tree.droppedCount)
+
+		val lastSegment = StringWriter()
+		MappedLogDecoder().decode(segments.last(), PrintWriter(lastSegment))
+		assertTrue(lastSegment.toString().trim().lines().last().endsWith("I/Rolling: message 9999"))
+	}
+
+	/**
+	 * Checks that the fields of a structured call are written typed and decoded after the message
+	 */
+	@Test
+	fun testStructuredFields() {
+		val tree = MappedFileTree(folder.root)
+		Timber.plant(tree)
+		try {
+			Timber.at(Log.INFO).tag("Network").kv("userId", 42).kv("ms", 12.5).kv("cached", false).kv("name", "gil")
+				.log("fetch done")
+			Timber.at(Log.INFO).tag("Network").kv("userId", 43).log("fetch done")
+		} finally {
+			Timber.uproot(tree)
+		}
+
+		val lines = decode(folder.root).lines()
+
+		assertTrue(lines[0].endsWith("I/Network: fetch done userId=42 ms=12.5 cached=false name=gil"))
+		assertTrue(lines[1].endsWith("I/Network: fetch done userId=43"))
+	}
+
+	private fun decode(directory: File): String {
+		val output = StringWriter()
+		val writer = PrintWriter(output)
+		MappedLogDecoder.segmentsIn(directory).forEach { MappedLogDecoder().decode(it, writer) }
+		writer.flush()
+		return output.toString()
+	}
+
+	companion object {
+		const val SEGMENT_SIZE = 64 * 1024
+	}
+}
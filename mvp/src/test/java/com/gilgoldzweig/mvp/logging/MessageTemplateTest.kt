@@ -0,0 +1,117 @@
+package com.gilgoldzweig.mvp.logging
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.fail
+import org.junit.Test
+import java.math.BigInteger
+import java.util.IllegalFormatException
+import java.util.Locale
+import java.util.Random
+
+/**
+ * Compares [MessageTemplate.format] with [String.format]
+ */
+class MessageTemplateTest {
+
+	private val defaultLocale = Locale.getDefault()
+
+	@After
+	fun restoreLocale() {
+		Locale.setDefault(defaultLocale)
+	}
+
+	/**
+	 * Checks every supported specifier with the argument types it accepts
+	 */
+	@Test
+	fun testSupportedSpecifiers() {
+		assertSameAsStringFormat("user %s logged in", "gil")
+		assertSameAsStringFormat("%s %s %s", null, 42, listOf(1, 2))
+		assertSameAsStringFormat("%d %d %d %d %d", 42, -7L, 3.toShort(), (-1).toByte(), BigInteger("-123456789012345678901234567890"))
+		assertSameAsStringFormat("%x %x %x %x %x", -1, Long.MIN_VALUE, (-1).toByte(), (-2).toShort(), BigInteger("-255"))
+		assertSameAsStringFormat("%f %.2f %.0f %.1f", 1.5, 12.345, 2.5, 0.05f)
+		assertSameAsStringFormat("%f %f %f %f", Double.NaN, Double.NEGATIVE_INFINITY, -0.0, 1e300)
+		assertSameAsStringFormat("%.0f %.0f %.1f %.2f %.2f %f", 0.5, 9.5, 0.96, 1.005, 99.995, 1e-10)
+		assertSameAsStringFormat("%d%% done%n%s", 50, "next")
+		assertSameAsStringFormat("no specifiers")
+		assertSameAsStringFormat("%d extra args are ignored", 1, 2, 3)
+	}
+
+	/**
+	 * Checks rounding against random doubles of every magnitude
+	 */
+	@Test
+	fun testRandomDoubles() {
+		val random = Random(42)
+		repeat(10_000) {
+			val value = random.nextDouble() * Math.pow(10.0, (random.nextInt(30) - 15).toDouble())
+			assertSameAsStringFormat("%f %.2f %.0f", value, -value, value)
+		}
+	}
+
+	/**
+	 * Checks flags, widths, indexes and other conversions are still formatted by String.format
+	 */
+	@Test
+	fun testFallback() {
+		assertSameAsStringFormat("%5d|%-5s|%05.1f|%,d", 42, "ab", 3.14159, 1234567)
+		assertSameAsStringFormat("%2\$s %1\$s", "a", "b")
+		assertSameAsStringFormat("%b %c %X %e", true, 'c', 255, 1234.5)
+		assertSameAsStringFormat("%d", BigInteger.TEN.pow(30))
+	}
+
+	/**
+	 * Checks decimal separators and locales with their own digits
+	 */
+	@Test
+	fun testLocales() {
+		for (locale in listOf(Locale.GERMANY, Locale.FRANCE, Locale("ar", "EG"), Locale("fa", "IR"), Locale("hi", "IN"))) {
+			Locale.setDefault(locale)
+			assertSameAsStringFormat("%d %.3f %x %s", -1234, -12.3456, 255, 1.5)
+		}
+	}
+
+	/**
+	 * Checks invalid templates and arguments throw like String.format
+	 */
+	@Test
+	fun testErrors() {
+		assertSameException("%d", "text")
+		assertSameException("%s %s", "one")
+		assertSameException("trailing %")
+		assertSameException("%q", 1)
+		assertSameException("%f", 1)
+	}
+
+	/**
+	 * Checks an argument logging from its toString() doesn't corrupt the message being rendered
+	 */
+	@Test
+	fun testReentrantArgument() {
+		val nested = object {
+			override fun toString() = MessageTemplate.format("inner %d", arrayOf(1))
+		}
+		assertEquals("outer inner 1 2", MessageTemplate.format("outer %s %d", arrayOf(nested, 2)))
+	}
+
+	private fun assertSameAsStringFormat(template: String, vararg args: Any?) {
+		val argsArray = arrayOf(*args)
+		assertEquals(String.format(template, *argsArray), MessageTemplate.format(template, argsArray))
+	}
+
+	private fun assertSameException(template: String, vararg args: Any?) {
+		val expected = try {
+			String.format(template, *args)
+			null
+		} catch (e: IllegalFormatException) {
+			e.javaClass
+		}
+		try {
+			MessageTemplate.format(template, arrayOf(*args))
+			fail("expected $expected for $template")
+		} catch (e: IllegalFormatException) {
+			assertEquals(expected, e.javaClass)
+		}
+	}
+}
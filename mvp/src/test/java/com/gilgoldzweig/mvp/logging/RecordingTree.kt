@@ -0,0 +1,39 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Pair
+import com.gilgoldzweig.mvp.analytics.Bundlify
+import com.gilgoldzweig.mvp.analytics.Event
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import java.util.*
+
+/**
+ * A [Timber.Tree] keeping what it logs as `P/tag: message` lines, from any thread
+ */
+open class RecordingTree : Timber.Tree() {
+
+	private val lines = Collections.synchronizedList(ArrayList<String>())
+
+	/**
+	 * What was logged so far, oldest first
+	 */
+	fun lines(): List<String> = synchronized(lines) { lines.toList() }
+
+	/**
+	 * The messages logged so far, without their priority and tag
+	 */
+	fun messages(): List<String> = lines().map { it.substringAfter(": ") }
+
+	override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+		lines += "${"??VDIWEA"[priority]}/$tag: $message"
+	}
+
+	override fun crash(t: Throwable, message: String) = Unit
+
+	override fun crash(t: Throwable, message: String, vararg args: Any) = Unit
+
+	override fun crash(t: Throwable) = Unit
+
+	override fun event(event: Event, vararg args: Pair<EventParameter, Any>) = Unit
+
+	override fun event(event: Event, bundlify: Bundlify) = Unit
+}
@@ -0,0 +1,89 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import android.util.Pair
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Sends crashes and events to a [SinkTree] next to a [Timber.DebugTree] and checks what each of them logs
+ */
+class SinkTreeTest {
+
+	private val sink = RecordingSink()
+	private val debug = RecordingDebugTree()
+
+	@After
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that events are logged at info with the same text as [Timber.DebugTree] logs them
+	 */
+	@Test
+	fun testEventRenderedAsDebugTree() {
+		Timber.plant(sink, debug)
+
+		Timber.event(NamedEvent("opened"))
+		Timber.event(NamedEvent("clicked"), param("id", 42), param("label", "50% off"))
+
+		assertEquals(listOf("I/null: event: opened", "I/null: event: clicked args: [Pair(id, 42), Pair(label, 50% off)]"), sink.lines())
+		assertEquals(sink.messages(), debug.messages)
+	}
+
+	/**
+	 * Checks that every crash variant is logged as an error and followed by [SinkTree.onCrash]
+	 */
+	@Test
+	fun testCrashCallsOnCrash() {
+		Timber.plant(sink)
+
+		Timber.crash(IllegalStateException("a"))
+		Timber.crash(IllegalStateException("b"), "message")
+		Timber.crash(IllegalStateException("c"), "message %d", 1)
+
+		assertEquals(3, sink.crashes)
+		assertEquals(listOf(
+			"E/null: java.lang.IllegalStateException: a",
+			"E/null: message",
+			"E/null: message 1"
+		), sink.lines().map { it.substringBefore('\n') })
+	}
+
+	private fun param(name: String, value: Any) = Pair<EventParameter, Any>(NamedEvent(name), value)
+
+	/**
+	 * Keeps its lines and counts [onCrash] calls
+	 */
+	class RecordingSink : SinkTree() {
+		private val lines = ArrayList<String>()
+		var crashes = 0
+
+		fun lines(): List<String> = lines
+
+		fun messages(): List<String> = lines.map { it.substringAfter(": ") }
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			lines += "${"??VDIWEA"[priority]}/$tag: $message"
+		}
+
+		override fun onCrash() {
+			crashes++
+		}
+	}
+
+	/**
+	 * Keeps the messages a [Timber.DebugTree] would print
+	 */
+	class RecordingDebugTree : Timber.DebugTree() {
+		val messages = ArrayList<String>()
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			assertEquals(Log.DEBUG, priority)
+			messages += message
+		}
+	}
+}
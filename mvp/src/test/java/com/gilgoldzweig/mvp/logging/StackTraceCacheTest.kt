@@ -0,0 +1,70 @@
+package com.gilgoldzweig.mvp.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Renders throwables through a [StackTraceCache] and checks which ones are logged in full
+ */
+class StackTraceCacheTest {
+
+	/**
+	 * Checks that throwables thrown from the same place with the same causes share a fingerprint
+	 * and that another throw site or cause class gets its own
+	 */
+	@Test
+	fun testFingerprint() {
+		val cache = StackTraceCache(16)
+		val (first, repeat, otherSite, otherCause) = failures(0, 0, 1, 2)
+
+		assertTrue(cache.render(first).startsWith("#1 java.lang.IllegalStateException: boom\n\tat "))
+		assertEquals("java.lang.IllegalStateException: boom\n\tsame as #1 (x2)\n", cache.render(repeat))
+		assertTrue(cache.render(otherSite).startsWith("#2 "))
+		assertTrue(cache.render(otherCause).startsWith("#3 "))
+	}
+
+	/**
+	 * Checks that every repeat is counted and that the same throwable handed over again,
+	 * e.g. to each tree, renders as before without being counted
+	 */
+	@Test
+	fun testRepeatCounter() {
+		val cache = StackTraceCache(16)
+		val failures = failures(0, 0, 0, 0)
+
+		val renderings = failures.map { cache.render(it) }
+
+		assertEquals((2..4).map { "java.lang.IllegalStateException: boom\n\tsame as #1 (x$it)\n" }, renderings.drop(1))
+		assertSame(renderings[3], cache.render(failures[3]))
+	}
+
+	/**
+	 * Checks that the least recently seen fingerprint is forgotten first and renders in full again
+	 */
+	@Test
+	fun testEviction() {
+		val cache = StackTraceCache(2)
+		val failures = failures(0, 1, 0, 2, 1, 2)
+
+		cache.render(failures[0])
+		cache.render(failures[1])
+		assertTrue(cache.render(failures[2]).contains("same as #1 (x2)"))
+		cache.render(failures[3])
+
+		assertTrue(cache.render(failures[4]).startsWith("#4 "))
+		assertTrue(cache.render(failures[5]).contains("same as #3 (x2)"))
+	}
+
+	/**
+	 * Throwables thrown from one of three places, the same stack apart from the place
+	 */
+	private fun failures(vararg sites: Int): List<Throwable> = sites.map { failureAt(it) }
+
+	private fun failureAt(site: Int): Throwable = when (site) {
+		0 -> IllegalStateException("boom")
+		1 -> IllegalStateException("boom")
+		else -> IllegalStateException("boom", IllegalArgumentException())
+	}
+}
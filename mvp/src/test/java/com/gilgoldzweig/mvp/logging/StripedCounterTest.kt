@@ -0,0 +1,45 @@
+package com.gilgoldzweig.mvp.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+/**
+ * Counts with [StripedCounter] from several threads and checks the sums
+ */
+class StripedCounterTest {
+
+	/**
+	 * Checks that no increment is lost while threads count at the same time, padded or not
+	 */
+	@Test
+	fun testConcurrentSum() {
+		listOf(true, false).forEach { padded ->
+			val counter = StripedCounter(padded)
+			val threads = 8
+			val increments = 10_000
+
+			(0 until threads).map {
+				thread {
+					repeat(increments) { counter.increment() }
+					counter.add(5)
+				}
+			}.forEach { it.join() }
+
+			assertEquals(threads * (increments + 5L), counter.sum())
+		}
+	}
+
+	/**
+	 * Checks that negative values are subtracted from the sum
+	 */
+	@Test
+	fun testAdd() {
+		val counter = StripedCounter(false)
+
+		counter.add(10)
+		counter.add(-3)
+
+		assertEquals(7, counter.sum())
+	}
+}
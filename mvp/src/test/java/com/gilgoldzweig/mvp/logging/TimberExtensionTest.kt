@@ -0,0 +1,91 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Logs with the lazy `logV`…`logWtf` extensions and checks when their message lambda runs
+ */
+class TimberExtensionTest {
+
+	private val tree = RecordingTree()
+	private var built = 0
+
+	@After
+	fun uproot() {
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that the message is built once per call a tree accepts, tagged with the receiver's class
+	 */
+	@Test
+	fun testBuiltOnceWhenEnabled() {
+		Timber.plant(tree)
+
+		logV { message("v") }
+		logD { message("d") }
+		logI { message("i") }
+		logW { message("w") }
+		logE { message("e") }
+		logWtf { message("wtf") }
+
+		assertEquals(6, built)
+		assertEquals(listOf("v", "d", "i", "w", "e", "wtf").mapIndexed { index, message ->
+			"${"VDIWEA"[index]}/TimberExtensionTest: $message"
+		}, tree.lines())
+	}
+
+	/**
+	 * Checks that the message is never built below every tree's minimum priority
+	 */
+	@Test
+	fun testNotBuiltBelowMinPriority() {
+		tree.setMinPriority(Log.WARN)
+		Timber.plant(tree)
+
+		logV { message("v") }
+		logD { message("d") }
+		logI { message("i") }
+
+		assertEquals(0, built)
+		assertEquals(emptyList<String>(), tree.lines())
+	}
+
+	/**
+	 * Checks that the message is never built for a tag every tree excludes, and is for a tree accepting it
+	 */
+	@Test
+	fun testNotBuiltForExcludedTag() {
+		tree.excludeTags("TimberExtensionTest")
+		Timber.plant(tree)
+
+		logE { message("excluded") }
+		assertEquals(0, built)
+
+		val accepting = RecordingTree()
+		Timber.plant(accepting)
+		logE { message("accepted") }
+
+		assertEquals(1, built)
+		assertEquals(emptyList<String>(), tree.lines())
+		assertEquals(listOf("E/TimberExtensionTest: accepted"), accepting.lines())
+	}
+
+	/**
+	 * Checks that the message is never built while no tree is planted
+	 */
+	@Test
+	fun testNotBuiltWithoutTrees() {
+		logWtf { message("nobody") }
+
+		assertEquals(0, built)
+	}
+
+	private fun message(message: String): String {
+		built++
+		return message
+	}
+}
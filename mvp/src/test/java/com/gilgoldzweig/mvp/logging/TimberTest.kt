@@ -0,0 +1,149 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+
+/**
+ * Logs through [Timber] to planted trees and checks what each of them is handed
+ */
+class TimberTest {
+
+	@After
+	fun uproot() {
+		Timber.disableAsync()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that a tree overriding level methods still has them called, with the explicit tag,
+	 * while the other trees share the record
+	 */
+	@Test
+	fun testLevelOverridesCalled() {
+		val calls = ArrayList<String>()
+		val overriding = object : RecordingTree() {
+			override fun d(message: String, vararg args: Any) {
+				calls += "d $message"
+				super.d(message, *args)
+			}
+
+			override fun e(t: Throwable) {
+				calls += "e ${t.message}"
+			}
+		}
+		val plain = RecordingTree()
+		Timber.plant(overriding, plain)
+
+		Timber.tag("Tag").d("hello %s", "world")
+		Timber.e(IllegalStateException("boom"))
+		Timber.i("info")
+
+		assertEquals(listOf("d hello %s", "e boom"), calls)
+		assertEquals(listOf("D/Tag: hello world", "I/null: info"), overriding.lines())
+		assertEquals("D/Tag: hello world", plain.lines()[0])
+		assertEquals(3, plain.lines().size)
+	}
+
+	/**
+	 * Checks that a [Timber.DebugTree] overriding [Timber.DebugTree.createStackElementTag] tags records with it,
+	 * from the calling frame, while an explicit tag still wins
+	 */
+	@Test
+	fun testCustomStackElementTag() {
+		val tree = MethodTagTree()
+		Timber.plant(tree)
+
+		Timber.d("sync")
+		Timber.tag("Tag").d("explicit")
+		Timber.enableAsync(16, OverflowPolicy.BLOCK)
+		Timber.d("async")
+		Timber.flush()
+
+		assertEquals(listOf("TimberTest.testCustomStackElementTag", "Tag", "TimberTest.testCustomStackElementTag"), tree.tags)
+	}
+
+	/**
+	 * Checks that calls below a tree's minimum priority never reach it, also once changed after planting
+	 */
+	@Test
+	fun testMinPriority() {
+		val tree = RecordingTree()
+		Timber.plant(tree)
+		tree.setMinPriority(Log.WARN)
+
+		Timber.d("debug")
+		Timber.w("warn")
+		Timber.e("error")
+
+		assertEquals(listOf("W/null: warn", "E/null: error"), tree.lines())
+		assertFalse(Timber.isLoggable(Log.INFO))
+		assertTrue(Timber.isLoggable(Log.WARN))
+	}
+
+	/**
+	 * Checks that included tags are the only ones logged and excluded tags are never logged
+	 */
+	@Test
+	fun testTagFilters() {
+		val included = RecordingTree().apply { includeTags("A") }
+		val excluded = RecordingTree().apply { excludeTags("A") }
+		Timber.plant(included, excluded)
+
+		Timber.tag("A").d("a")
+		Timber.tag("B").d("b")
+		Timber.d("untagged")
+
+		assertEquals(listOf("D/A: a"), included.lines())
+		assertEquals(listOf("D/B: b", "D/null: untagged"), excluded.lines())
+		Timber.uproot(excluded)
+		assertTrue(Timber.isLoggable(Log.DEBUG, "A"))
+		assertFalse(Timber.isLoggable(Log.DEBUG, "B"))
+	}
+
+	/**
+	 * Checks that a pending [Timber.tag] is consumed by a call no tree is interested in,
+	 * whichever way the call is made, instead of tagging the next one
+	 */
+	@Test
+	fun testPendingTagConsumedWhenDisabled() {
+		val tree = RecordingTree()
+		tree.setMinPriority(Log.WARN)
+		Timber.plant(tree)
+		val disabledCalls = listOf<() -> Unit>(
+			{ Timber.d("message") },
+			{ Timber.d(42 as Any) },
+			{ Timber.i(42 as Any) },
+			{ "receiver".d() },
+			{ logD { "lazy" } },
+			{ Timber.at(Log.DEBUG) }
+		)
+
+		disabledCalls.forEach { call ->
+			Timber.tag("Lost")
+			call()
+			Timber.w("next")
+		}
+		"receiver".w()
+
+		assertEquals(List(disabledCalls.size) { "W/null: next" } + "W/TimberTest:  receiver ", tree.lines())
+	}
+
+	/**
+	 * Tags records with the calling class and method
+	 */
+	class MethodTagTree : Timber.DebugTree() {
+		val tags: MutableList<String?> = Collections.synchronizedList(ArrayList())
+
+		override fun createStackElementTag(element: StackTraceElement): String =
+			"${super.createStackElementTag(element)}.${element.methodName}"
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			tags += tag
+		}
+	}
+}
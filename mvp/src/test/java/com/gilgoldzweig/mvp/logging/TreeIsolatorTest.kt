@@ -0,0 +1,122 @@
+package com.gilgoldzweig.mvp.logging
+
+import android.util.Pair
+import com.gilgoldzweig.mvp.analytics.Event
+import com.gilgoldzweig.mvp.analytics.EventParameter
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Isolates a tree blocking in `log()` next to a healthy one with [Timber.enableIsolation]
+ * and checks what each of them receives
+ */
+class TreeIsolatorTest {
+
+	private val stuck = EventTree(blocking = true)
+	private val healthy = EventTree(blocking = false)
+
+	@After
+	fun uproot() {
+		stuck.release.countDown()
+		Timber.disableIsolation()
+		Timber.uprootAll()
+	}
+
+	/**
+	 * Checks that a tree stuck past the budget is shed without holding up the other tree, dropping its
+	 * queued and new records, and gets records again once it recovers, with both reported to the other trees
+	 */
+	@Test
+	fun testShedAndRecover() {
+		Timber.plant(stuck, healthy)
+		Timber.enableIsolation(16, BUDGET_MILLIS)
+
+		Timber.d("stuck")
+		assertTrue(stuck.entered.await(1, TimeUnit.SECONDS))
+		repeat(10) { Timber.d("$it") }
+		assertTrue(healthy.shed.await(5, TimeUnit.SECONDS))
+		repeat(3) { Timber.d("while shed") }
+		Timber.flush()
+
+		assertEquals(listOf("stuck") + (0 until 10).map { "$it" } + List(3) { "while shed" }, healthy.messages())
+		val shed = healthy.events()[0]
+		assertEquals("logging_tree_shed", shed.first)
+		assertEquals(stuck.toString(), shed.second["tree"])
+		assertEquals(10L, shed.second["shed_records"])
+		assertTrue(shed.second["latency_millis"] as Long >= BUDGET_MILLIS)
+
+		stuck.release.countDown()
+		assertTrue(healthy.recovered.await(5, TimeUnit.SECONDS))
+		Timber.d("recovered")
+		Timber.flush()
+
+		assertEquals(listOf("stuck", "recovered"), stuck.messages())
+		val recovered = healthy.events()[1]
+		assertEquals("logging_tree_recovered", recovered.first)
+		assertEquals(stuck.toString(), recovered.second["tree"])
+		assertEquals(13L, recovered.second["shed_records"])
+		assertEquals(listOf("logging_tree_recovered"), stuck.events().map { it.first })
+	}
+
+	/**
+	 * Checks that disabling isolation doesn't wait for a shed tree that is still stuck,
+	 * while the other tree still receives everything queued for it
+	 */
+	@Test
+	fun testShutdownWhileStuck() {
+		Timber.plant(stuck, healthy)
+		Timber.enableIsolation(16, BUDGET_MILLIS)
+
+		Timber.d("stuck")
+		assertTrue(stuck.entered.await(1, TimeUnit.SECONDS))
+		assertTrue(healthy.shed.await(5, TimeUnit.SECONDS))
+		repeat(10) { Timber.d("$it") }
+		val start = System.nanoTime()
+		Timber.disableIsolation()
+
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1_000)
+		assertEquals(listOf("stuck") + (0 until 10).map { "$it" }, healthy.messages())
+		Timber.uproot(stuck)
+		Timber.d("sync")
+		assertEquals("sync", healthy.messages().last())
+	}
+
+	/**
+	 * Records the events it receives, blocking in its first [log] call until [release] is counted down
+	 * when [blocking]
+	 */
+	class EventTree(private val blocking: Boolean) : RecordingTree() {
+		val entered = CountDownLatch(1)
+		val release = CountDownLatch(1)
+		val shed = CountDownLatch(1)
+		val recovered = CountDownLatch(1)
+		private val events = Collections.synchronizedList(ArrayList<kotlin.Pair<String, Map<String, Any>>>())
+
+		fun events(): List<kotlin.Pair<String, Map<String, Any>>> = synchronized(events) { events.toList() }
+
+		override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
+			if (blocking) {
+				entered.countDown()
+				release.await()
+			}
+			super.log(priority, tag, message, t)
+		}
+
+		override fun event(event: Event, vararg args: Pair<EventParameter, Any>) {
+			events += event.displayName to args.associate { it.first.displayName to it.second }
+			when (event.displayName) {
+				"logging_tree_shed" -> shed.countDown()
+				"logging_tree_recovered" -> recovered.countDown()
+			}
+		}
+	}
+
+	private companion object {
+		const val BUDGET_MILLIS = 50L
+	}
+}
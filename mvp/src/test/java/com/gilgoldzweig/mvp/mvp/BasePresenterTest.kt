@@ -3,14 +3,25 @@ package com.gilgoldzweig.mvp.mvp
 import android.arch.lifecycle.Lifecycle
 import android.arch.lifecycle.LifecycleOwner
 import android.arch.lifecycle.LifecycleRegistry
+import com.gilgoldzweig.mvp.logging.LogContext
+import com.gilgoldzweig.mvp.models.threads.CoroutineDispatchers
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.ExecutorCoroutineDispatcher
+import kotlinx.coroutines.GlobalScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.MainCoroutineDispatcher
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.newSingleThreadContext
+import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.test.setMain
 import org.junit.After
+import org.junit.Assert.assertEquals
 import org.junit.Assert.assertFalse
 import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
 import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
 import org.junit.Assert.assertTrue
 import org.junit.Before
 import org.junit.Test
@@ -22,6 +33,9 @@ import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import org.mockito.Spy
 import org.mockito.junit.MockitoJUnitRunner
+import java.util.*
+import java.util.concurrent.Executor
+import kotlin.coroutines.CoroutineContext
 
 @RunWith(MockitoJUnitRunner::class)
 class BasePresenterTest {
@@ -39,6 +53,11 @@ class BasePresenterTest {
 
 	private val mainThreadSurrogate: ExecutorCoroutineDispatcher = newSingleThreadContext("UI thread")
 
+	// A ui dispatcher only running its tasks when the test calls runQueuedUiTasks.
+	private val queuedUiTasks = ArrayDeque<Runnable>()
+	private val queuedUiDispatcher = Executor { queuedUiTasks += it }.asCoroutineDispatcher()
+	private var runningQueuedUiTasks = false
+
 
 	@Before
 	fun setUp() {
@@ -104,6 +123,191 @@ class BasePresenterTest {
 		verify(baseView, times(1)).performOnUiCallTest()
 	}
 
+	/**
+	 * Checks that queued actions run in order and that the ui thread is yielded
+	 * to other work once they used up the frame budget
+	 */
+	@Test
+	fun testExecuteQueuedUiActionsYieldsAfterFrameBudget() = runBlocking {
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_STOP)
+		basePresenter.bindToLifecycle(lifecycleRegistry)
+		basePresenter.uiActionsFrameBudgetMillis = 1
+		val executed = mutableListOf<Int>()
+		repeat(20) { index ->
+			basePresenter.performOnUi {
+				if (index == 0) {
+					GlobalScope.launch(Dispatchers.Main) { executed += -1 }
+				}
+				Thread.sleep(1)
+				executed += index
+			}
+		}
+
+		basePresenter.executeQueuedUiActions()
+
+		assertTrue(basePresenter.actionsWaitingForUIExecution.isEmpty())
+		assertEquals((0 until 20).toList(), executed.filter { it >= 0 })
+		assertTrue(executed.indexOf(-1) in 1 until executed.size - 1)
+	}
+
+	/**
+	 * Checks that actions queued while paused are replayed once the lifecycle is resumed
+	 */
+	@Test
+	fun testQueuedUiActionsReplayedOnResume() {
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_STOP)
+		basePresenter.bindToLifecycle(lifecycleRegistry)
+		basePresenter.performOnUi {
+			performOnUiCallTest()
+		}
+		verify(baseView, never()).performOnUiCallTest()
+		basePresenter.dispatchers = CoroutineDispatchers(main = queuedUiDispatcher)
+
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME)
+		runQueuedUiTasks()
+
+		verify(baseView, times(1)).performOnUiCallTest()
+		assertTrue(basePresenter.actionsWaitingForUIExecution.isEmpty())
+	}
+
+	/**
+	 * Checks that pausing stops the replay between frames, and that the next resume
+	 * replays the rest without running an action twice
+	 */
+	@Test
+	fun testReplayCancelledOnPause() {
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_STOP)
+		basePresenter.bindToLifecycle(lifecycleRegistry)
+		basePresenter.dispatchers = CoroutineDispatchers(main = queuedUiDispatcher)
+		// Yields after every action.
+		basePresenter.uiActionsFrameBudgetMillis = 0
+		val executed = mutableListOf<Int>()
+		repeat(20) { index ->
+			basePresenter.performOnUi {
+				executed += index
+				if (index == 2) {
+					lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_PAUSE)
+				}
+			}
+		}
+
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME)
+		runQueuedUiTasks()
+		assertEquals(listOf(0, 1, 2), executed)
+
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME)
+		runQueuedUiTasks()
+		assertEquals((0 until 20).toList(), executed)
+	}
+
+	/**
+	 * Checks that actions performed on the ui thread before the replay starts, or by a replayed action,
+	 * run after the queued actions even with [BasePresenter.immediateUiDispatch], and right away once
+	 * the queue is replayed
+	 */
+	@Test
+	fun testPerformOnUiDuringReplay() {
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_STOP)
+		basePresenter.bindToLifecycle(lifecycleRegistry)
+		basePresenter.dispatchers = CoroutineDispatchers(main = QueuedMainDispatcher())
+		basePresenter.immediateUiDispatch = true
+		// Yields after every action.
+		basePresenter.uiActionsFrameBudgetMillis = 0
+		val executed = mutableListOf<String>()
+		repeat(3) { index ->
+			basePresenter.performOnUi {
+				executed += "queued $index"
+				if (index == 0) {
+					basePresenter.performOnUi { executed += "during replay" }
+					basePresenter.performOnUi(key = "key") { executed += "keyed during replay" }
+				}
+			}
+		}
+
+		lifecycleRegistry.handleLifecycleEvent(Lifecycle.Event.ON_RESUME)
+		// Runs on the ui thread before the replay it dispatched.
+		queuedUiTasks.addFirst(Runnable { basePresenter.performOnUi { executed += "before replay" } })
+		runQueuedUiTasks()
+		assertEquals(listOf("queued 0", "queued 1", "queued 2", "before replay", "during replay", "keyed during replay"), executed)
+		assertTrue(basePresenter.actionsWaitingForUIExecution.isEmpty())
+
+		executed.clear()
+		queuedUiTasks += Runnable {
+			basePresenter.performOnUi { executed += "after replay" }
+			executed += "after"
+		}
+		runQueuedUiTasks()
+		assertEquals(listOf("after replay", "after"), executed)
+	}
+
+	/**
+	 * Checks that the contexts are built once and rebuilt when the job is replaced
+	 */
+	@Test
+	fun testContextsCachedUntilJobChanges() {
+		val uiContext = basePresenter.uiContext
+		assertSame(uiContext, basePresenter.uiContext)
+		assertSame(basePresenter.networkContext, basePresenter.networkContext)
+
+		val job = Job()
+		basePresenter.job = job
+
+		assertNotSame(uiContext, basePresenter.uiContext)
+		assertSame(job, basePresenter.uiContext[Job])
+		assertSame(job, basePresenter.databaseContext[Job])
+	}
+
+	/**
+	 * Checks that the contexts carry no [LogContext] unless the presenter overrides [BasePresenter.logContext]
+	 */
+	@Test
+	fun testLogContextOptIn() {
+		assertNull(basePresenter.uiContext[LogContext])
+
+		val logContext = LogContext(null, "presenter" to "UnderTest")
+		val presenter = object : BasePresenterUnderTest() {
+			override val logContext: LogContext? = logContext
+		}
+
+		assertSame(logContext, presenter.uiContext[LogContext])
+		assertSame(logContext, presenter.networkContext[LogContext])
+		assertSame(logContext, presenter.databaseContext[LogContext])
+	}
+
+	/**
+	 * Checks that with [BasePresenter.immediateUiDispatch] actions performed or executed on the ui thread
+	 * run right away through the main dispatcher's immediate version, while actions from other threads,
+	 * or once it is disabled, are still dispatched
+	 */
+	@Test
+	fun testImmediateUiDispatch() {
+		basePresenter.dispatchers = CoroutineDispatchers(main = QueuedMainDispatcher())
+		basePresenter.immediateUiDispatch = true
+		val order = mutableListOf<String>()
+
+		queuedUiTasks += Runnable {
+			basePresenter.performOnUi { order += "performed" }
+			runBlocking { basePresenter.executeOnUi { order += "executed" } }
+			order += "after"
+		}
+		runQueuedUiTasks()
+		assertEquals(listOf("performed", "executed", "after"), order)
+
+		order.clear()
+		basePresenter.performOnUi { order += "performed" }
+		order += "after"
+		runQueuedUiTasks()
+		assertEquals(listOf("after", "performed"), order)
+
+		order.clear()
+		basePresenter.immediateUiDispatch = false
+		queuedUiTasks += Runnable {
+			basePresenter.performOnUi { order += "performed" }
+			order += "after"
+		}
+		runQueuedUiTasks()
+		assertEquals(listOf("after", "performed"), order)
+	}
 
 	@Test
 	fun testLifecycleDetachCalled() {
@@ -120,4 +324,35 @@ class BasePresenterTest {
 	fun tearDown() {
 		reset(basePresenter, baseView, lifecycleOwner)
 	}
+
+	/**
+	 * Runs what was dispatched to [queuedUiDispatcher] on the test thread, including what those tasks dispatch,
+	 * until nothing is left
+	 */
+	private fun runQueuedUiTasks() {
+		runningQueuedUiTasks = true
+		try {
+			while (true) {
+				(queuedUiTasks.pollFirst() ?: return).run()
+			}
+		} finally {
+			runningQueuedUiTasks = false
+		}
+	}
+
+	/**
+	 * A main dispatcher queueing its tasks into [queuedUiTasks], its immediate version runs them right away
+	 * while [runQueuedUiTasks] is running, as if on the ui thread
+	 */
+	private inner class QueuedMainDispatcher(private val isImmediate: Boolean = false) : MainCoroutineDispatcher() {
+
+		override val immediate: MainCoroutineDispatcher
+			get() = if (isImmediate) this else QueuedMainDispatcher(true)
+
+		override fun isDispatchNeeded(context: CoroutineContext): Boolean = !isImmediate || !runningQueuedUiTasks
+
+		override fun dispatch(context: CoroutineContext, block: Runnable) {
+			queuedUiTasks += block
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,218 @@
+package com.gilgoldzweig.mvp.mvp
+
+import com.gilgoldzweig.mvp.logging.OverflowPolicy
+import com.gilgoldzweig.mvp.logging.RecordingTree
+import com.gilgoldzweig.mvp.logging.Timber
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import kotlin.concurrent.thread
+
+/**
+ * Queues actions for a view from several threads and runs them on a single one
+ */
+class UiActionQueueTest {
+
+	private val view = RecordingView()
+
+	/**
+	 * Checks that actions offered by concurrent threads are all executed once, in order per thread
+	 */
+	@Test
+	fun testConcurrentOffers() {
+		val producers = 4
+		val actionsPerProducer = 20_000
+		val queue = UiActionQueue<RecordingView>(producers * actionsPerProducer, OverflowPolicy.DROP_NEWEST)
+		val lastSeen = IntArray(producers) { -1 }
+		var executed = 0
+
+		val threads = (0 until producers).map { producer ->
+			thread {
+				repeat(actionsPerProducer) { index ->
+					assertTrue(queue.offer { record(producer, index) })
+				}
+			}
+		}
+		while (executed < producers * actionsPerProducer) {
+			if (!queue.executeNext(view)) {
+				Thread.yield()
+				continue
+			}
+			val (producer, index) = view.last
+			assertEquals(lastSeen[producer] + 1, index)
+			lastSeen[producer] = index
+			executed++
+		}
+		threads.forEach { it.join() }
+
+		assertTrue(queue.isEmpty())
+		assertEquals(producers * actionsPerProducer.toLong(), queue.metrics().executed)
+		assertEquals(0, queue.metrics().dropped)
+	}
+
+	/**
+	 * Checks that a full queue keeps the newest actions with [OverflowPolicy.DROP_OLDEST]
+	 * and the oldest ones with [OverflowPolicy.DROP_NEWEST], counting what it dropped
+	 */
+	@Test
+	fun testOverflowPolicies() {
+		val dropOldest = UiActionQueue<RecordingView>(4, OverflowPolicy.DROP_OLDEST)
+		val dropNewest = UiActionQueue<RecordingView>(4, OverflowPolicy.DROP_NEWEST)
+		repeat(10) { index ->
+			assertTrue(dropOldest.offer { record(0, index) })
+			assertEquals(index < 4, dropNewest.offer { record(1, index) })
+		}
+		assertEquals(4, dropOldest.size)
+		assertEquals(6, dropOldest.metrics().dropped)
+		assertEquals(6, dropNewest.metrics().dropped)
+		assertEquals(4, dropNewest.metrics().peakDepth)
+
+		while (dropOldest.executeNext(view)) Unit
+		assertEquals(listOf(6, 7, 8, 9), view.indexes)
+		view.indexes.clear()
+		while (dropNewest.executeNext(view)) Unit
+		assertEquals(listOf(0, 1, 2, 3), view.indexes)
+	}
+
+	/**
+	 * Checks that every dropped action is reported as a warning
+	 */
+	@Test
+	fun testDropsReported() {
+		val tree = RecordingTree()
+		Timber.plant(tree)
+		try {
+			val dropOldest = UiActionQueue<RecordingView>(2, OverflowPolicy.DROP_OLDEST)
+			val dropNewest = UiActionQueue<RecordingView>(2, OverflowPolicy.DROP_NEWEST)
+			repeat(3) { index ->
+				dropOldest.offer { record(0, index) }
+				dropNewest.offer("key$index") { record(1, index) }
+			}
+		} finally {
+			Timber.uproot(tree)
+		}
+
+		assertEquals(listOf(
+			"W/UiActionQueue: Dropped a ui action with DROP_OLDEST, 2 waiting, 1 dropped so far",
+			"W/UiActionQueue: Dropped a ui action with DROP_NEWEST, 2 waiting, 1 dropped so far"
+		), tree.lines())
+	}
+
+	/**
+	 * Checks that the time between queueing and running an action is measured,
+	 * and that actions taken without a view or cleared are neither executed nor dropped
+	 */
+	@Test
+	fun testMetrics() {
+		val queue = UiActionQueue<RecordingView>()
+		queue.offer { record(0, 0) }
+		Thread.sleep(20)
+		assertTrue(queue.executeNext(view))
+
+		queue.offer { record(0, 1) }
+		assertTrue(queue.executeNext(null))
+		queue.offer { record(0, 2) }
+		queue.clear()
+		assertFalse(queue.executeNext(view))
+
+		val metrics = queue.metrics()
+		assertEquals(listOf(0), view.indexes)
+		assertEquals(1, metrics.executed)
+		assertEquals(0, metrics.dropped)
+		assertEquals(0, metrics.depth)
+		assertTrue(metrics.maxLatencyNanos >= 20_000_000)
+		assertEquals(metrics.maxLatencyNanos, metrics.averageLatencyNanos)
+	}
+
+	/**
+	 * Checks that a keyed action replaces the waiting one with the same key in its place in the queue
+	 * and that a key gets a new place once its action was taken
+	 */
+	@Test
+	fun testKeyedConflation() {
+		val queue = UiActionQueue<RecordingView>(4)
+		queue.offer { record(0, 0) }
+		repeat(10_000) { progress ->
+			assertTrue(queue.offer("progress") { record(1, progress) })
+		}
+		queue.offer { record(0, 1) }
+		assertEquals(3, queue.size)
+
+		while (queue.executeNext(view)) Unit
+		assertEquals(listOf(0, 9_999, 1), view.indexes)
+		assertEquals(9_999, queue.metrics().conflated)
+		assertEquals(0, queue.metrics().dropped)
+
+		queue.offer("progress") { record(1, 10_000) }
+		assertTrue(queue.executeNext(view))
+		assertEquals(10_000, view.indexes.last())
+	}
+
+	/**
+	 * Checks that the latest keyed action always runs while other threads keep replacing it
+	 */
+	@Test
+	fun testConcurrentKeyedOffers() {
+		val queue = UiActionQueue<RecordingView>(16)
+		val producers = 4
+		val updates = 50_000
+		val latest = IntArray(producers) { -1 }
+
+		val threads = (0 until producers).map { producer ->
+			thread {
+				repeat(updates) { index ->
+					assertTrue(queue.offer(producer) { record(producer, index) })
+				}
+			}
+		}
+		while (threads.any { it.isAlive } || queue.isNotEmpty()) {
+			if (queue.executeNext(view)) {
+				val (producer, index) = view.last
+				assertTrue(index > latest[producer])
+				latest[producer] = index
+			}
+		}
+		threads.forEach { it.join() }
+		while (queue.executeNext(view)) {
+			latest[view.last.first] = view.last.second
+		}
+
+		assertTrue(latest.all { it == updates - 1 })
+	}
+
+	/**
+	 * Checks that every keyed action offered to a full queue with [OverflowPolicy.DROP_NEWEST] is counted
+	 * once, as dropped or as replaced, while other threads replace the action being dropped
+	 */
+	@Test
+	fun testKeyedOffersToFullQueue() {
+		val queue = UiActionQueue<RecordingView>(2, OverflowPolicy.DROP_NEWEST)
+		queue.offer { record(0, 0) }
+		queue.offer { record(0, 1) }
+		val producers = 4
+		val offers = 20_000
+
+		(0 until producers).map { producer ->
+			thread {
+				repeat(offers) { index -> queue.offer("full") { record(producer + 1, index) } }
+			}
+		}.forEach { it.join() }
+		while (queue.executeNext(view)) Unit
+
+		val metrics = queue.metrics()
+		assertEquals(listOf(0, 1), view.indexes)
+		assertEquals(producers * offers.toLong(), metrics.dropped + metrics.conflated)
+		assertTrue(metrics.dropped > 0)
+	}
+
+	class RecordingView : BaseContract.View {
+		var last = 0 to 0
+		val indexes = mutableListOf<Int>()
+
+		fun record(producer: Int, index: Int) {
+			last = producer to index
+			indexes += index
+		}
+	}
+}